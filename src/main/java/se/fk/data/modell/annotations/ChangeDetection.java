@@ -0,0 +1,33 @@
+package se.fk.data.modell.annotations;
+
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * A type-level annotation that selects how modifications of a
+ * livscykelhanterad object are detected between reads and writes.
+ */
+@Retention(RUNTIME)
+@Target(TYPE)
+@Inherited
+public @interface ChangeDetection {
+    Strategy value() default Strategy.DIGEST;
+
+    enum Strategy {
+        /**
+         * Compare a digest over the canonical (JCS) form of the object.
+         */
+        DIGEST,
+
+        /**
+         * Compare a snapshot of the object's fields, taken after it was last
+         * read or written. No serialization takes place, so the digest of the
+         * object is not maintained -- compute it (e.g. for audit) when needed.
+         */
+        FIELD_SNAPSHOT
+    }
+}
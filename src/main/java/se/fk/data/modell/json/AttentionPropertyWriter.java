@@ -49,11 +49,18 @@ public class AttentionPropertyWriter extends VirtualBeanPropertyWriter {
             JsonGenerator gen,
             SerializationContext prov
     ) throws Exception {
+        if (null != prov.getAttribute(ChangeReport.class)) {
+            return null; // only detecting changes, so leave flag as is
+        }
         if (bean instanceof Livscykelhanterad lhb) {
-            Boolean value = lhb.__attention;
-            lhb.__attention = null; // reset flag
-
-            return value; // may be null, in which case we ignore this field
+            // Version stepped by this very serialization?
+            if (prov.getAttribute(LifecycleDigester.Pass.class) instanceof LifecycleDigester.Pass pass
+                    && pass.holdsClaim(lhb)) {
+                lhb.takeAttention(); // covered as well
+                return Boolean.TRUE;
+            }
+            // Otherwise, fetch and reset flag as set by the application
+            return lhb.takeAttention(); // may be null, in which case we ignore this field
         }
         return null;
     }
@@ -0,0 +1,23 @@
+package se.fk.data.modell.json;
+
+import java.security.MessageDigest;
+
+/**
+ * Hash used for detecting modifications of livscykelhanterade objects, i.e. for
+ * their (transient) digests. These digests are never used for signing, so a fast
+ * non-cryptographic hash will do -- signatures stay with {@link SignatureUtils}.
+ * <p>
+ * Implementations hand out a fresh (or reset) {@link MessageDigest} per call, which is
+ * fed the canonical (JCS) form of an object.
+ */
+@FunctionalInterface
+public interface ChangeHash {
+
+    /** SHA-256, as used prior to having a choice */
+    ChangeHash SHA_256 = () -> DigestUtils.newMessageDigest(SignatureUtils.DigestAlgorithm.SHA_256);
+
+    /** MurmurHash3 (x64, 128 bit), several times faster than SHA-256 but not cryptographic */
+    ChangeHash MURMUR3_128 = Murmur3Digest::new;
+
+    MessageDigest newDigest();
+}
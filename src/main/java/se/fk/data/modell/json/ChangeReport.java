@@ -0,0 +1,90 @@
+package se.fk.data.modell.json;
+
+import se.fk.data.modell.v1.Livscykelhanterad;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which livscykelhanterade objects in a graph are new, modified or unchanged -- i.e.
+ * what serialization would do to them, had they been serialized.
+ * <p>
+ * A report is filled in by {@link LifecycleAwareSerializer} when present as a
+ * per-call attribute (keyed by this class), in which case versions, attention flags
+ * and digests are left as they are.
+ * <p>
+ * Filling in a report costs as much as serializing the graph: every object is
+ * written (to a discarding output) and digested just as it would be when serialized.
+ */
+public final class ChangeReport {
+
+    public enum Status {
+        NEW,
+        MODIFIED,
+        UNCHANGED
+    }
+
+    /**
+     * @param oldVersion the current version of the object
+     * @param newVersion the version the object would get if serialized
+     */
+    public record Entry(
+            String id,
+            Class<?> type,
+            Status status,
+            int oldVersion,
+            int newVersion
+    ) {}
+
+    private final Map<Livscykelhanterad, Entry> entries = new IdentityHashMap<>();
+    private final List<Entry> ordered = new ArrayList<>();
+
+    void add(Livscykelhanterad bean, Status status) {
+        if (entries.containsKey(bean)) {
+            return; // already reported, e.g. when referenced from several places
+        }
+        int version = bean.version;
+        Entry entry = new Entry(
+                bean.id,
+                bean.getClass(),
+                status,
+                version,
+                status == Status.UNCHANGED ? version : version + 1
+        );
+        entries.put(bean, entry);
+        ordered.add(entry);
+    }
+
+    /** All objects encountered, in the order they would have been serialized */
+    public List<Entry> entries() {
+        return Collections.unmodifiableList(ordered);
+    }
+
+    /** Objects that are new or modified */
+    public List<Entry> changes() {
+        List<Entry> changes = new ArrayList<>();
+        for (Entry entry : ordered) {
+            if (entry.status() != Status.UNCHANGED) {
+                changes.add(entry);
+            }
+        }
+        return changes;
+    }
+
+    public boolean hasChanges() {
+        for (Entry entry : ordered) {
+            if (entry.status() != Status.UNCHANGED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** The entry for a given object, or null if it was not encountered */
+    public Entry entryFor(Livscykelhanterad bean) {
+        return entries.get(bean);
+    }
+}
@@ -32,6 +32,17 @@ public class ClassSerializerModifier extends ValueSerializerModifier {
     private final String ATTENTION_FLAG_NAME = "__attention";
     private final PropertyName attentionFlagPropertyName = PropertyName.construct(ATTENTION_FLAG_NAME);
 
+    private final boolean withAttentionFlag;
+
+    public ClassSerializerModifier() {
+        this(true);
+    }
+
+    // Digests are computed without the attention flag, which is reset when written
+    public ClassSerializerModifier(boolean withAttentionFlag) {
+        this.withAttentionFlag = withAttentionFlag;
+    }
+
     @Override
     public List<BeanPropertyWriter> changeProperties(
             SerializationConfig config,
@@ -41,34 +52,36 @@ public class ClassSerializerModifier extends ValueSerializerModifier {
         List<BeanPropertyWriter> newProps = new ArrayList<>(beanProperties);
 
         // Check if we have an attention flag "__attention".
-        try {
-            Field attentionFlag = beanDesc.getBeanClass().getField(ATTENTION_FLAG_NAME);
-
-            // If we are still here, the named field exists
-            JavaType boolType = config.getTypeFactory().constructType(Boolean.class);
-
-            // Create a BeanPropertyDefinition for the virtual property
-            BeanPropertyDefinition propDef = SimpleBeanPropertyDefinition
-                    .construct(
-                            config,
-                            new VirtualAnnotatedMember(
-                                    beanDesc.getClassInfo(),
-                                    beanDesc.getBeanClass(),
-                                    ATTENTION_FLAG_NAME,
-                                    boolType
-                            ),
-                            attentionFlagPropertyName
-                    );
-
-            AttentionPropertyWriter propertyWriter = new AttentionPropertyWriter(
-                    propDef,
-                    beanDesc.getClassAnnotations(),
-                    config.getTypeFactory().constructType(String.class)
-            );
-
-            newProps.addFirst(propertyWriter);
-
-        } catch (NoSuchFieldException ignore) {}
+        if (withAttentionFlag) {
+            try {
+                Field attentionFlag = beanDesc.getBeanClass().getField(ATTENTION_FLAG_NAME);
+
+                // If we are still here, the named field exists
+                JavaType boolType = config.getTypeFactory().constructType(Boolean.class);
+
+                // Create a BeanPropertyDefinition for the virtual property
+                BeanPropertyDefinition propDef = SimpleBeanPropertyDefinition
+                        .construct(
+                                config,
+                                new VirtualAnnotatedMember(
+                                        beanDesc.getClassInfo(),
+                                        beanDesc.getBeanClass(),
+                                        ATTENTION_FLAG_NAME,
+                                        boolType
+                                ),
+                                attentionFlagPropertyName
+                        );
+
+                AttentionPropertyWriter propertyWriter = new AttentionPropertyWriter(
+                        propDef,
+                        beanDesc.getClassAnnotations(),
+                        config.getTypeFactory().constructType(String.class)
+                );
+
+                newProps.addFirst(propertyWriter);
+
+            } catch (NoSuchFieldException ignore) {}
+        }
 
         // Check if we have a @Context annotation
         Context contextAnnotation = beanDesc.getClassAnnotations().get(Context.class);
@@ -0,0 +1,62 @@
+package se.fk.data.modell.json;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.databind.util.TokenBuffer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the livscykelhanterade objects that are new or modified during a
+ * serialization, so that only these are written -- as a "changed objects only"
+ * document keyed by id:
+ * <pre>
+ * {
+ *   "&lt;id&gt;": { ...the object, as serialized... },
+ *   ...
+ * }
+ * </pre>
+ * Within each object, nested livscykelhanterade objects are written as references,
+ * i.e. {@code {"id": "...", "version": n}}, whether they changed or not. Changed
+ * nested objects appear as entries of their own.
+ * <p>
+ * A document is filled in by {@link LifecycleAwareSerializer} when present as a
+ * per-call attribute (keyed by this class). Lifecycle bookkeeping (versions,
+ * attention flags and digests) is the same as for a full serialization, and done
+ * in the same pass.
+ */
+public final class DeltaDocument {
+    private final Map<String, TokenBuffer> changed = new LinkedHashMap<>();
+    private int depth;
+
+    /** Enters an object, returning whether it is nested within another */
+    boolean enter() {
+        return depth++ > 0;
+    }
+
+    void exit() {
+        depth--;
+    }
+
+    void add(String id, TokenBuffer object) {
+        changed.putIfAbsent(id, object);
+    }
+
+    void writeTo(JsonGenerator gen) throws JacksonException {
+        gen.writeStartObject();
+        for (Map.Entry<String, TokenBuffer> entry : changed.entrySet()) {
+            gen.writeName(entry.getKey());
+            entry.getValue().serialize(gen);
+        }
+        gen.writeEndObject();
+    }
+
+    /** Ids of the objects that were new or modified, in order of completion */
+    public List<String> ids() {
+        return Collections.unmodifiableList(new ArrayList<>(changed.keySet()));
+    }
+}
@@ -2,14 +2,26 @@ package se.fk.data.modell.json;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import tools.jackson.core.JsonParser;
 import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.ObjectWriter;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.util.TokenBuffer;
 
 import java.security.MessageDigest;
+import java.util.EnumMap;
 import java.util.Locale;
+import java.util.Map;
 
 public class DigestUtils {
     private static final Logger log = LoggerFactory.getLogger(DigestUtils.class);
 
+    // Only used for tokenizing raw JSON, so any mapper configuration will do
+    private static final ObjectMapper PARSER_MAPPER = JsonMapper.builder().build();
+
+    // Cloning a prototype avoids a provider lookup per digest
+    private static final Map<SignatureUtils.DigestAlgorithm, MessageDigest> PROTOTYPES = prototypes();
+
     public static byte[] computeDigest(
             Object bean,
             ObjectMapper mapper
@@ -22,15 +34,42 @@ public class DigestUtils {
             ObjectMapper mapper,
             SignatureUtils.DigestAlgorithm digestAlgorithm
     ) {
-        byte[] json = mapper.writeValueAsBytes(bean);
-        byte[] canonical = JcsUtils.canonicalize(json);
-        return digestCanonical(canonical, digestAlgorithm);
+        // Serialize into a token buffer and canonicalize straight from its token stream
+        try (TokenBuffer tokens = mapper.writeValueIntoBuffer(bean);
+             JsonParser parser = tokens.asParser()) {
+            return JcsCanonicalizer.digest(parser, newMessageDigest(digestAlgorithm));
+        }
+    }
+
+    public static byte[] computeDigest(
+            Object bean,
+            ObjectWriter writer,
+            SignatureUtils.DigestAlgorithm digestAlgorithm
+    ) {
+        return computeDigest(bean, writer, newMessageDigest(digestAlgorithm));
+    }
+
+    static byte[] computeDigest(
+            Object bean,
+            ObjectWriter writer,
+            MessageDigest digest
+    ) {
+        // Same as above, but honours per-call writer attributes
+        try (TokenBuffer tokens = writer.writeValueIntoBuffer(bean);
+             JsonParser parser = tokens.asParser()) {
+            return JcsCanonicalizer.digest(parser, digest);
+        }
     }
 
     public static byte[] computeJcsDigestFromJsonBytes(byte[] jsonBytes) {
         return computeJcsDigestFromJsonBytes(jsonBytes, SignatureUtils.DigestAlgorithm.SHA_256);
     }
 
+    /**
+     * Digest of the canonical (JCS) form of {@code jsonBytes}, which must hold a single
+     * JSON value: anything but whitespace after it is rejected, so that inputs differing
+     * only in what follows the value cannot share a digest.
+     */
     public static byte[] computeJcsDigestFromJsonBytes(
             byte[] jsonBytes,
             SignatureUtils.DigestAlgorithm digestAlgorithm
@@ -38,22 +77,40 @@ public class DigestUtils {
         if (jsonBytes == null) {
             throw new IllegalArgumentException("jsonBytes must not be null");
         }
-        byte[] canonical = JcsUtils.canonicalize(jsonBytes);
-        return digestCanonical(canonical, digestAlgorithm);
+        try (JsonParser parser = PARSER_MAPPER.createParser(jsonBytes)) {
+            return JcsCanonicalizer.digest(parser, newMessageDigest(digestAlgorithm));
+        }
     }
 
-    private static byte[] digestCanonical(byte[] canonical, SignatureUtils.DigestAlgorithm digestAlgorithm) {
+    static MessageDigest newMessageDigest(SignatureUtils.DigestAlgorithm digestAlgorithm) {
         SignatureUtils.DigestAlgorithm effective = digestAlgorithm == null
                 ? SignatureUtils.DigestAlgorithm.SHA_256
                 : digestAlgorithm;
         try {
-            MessageDigest md = MessageDigest.getInstance(effective.jcaName());
-            return md.digest(canonical);
+            MessageDigest prototype = PROTOTYPES.get(effective);
+            if (prototype != null) {
+                return (MessageDigest) prototype.clone();
+            }
+            return MessageDigest.getInstance(effective.jcaName());
         } catch (Exception e) {
             throw new IllegalStateException("Failed to compute " + effective.jsonName() + " digest", e);
         }
     }
 
+    private static Map<SignatureUtils.DigestAlgorithm, MessageDigest> prototypes() {
+        Map<SignatureUtils.DigestAlgorithm, MessageDigest> prototypes = new EnumMap<>(SignatureUtils.DigestAlgorithm.class);
+        for (SignatureUtils.DigestAlgorithm algorithm : SignatureUtils.DigestAlgorithm.values()) {
+            try {
+                MessageDigest md = MessageDigest.getInstance(algorithm.jcaName());
+                md.clone(); // only keep cloneable implementations
+                prototypes.put(algorithm, md);
+            } catch (Exception e) {
+                log.debug("No cloneable {} digest available, falling back to lookup per digest", algorithm.jsonName());
+            }
+        }
+        return prototypes;
+    }
+
     /* ----------- The rest of this class handles various visualisation of digests ----------- */
 
     private static final char[] HEX = "0123456789abcdef".toCharArray();
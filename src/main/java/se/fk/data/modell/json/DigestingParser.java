@@ -0,0 +1,186 @@
+package se.fk.data.modell.json;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.core.SerializableString;
+import tools.jackson.core.TreeNode;
+import tools.jackson.core.sym.PropertyNameMatcher;
+import tools.jackson.core.type.ResolvedType;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.core.util.JsonParserDelegate;
+
+import java.security.MessageDigest;
+import java.util.Set;
+
+/**
+ * Canonicalizes (JCS) the tokens actually consumed while binding, so that
+ * the digest of a livscykelhanterad object can be taken from its input
+ * rather than from a serialization of the bound object.
+ * <p>
+ * Every way of advancing the parser is routed through {@link #nextToken()}.
+ * Properties that are not part of the serialized form of an object, such as
+ * the attention flag, are left out.
+ */
+final class DigestingParser extends JsonParserDelegate {
+
+    // Written to (or read from) the wire, but not part of digests
+    private static final Set<String> EXCLUDED_PROPERTIES = Set.of("__attention", "mimer:schemaVersion");
+
+    private final JcsCanonicalizer canonicalizer = new JcsCanonicalizer();
+
+    private boolean abandoned;
+    private boolean skipValue;
+    private int skipNesting;
+
+    DigestingParser(JsonParser delegate) {
+        super(delegate);
+
+        JsonToken t = delegate.currentToken();
+        if (t == JsonToken.START_OBJECT) {
+            canonicalizer.startObject();
+        } else if (t == JsonToken.PROPERTY_NAME) {
+            // Type id handling has already consumed the start of the object
+            canonicalizer.startObject();
+            feed(t);
+        } else {
+            abandoned = true;
+        }
+    }
+
+    /**
+     * Position of the object being bound, to be handed back to
+     * {@link #digestObjectAt(int, MessageDigest)} once it has been bound.
+     */
+    int objectStart() {
+        return abandoned ? -1 : canonicalizer.openStart();
+    }
+
+    /**
+     * Computes the digest of the object starting at {@code start}, provided it was
+     * the last thing consumed. Otherwise (e.g. if the object was bound from buffered
+     * tokens) digests can no longer be trusted and this parser gives up.
+     */
+    byte[] digestObjectAt(int start, MessageDigest digest) {
+        if (abandoned || start < 0 || canonicalizer.lastContainerStart() != start) {
+            abandoned = true;
+            return null;
+        }
+        canonicalizer.writeLastContainerTo(digest);
+        return digest.digest();
+    }
+
+    /** Replaces the object that was consumed last by a reference (its digest) */
+    void replaceLastObject(byte[] digest) {
+        if (!abandoned) {
+            canonicalizer.replaceLastContainer(digest);
+        }
+    }
+
+    private void feed(JsonToken t) {
+        if (abandoned || null == t) {
+            return;
+        }
+        if (skipValue) {
+            if (t.isStructStart()) {
+                skipNesting++;
+            } else if (t.isStructEnd()) {
+                skipNesting--;
+            }
+            skipValue = skipNesting > 0;
+            return;
+        }
+        if (t == JsonToken.PROPERTY_NAME && EXCLUDED_PROPERTIES.contains(delegate.currentName())) {
+            skipValue = true;
+            skipNesting = 0;
+            return;
+        }
+        try {
+            canonicalizer.token(delegate, t);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            // Unbalanced (partial) input or non-JCS values -- let binding decide
+            abandoned = true;
+        }
+    }
+
+    @Override
+    public JsonToken nextToken() throws JacksonException {
+        JsonToken t = delegate.nextToken();
+        feed(t);
+        return t;
+    }
+
+    @Override
+    public JsonToken nextValue() throws JacksonException {
+        JsonToken t = nextToken();
+        if (t == JsonToken.PROPERTY_NAME) {
+            t = nextToken();
+        }
+        return t;
+    }
+
+    @Override
+    public String nextName() throws JacksonException {
+        return nextToken() == JsonToken.PROPERTY_NAME ? currentName() : null;
+    }
+
+    @Override
+    public boolean nextName(SerializableString str) throws JacksonException {
+        return nextToken() == JsonToken.PROPERTY_NAME && str.getValue().equals(currentName());
+    }
+
+    @Override
+    public int nextNameMatch(PropertyNameMatcher matcher) throws JacksonException {
+        String name = nextName();
+        if (null != name) {
+            return matcher.matchName(name);
+        }
+        if (hasToken(JsonToken.END_OBJECT)) {
+            return PropertyNameMatcher.MATCH_END_OBJECT;
+        }
+        return PropertyNameMatcher.MATCH_ODD_TOKEN;
+    }
+
+    // Values read in one go (e.g. as a tree) must also be read through this parser
+
+    @Override
+    public <T> T readValueAs(Class<T> valueType) throws JacksonException {
+        return objectReadContext().readValue(this, valueType);
+    }
+
+    @Override
+    public <T> T readValueAs(TypeReference<T> valueTypeRef) throws JacksonException {
+        return objectReadContext().readValue(this, valueTypeRef);
+    }
+
+    @Override
+    public <T> T readValueAs(ResolvedType type) throws JacksonException {
+        return objectReadContext().readValue(this, type);
+    }
+
+    @Override
+    public <T extends TreeNode> T readValueAsTree() throws JacksonException {
+        return objectReadContext().readTree(this);
+    }
+
+    @Override
+    public JsonParser skipChildren() throws JacksonException {
+        JsonToken t = currentToken();
+        if (t != JsonToken.START_OBJECT && t != JsonToken.START_ARRAY) {
+            return this;
+        }
+        int open = 1;
+        while (open > 0) {
+            t = nextToken();
+            if (null == t) {
+                break;
+            }
+            if (t.isStructStart()) {
+                open++;
+            } else if (t.isStructEnd()) {
+                open--;
+            }
+        }
+        return this;
+    }
+}
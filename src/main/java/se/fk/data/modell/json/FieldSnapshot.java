@@ -0,0 +1,351 @@
+package se.fk.data.modell.json;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import se.fk.data.modell.annotations.ChangeDetection;
+import se.fk.data.modell.v1.Livscykelhanterad;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Captures and compares the field values of an object, as an alternative to
+ * comparing digests over its canonical form. See {@link ChangeDetection.Strategy#FIELD_SNAPSHOT}.
+ * <p>
+ * Fields are accessed through {@link VarHandle}s, resolved once per class. Primitive
+ * fields are kept unboxed. Mutable values (nested beans, collections, maps, arrays and
+ * dates) are captured deeply, while nested livscykelhanterade objects are captured by
+ * identity and version only -- whether they were modified is left to their own change
+ * detection.
+ * <p>
+ * All non-static and non-transient fields, not annotated with {@link JsonIgnore}, take
+ * part -- regardless of whether they are serialized or not.
+ */
+final class FieldSnapshot {
+
+    private static final ClassValue<Boolean> ENABLED = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            ChangeDetection annotation = type.getAnnotation(ChangeDetection.class);
+            return null != annotation && annotation.value() == ChangeDetection.Strategy.FIELD_SNAPSHOT;
+        }
+    };
+
+    private static final ClassValue<Layout> LAYOUTS = new ClassValue<>() {
+        @Override
+        protected Layout computeValue(Class<?> type) {
+            return Layout.of(type);
+        }
+    };
+
+    private FieldSnapshot() {}
+
+    static boolean isEnabled(Class<?> type) {
+        return ENABLED.get(type);
+    }
+
+    /** Captures the current field values of a bean */
+    static Object capture(Object bean) {
+        return captureBean(bean);
+    }
+
+    /**
+     * Determines whether a bean still matches a snapshot, consulting
+     * {@code isModified} for nested livscykelhanterade objects.
+     */
+    static boolean matches(Object snapshot, Object bean, Predicate<Livscykelhanterad> isModified) {
+        return matchesValue(snapshot, bean, isModified);
+    }
+
+    /* ----------- Capture ----------- */
+
+    private record BeanValue(Class<?> type, long[] primitives, Object[] references) {}
+
+    private record ChildValue(Livscykelhanterad child, int version) {}
+
+    private record ElementsValue(Class<?> type, Object[] elements) {}
+
+    private record EntriesValue(Class<?> type, Object[] keysAndValues) {}
+
+    private static BeanValue captureBean(Object bean) {
+        Layout layout = LAYOUTS.get(bean.getClass());
+
+        long[] primitives = new long[layout.primitives.length];
+        for (int i = 0; i < primitives.length; i++) {
+            primitives[i] = layout.readPrimitive(i, bean);
+        }
+
+        Object[] references = new Object[layout.references.length];
+        for (int i = 0; i < references.length; i++) {
+            references[i] = captureValue(layout.references[i].get(bean));
+        }
+        return new BeanValue(bean.getClass(), primitives, references);
+    }
+
+    private static Object captureValue(Object value) {
+        if (null == value || isImmutable(value.getClass())) {
+            return value;
+        }
+        if (value instanceof Livscykelhanterad child) {
+            return new ChildValue(child, child.version);
+        }
+        if (value instanceof Date date) {
+            return date.clone();
+        }
+        if (value instanceof Collection<?> collection) {
+            Object[] elements = new Object[collection.size()];
+            int i = 0;
+            for (Object element : collection) {
+                elements[i++] = captureValue(element);
+            }
+            return new ElementsValue(value.getClass(), elements);
+        }
+        if (value instanceof Map<?, ?> map) {
+            Object[] keysAndValues = new Object[2 * map.size()];
+            int i = 0;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                keysAndValues[i++] = captureValue(entry.getKey());
+                keysAndValues[i++] = captureValue(entry.getValue());
+            }
+            return new EntriesValue(value.getClass(), keysAndValues);
+        }
+        if (value instanceof Object[] array) {
+            Object[] elements = new Object[array.length];
+            for (int i = 0; i < array.length; i++) {
+                elements[i] = captureValue(array[i]);
+            }
+            return new ElementsValue(value.getClass(), elements);
+        }
+        if (value.getClass().isArray()) {
+            return clonePrimitiveArray(value);
+        }
+        if (isPlatformClass(value.getClass())) {
+            // Not accessible for field-wise capture, so we rely on equals()
+            return value;
+        }
+        return captureBean(value);
+    }
+
+    /* ----------- Compare ----------- */
+
+    private static boolean matchesValue(Object snapshot, Object value, Predicate<Livscykelhanterad> isModified) {
+        if (null == snapshot || null == value) {
+            return snapshot == value;
+        }
+        if (snapshot instanceof ChildValue child) {
+            return child.child() == value
+                    && child.child().version == child.version()
+                    && !isModified.test(child.child());
+        }
+        if (snapshot instanceof BeanValue bean) {
+            return bean.type() == value.getClass() && matchesBean(bean, value, isModified);
+        }
+        if (snapshot instanceof ElementsValue elements) {
+            if (elements.type() != value.getClass()) {
+                return false;
+            }
+            Object[] expected = elements.elements();
+            if (value instanceof Object[] array) {
+                if (array.length != expected.length) {
+                    return false;
+                }
+                for (int i = 0; i < array.length; i++) {
+                    if (!matchesValue(expected[i], array[i], isModified)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            Collection<?> collection = (Collection<?>) value;
+            if (collection.size() != expected.length) {
+                return false;
+            }
+            int i = 0;
+            for (Object element : collection) {
+                if (!matchesValue(expected[i++], element, isModified)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (snapshot instanceof EntriesValue entries) {
+            if (entries.type() != value.getClass()) {
+                return false;
+            }
+            Object[] expected = entries.keysAndValues();
+            Map<?, ?> map = (Map<?, ?>) value;
+            if (2 * map.size() != expected.length) {
+                return false;
+            }
+            Iterator<? extends Map.Entry<?, ?>> it = map.entrySet().iterator();
+            for (int i = 0; i < expected.length; i += 2) {
+                Map.Entry<?, ?> entry = it.next();
+                if (!matchesValue(expected[i], entry.getKey(), isModified)
+                        || !matchesValue(expected[i + 1], entry.getValue(), isModified)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        // Immutable values, dates and primitive arrays
+        return Objects.deepEquals(snapshot, value);
+    }
+
+    private static boolean matchesBean(BeanValue snapshot, Object bean, Predicate<Livscykelhanterad> isModified) {
+        Layout layout = LAYOUTS.get(snapshot.type());
+
+        long[] primitives = snapshot.primitives();
+        for (int i = 0; i < primitives.length; i++) {
+            if (primitives[i] != layout.readPrimitive(i, bean)) {
+                return false;
+            }
+        }
+
+        Object[] references = snapshot.references();
+        for (int i = 0; i < references.length; i++) {
+            if (!matchesValue(references[i], layout.references[i].get(bean), isModified)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* ----------- Support ----------- */
+
+    private static boolean isImmutable(Class<?> type) {
+        return type == String.class
+                || type == Boolean.class
+                || type == Character.class
+                || type == Integer.class
+                || type == Long.class
+                || type == Double.class
+                || type == Float.class
+                || type == Short.class
+                || type == Byte.class
+                || type == BigDecimal.class
+                || type == BigInteger.class
+                || type == UUID.class
+                || type == URI.class
+                || type == Locale.class
+                || type == Class.class
+                || type.isEnum()
+                || (null != type.getSuperclass() && type.getSuperclass().isEnum()) // enum constant with body
+                || type.getPackageName().equals("java.time");
+    }
+
+    private static boolean isPlatformClass(Class<?> type) {
+        String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("jdk.") || name.startsWith("sun.");
+    }
+
+    private static Object clonePrimitiveArray(Object array) {
+        return switch (array) {
+            case boolean[] a -> a.clone();
+            case byte[] a -> a.clone();
+            case char[] a -> a.clone();
+            case short[] a -> a.clone();
+            case int[] a -> a.clone();
+            case long[] a -> a.clone();
+            case float[] a -> a.clone();
+            case double[] a -> a.clone();
+            default -> throw new IllegalArgumentException("Not a primitive array: " + array.getClass().getName());
+        };
+    }
+
+    /**
+     * Field accessors of a class (including inherited fields), split into primitive
+     * and reference fields.
+     */
+    private static final class Layout {
+        private final VarHandle[] primitives;
+        private final Class<?>[] primitiveTypes;
+        private final VarHandle[] references;
+
+        private Layout(VarHandle[] primitives, Class<?>[] primitiveTypes, VarHandle[] references) {
+            this.primitives = primitives;
+            this.primitiveTypes = primitiveTypes;
+            this.references = references;
+        }
+
+        static Layout of(Class<?> type) {
+            List<VarHandle> primitives = new ArrayList<>();
+            List<Class<?>> primitiveTypes = new ArrayList<>();
+            List<VarHandle> references = new ArrayList<>();
+
+            for (Class<?> c = type; null != c && c != Object.class; c = c.getSuperclass()) {
+                MethodHandles.Lookup lookup;
+                try {
+                    lookup = MethodHandles.privateLookupIn(c, MethodHandles.lookup());
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("Cannot access fields of " + c.getName(), e);
+                }
+
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers)
+                            || Modifier.isTransient(modifiers)
+                            || field.isSynthetic()
+                            || field.isAnnotationPresent(JsonIgnore.class)) {
+                        continue;
+                    }
+
+                    VarHandle handle;
+                    try {
+                        handle = lookup.unreflectVarHandle(field);
+                    } catch (IllegalAccessException e) {
+                        throw new IllegalStateException("Cannot access field " + c.getName() + "." + field.getName(), e);
+                    }
+
+                    if (field.getType().isPrimitive()) {
+                        primitives.add(handle);
+                        primitiveTypes.add(field.getType());
+                    } else {
+                        references.add(handle);
+                    }
+                }
+            }
+            return new Layout(
+                    primitives.toArray(VarHandle[]::new),
+                    primitiveTypes.toArray(Class<?>[]::new),
+                    references.toArray(VarHandle[]::new)
+            );
+        }
+
+        /** Reads a primitive field, widened (bitwise for floating point) to a long */
+        long readPrimitive(int i, Object bean) {
+            VarHandle handle = primitives[i];
+            Class<?> type = primitiveTypes[i];
+            if (type == int.class) {
+                return (int) handle.get(bean);
+            } else if (type == long.class) {
+                return (long) handle.get(bean);
+            } else if (type == double.class) {
+                return Double.doubleToRawLongBits((double) handle.get(bean));
+            } else if (type == boolean.class) {
+                return (boolean) handle.get(bean) ? 1L : 0L;
+            } else if (type == float.class) {
+                return Float.floatToRawIntBits((float) handle.get(bean));
+            } else if (type == short.class) {
+                return (short) handle.get(bean);
+            } else if (type == byte.class) {
+                return (byte) handle.get(bean);
+            } else {
+                return (char) handle.get(bean);
+            }
+        }
+    }
+}
@@ -0,0 +1,701 @@
+package se.fk.data.modell.json;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.core.exc.StreamReadException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.function.Function;
+
+/**
+ * Streaming RFC 8785 (JCS) canonicalizer, fed by Jackson tokens.
+ * <p>
+ * Canonical bytes are assembled in a reusable scratch buffer (properties of an
+ * object have to be sorted before the object can be emitted) and handed over to
+ * the sink in one go. No intermediate JSON text, object tree or String is produced.
+ * <p>
+ * Instances are not thread-safe. Hot paths should use the static helpers, which
+ * borrow a per-thread instance.
+ */
+public final class JcsCanonicalizer {
+    private static final ThreadLocal<JcsCanonicalizer> LOCAL = ThreadLocal.withInitial(JcsCanonicalizer::new);
+
+    // Do not let one huge document pin a huge scratch buffer to a thread forever
+    private static final int RETAINED_CAPACITY = 1 << 20;
+
+    // Integers in this range are exactly representable as IEEE 754 doubles
+    private static final long MAX_SAFE_INTEGER = (1L << 53);
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+
+    private static final byte KIND_OBJECT = 1;
+    private static final byte KIND_ARRAY = 2;
+
+    private byte[] buf = new byte[4096];
+    private int len;
+    private byte[] tmp;
+
+    // Members of all currently open objects, stacked
+    private String[] names = new String[32];
+    private int[] starts = new int[32];
+    private int members;
+
+    // Currently open containers, stacked
+    private byte[] kinds = new byte[16];
+    private int[] bases = new int[16];     // objects: index of first member; arrays: element count
+    private int[] offsets = new int[16];   // position of opening bracket
+    private boolean[] sorted = new boolean[16];
+    private int depth;
+
+    // Extent of the most recently closed container, valid while nothing has been appended since
+    private int lastStart = -1;
+    private int lastEnd = -1;
+
+    private boolean inUse;
+
+    public JcsCanonicalizer() {}
+
+    /**
+     * Canonicalizes the value at (or following) the current token of {@code parser}
+     * and feeds the canonical UTF-8 bytes into {@code digest}. The value must be the
+     * last one in the input.
+     */
+    public static byte[] digest(JsonParser parser, MessageDigest digest) throws JacksonException {
+        JcsCanonicalizer canonicalizer = borrow();
+        try {
+            canonicalizer.copyDocument(parser);
+            canonicalizer.writeTo(digest);
+            return digest.digest();
+        } finally {
+            canonicalizer.release();
+        }
+    }
+
+    /**
+     * Canonicalizes the value at (or following) the current token of {@code parser},
+     * which must be the last one in the input.
+     */
+    public static byte[] canonicalize(JsonParser parser) throws JacksonException {
+        JcsCanonicalizer canonicalizer = borrow();
+        try {
+            canonicalizer.copyDocument(parser);
+            return canonicalizer.toByteArray();
+        } finally {
+            canonicalizer.release();
+        }
+    }
+
+    /**
+     * Canonicalizes the value at (or following) the current token of {@code parser}
+     * and writes the canonical UTF-8 bytes to {@code out}. The value must be the last
+     * one in the input.
+     */
+    public static void canonicalize(JsonParser parser, OutputStream out) throws JacksonException, IOException {
+        JcsCanonicalizer canonicalizer = borrow();
+        try {
+            canonicalizer.copyDocument(parser);
+            canonicalizer.writeTo(out);
+        } finally {
+            canonicalizer.release();
+        }
+    }
+
+    /**
+     * Canonicalizes the value at (or following) the current token of {@code parser}
+     * and hands a read-only view of the canonical UTF-8 bytes to {@code action}. The
+     * value must be the last one in the input.
+     * <p>
+     * The view is backed by the scratch buffer, so no copy of the canonical form is
+     * made. It is only valid during the call, and must not be retained.
+     */
+    public static <R> R withCanonical(JsonParser parser, Function<ByteBuffer, R> action) throws JacksonException {
+        JcsCanonicalizer canonicalizer = borrow();
+        try {
+            canonicalizer.copyDocument(parser);
+            canonicalizer.requireComplete();
+            return action.apply(ByteBuffer.wrap(canonicalizer.buf, 0, canonicalizer.len).asReadOnlyBuffer());
+        } finally {
+            canonicalizer.release();
+        }
+    }
+
+    /* ----------- Push API ----------- */
+
+    public void reset() {
+        len = 0;
+        members = 0;
+        depth = 0;
+        lastStart = lastEnd = -1;
+    }
+
+    public boolean isComplete() {
+        return depth == 0 && len > 0;
+    }
+
+    public int size() {
+        return len;
+    }
+
+    /** Number of currently open objects and arrays */
+    public int depth() {
+        return depth;
+    }
+
+    /** Position of the innermost open object or array, or -1 if there is none */
+    public int openStart() {
+        return depth == 0 ? -1 : offsets[depth - 1];
+    }
+
+    /**
+     * Position of the object or array that was closed last, or -1 if anything
+     * has been written since.
+     */
+    public int lastContainerStart() {
+        return lastEnd == len ? lastStart : -1;
+    }
+
+    /** Feeds the canonical bytes of the object or array that was closed last */
+    public void writeLastContainerTo(MessageDigest digest) {
+        int start = lastContainerStart();
+        if (start < 0) {
+            throw new IllegalStateException("No container was closed last");
+        }
+        digest.update(buf, start, len - start);
+    }
+
+    /**
+     * Replaces the object or array that was closed last by a binary value
+     * (written as a Base64 string, as a generator would).
+     */
+    public void replaceLastContainer(byte[] value) {
+        int start = lastContainerStart();
+        if (start < 0) {
+            throw new IllegalStateException("No container was closed last");
+        }
+        len = start;
+        appendString(Base64.getEncoder().encodeToString(value));
+        lastStart = lastEnd = -1;
+    }
+
+    public void writeTo(MessageDigest digest) {
+        requireComplete();
+        digest.update(buf, 0, len);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        requireComplete();
+        out.write(buf, 0, len);
+    }
+
+    public byte[] toByteArray() {
+        requireComplete();
+        return Arrays.copyOf(buf, len);
+    }
+
+    public void startObject() {
+        beforeValue();
+        append((byte) '{');
+        push(KIND_OBJECT, members);
+    }
+
+    public void name(String name) {
+        if (depth == 0 || kinds[depth - 1] != KIND_OBJECT) {
+            throw new IllegalStateException("Property name outside of object");
+        }
+        int base = bases[depth - 1];
+        if (members > base) {
+            if (sorted[depth - 1] && names[members - 1].compareTo(name) >= 0) {
+                sorted[depth - 1] = false;
+            }
+        }
+        if (members == names.length) {
+            names = Arrays.copyOf(names, members * 2);
+            starts = Arrays.copyOf(starts, members * 2);
+        }
+        names[members] = name;
+        starts[members] = len;
+        if (members > base) {
+            append((byte) ',');
+        }
+        members++;
+        appendString(name);
+        append((byte) ':');
+    }
+
+    public void endObject() {
+        if (depth == 0 || kinds[depth - 1] != KIND_OBJECT) {
+            throw new IllegalStateException("Unbalanced end of object");
+        }
+        int base = bases[depth - 1];
+        if (!sorted[depth - 1]) {
+            sortMembers(base);
+        }
+        members = base;
+        lastStart = offsets[--depth];
+        append((byte) '}');
+        lastEnd = len;
+    }
+
+    public void startArray() {
+        beforeValue();
+        append((byte) '[');
+        push(KIND_ARRAY, 0);
+    }
+
+    public void endArray() {
+        if (depth == 0 || kinds[depth - 1] != KIND_ARRAY) {
+            throw new IllegalStateException("Unbalanced end of array");
+        }
+        lastStart = offsets[--depth];
+        append((byte) ']');
+        lastEnd = len;
+    }
+
+    public void string(String value) {
+        beforeValue();
+        appendString(value);
+    }
+
+    public void number(long value) {
+        beforeValue();
+        if (value >= -MAX_SAFE_INTEGER && value <= MAX_SAFE_INTEGER) {
+            appendLong(value);
+        } else {
+            appendDouble(value);
+        }
+    }
+
+    public void number(double value) {
+        beforeValue();
+        appendDouble(value);
+    }
+
+    public void bool(boolean value) {
+        beforeValue();
+        append(value ? TRUE : FALSE);
+    }
+
+    public void nullValue() {
+        beforeValue();
+        append(NULL);
+    }
+
+    /* ----------- Pull from a token stream ----------- */
+
+    /**
+     * Copies the value at the current token (advancing to the first token if
+     * there is none) including all of its children.
+     */
+    public void copy(JsonParser p) throws JacksonException {
+        JsonToken t = p.currentToken();
+        if (t == null) {
+            t = p.nextToken();
+        }
+        if (t == JsonToken.PROPERTY_NAME) {
+            // Positioned inside an object: treat remaining properties as an object of their own
+            startObject();
+            do {
+                token(p, t);
+                copyValue(p, p.nextToken());
+            } while ((t = p.nextToken()) == JsonToken.PROPERTY_NAME);
+            endObject();
+            return;
+        }
+        copyValue(p, t);
+    }
+
+    /**
+     * As {@link #copy(JsonParser)}, but also requires the value to end the input, so
+     * that nothing can be appended to a document without changing its canonical form
+     * (just like binding with {@code FAIL_ON_TRAILING_TOKENS}).
+     */
+    private void copyDocument(JsonParser p) throws JacksonException {
+        copy(p);
+        JsonToken t = p.nextToken();
+        if (t != null) {
+            throw new StreamReadException(p, "Trailing token (of type " + t + ") found after value");
+        }
+    }
+
+    private void copyValue(JsonParser p, JsonToken t) throws JacksonException {
+        if (t == null) {
+            throw new IllegalStateException("Unexpected end of input");
+        }
+        int level = 0;
+        do {
+            token(p, t);
+            if (t.isStructStart()) {
+                level++;
+            } else if (t.isStructEnd()) {
+                level--;
+            }
+        } while (level > 0 && (t = p.nextToken()) != null);
+        if (level != 0) {
+            throw new IllegalStateException("Unexpected end of input");
+        }
+    }
+
+    /**
+     * Feeds a single token, as currently positioned in {@code p}.
+     */
+    public void token(JsonParser p, JsonToken t) throws JacksonException {
+        switch (t) {
+            case START_OBJECT -> startObject();
+            case END_OBJECT -> endObject();
+            case START_ARRAY -> startArray();
+            case END_ARRAY -> endArray();
+            case PROPERTY_NAME -> name(p.currentName());
+            case VALUE_STRING -> string(p.getString());
+            case VALUE_NUMBER_INT -> {
+                switch (p.getNumberType()) {
+                    case INT, LONG -> number(p.getLongValue());
+                    default -> number(p.getDoubleValue());
+                }
+            }
+            case VALUE_NUMBER_FLOAT -> number(p.getDoubleValue());
+            case VALUE_TRUE -> bool(true);
+            case VALUE_FALSE -> bool(false);
+            case VALUE_NULL -> nullValue();
+            case VALUE_EMBEDDED_OBJECT -> embedded(p.getEmbeddedObject());
+            default -> throw new IllegalStateException("Unexpected token " + t);
+        }
+    }
+
+    private void embedded(Object value) {
+        // Token buffers keep binary values and POJOs as-is; mirror what a generator would have written
+        if (value == null) {
+            nullValue();
+        } else if (value instanceof byte[] bytes) {
+            string(Base64.getEncoder().encodeToString(bytes));
+        } else if (value instanceof Boolean b) {
+            bool(b);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            number(((Number) value).longValue());
+        } else if (value instanceof Number n) {
+            number(n.doubleValue());
+        } else {
+            string(value.toString());
+        }
+    }
+
+    /* ----------- Internals ----------- */
+
+    private static JcsCanonicalizer borrow() {
+        JcsCanonicalizer canonicalizer = LOCAL.get();
+        if (canonicalizer.inUse) {
+            return new JcsCanonicalizer();
+        }
+        canonicalizer.inUse = true;
+        canonicalizer.reset();
+        return canonicalizer;
+    }
+
+    private void release() {
+        inUse = false;
+        reset();
+        if (buf.length > RETAINED_CAPACITY) {
+            buf = new byte[4096];
+            tmp = null;
+        }
+        Arrays.fill(names, null);
+    }
+
+    private void requireComplete() {
+        if (depth != 0) {
+            throw new IllegalStateException("Canonical JSON is incomplete");
+        }
+    }
+
+    private void push(byte kind, int base) {
+        if (depth == kinds.length) {
+            kinds = Arrays.copyOf(kinds, depth * 2);
+            bases = Arrays.copyOf(bases, depth * 2);
+            offsets = Arrays.copyOf(offsets, depth * 2);
+            sorted = Arrays.copyOf(sorted, depth * 2);
+        }
+        kinds[depth] = kind;
+        bases[depth] = base;
+        offsets[depth] = len - 1;
+        sorted[depth] = true;
+        depth++;
+    }
+
+    private void beforeValue() {
+        if (depth > 0 && kinds[depth - 1] == KIND_ARRAY) {
+            if (bases[depth - 1]++ > 0) {
+                append((byte) ',');
+            }
+        }
+    }
+
+    /*
+     * Reorders the members [base, members) of the innermost object, which occupy
+     * the tail of the scratch buffer. Every member but the first carries a leading
+     * comma. Keys are compared as UTF-16 code units, i.e. String#compareTo, and the
+     * last of several duplicate keys wins (as when reading into a map).
+     */
+    private void sortMembers(int base) {
+        int count = members - base;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = base + i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = names[a].compareTo(names[b]);
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+
+        int from = starts[base];
+        if (tmp == null || tmp.length < len - from) {
+            tmp = new byte[Math.max(len - from, 1024)];
+        }
+        int out = 0;
+        for (int i = 0; i < count; i++) {
+            int m = order[i];
+            if (i + 1 < count && names[order[i + 1]].equals(names[m])) {
+                continue; // superseded by a later duplicate
+            }
+            int start = starts[m];
+            int end = (m + 1 < members) ? starts[m + 1] : len;
+            if (buf[start] == ',') {
+                start++;
+            }
+            if (out > 0) {
+                tmp[out++] = ',';
+            }
+            System.arraycopy(buf, start, tmp, out, end - start);
+            out += end - start;
+        }
+        System.arraycopy(tmp, 0, buf, from, out);
+        len = from + out;
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+    }
+
+    private void append(byte b) {
+        ensure(1);
+        buf[len++] = b;
+    }
+
+    private void append(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, len, bytes.length);
+        len += bytes.length;
+    }
+
+    private void appendAscii(CharSequence s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            buf[len++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void appendString(String s) {
+        int n = s.length();
+        ensure(n + 2);
+        buf[len++] = '"';
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                ensure(1);
+                buf[len++] = (byte) c;
+            } else if (c < 0x80) {
+                appendEscaped(c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buf[len++] = (byte) (0xC0 | (c >> 6));
+                buf[len++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensure(4);
+                buf[len++] = (byte) (0xF0 | (cp >> 18));
+                buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[len++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Lone surrogate; same replacement as String#getBytes(UTF_8)
+                ensure(1);
+                buf[len++] = '?';
+            } else {
+                ensure(3);
+                buf[len++] = (byte) (0xE0 | (c >> 12));
+                buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[len++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        ensure(1);
+        buf[len++] = '"';
+    }
+
+    private void appendEscaped(char c) {
+        ensure(6);
+        buf[len++] = '\\';
+        switch (c) {
+            case '"' -> buf[len++] = '"';
+            case '\\' -> buf[len++] = '\\';
+            case '\b' -> buf[len++] = 'b';
+            case '\f' -> buf[len++] = 'f';
+            case '\n' -> buf[len++] = 'n';
+            case '\r' -> buf[len++] = 'r';
+            case '\t' -> buf[len++] = 't';
+            default -> {
+                buf[len++] = 'u';
+                buf[len++] = '0';
+                buf[len++] = '0';
+                buf[len++] = HEX[(c >> 4) & 0xF];
+                buf[len++] = HEX[c & 0xF];
+            }
+        }
+    }
+
+    private void appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            appendDouble(value);
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buf[len++] = '-';
+            value = -value;
+        }
+        int start = len;
+        do {
+            buf[len++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        // digits were produced in reverse
+        for (int i = start, j = len - 1; i < j; i++, j--) {
+            byte b = buf[i];
+            buf[i] = buf[j];
+            buf[j] = b;
+        }
+    }
+
+    /*
+     * Number serialization according to ECMAScript Number.prototype.toString(),
+     * as mandated by RFC 8785 section 3.2.2.3.
+     */
+    private void appendDouble(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("JCS does not allow NaN or Infinity");
+        }
+        if (value == 0.0) {
+            append((byte) '0'); // also for -0
+            return;
+        }
+        if (value == Math.rint(value) && Math.abs(value) < MAX_SAFE_INTEGER) {
+            appendLong((long) value);
+            return;
+        }
+        if (value < 0) {
+            append((byte) '-');
+            value = -value;
+        }
+
+        // Shortest round-tripping decimal digits (Double.toString is shortest since JDK 19)
+        String s = Double.toString(value);
+        int e = s.indexOf('E');
+        int exponent = e < 0 ? 0 : Integer.parseInt(s, e + 1, s.length(), 10);
+        int end = e < 0 ? s.length() : e;
+        int dot = s.indexOf('.');
+
+        StringBuilder digits = new StringBuilder(20);
+        digits.append(s, 0, dot).append(s, dot + 1, end);
+        int n = dot + exponent; // decimal point position relative to first digit
+        int lead = 0;
+        while (lead < digits.length() - 1 && digits.charAt(lead) == '0') {
+            lead++;
+        }
+        digits.delete(0, lead);
+        n -= lead;
+        int trail = digits.length();
+        while (trail > 1 && digits.charAt(trail - 1) == '0') {
+            trail--;
+        }
+        digits.setLength(trail);
+
+        if (digits.length() == 2) {
+            // Double.toString prefers two digits over one when that is closer; ECMAScript wants fewest digits
+            n += shortenToOneDigit(digits, n, value);
+        }
+        int k = digits.length();
+
+        if (k <= n && n <= 21) {
+            appendAscii(digits);
+            for (int i = k; i < n; i++) {
+                append((byte) '0');
+            }
+        } else if (0 < n && n <= 21) {
+            appendAscii(digits.subSequence(0, n));
+            append((byte) '.');
+            appendAscii(digits.subSequence(n, k));
+        } else if (-6 < n && n <= 0) {
+            append((byte) '0');
+            append((byte) '.');
+            for (int i = n; i < 0; i++) {
+                append((byte) '0');
+            }
+            appendAscii(digits);
+        } else {
+            append((byte) digits.charAt(0));
+            if (k > 1) {
+                append((byte) '.');
+                appendAscii(digits.subSequence(1, k));
+            }
+            append((byte) 'e');
+            append((byte) (n - 1 < 0 ? '-' : '+'));
+            appendLong(Math.abs(n - 1));
+        }
+    }
+
+    /*
+     * Replaces a two-digit representation with a one-digit one if such a value
+     * still round-trips to the same double, picking the closest candidate.
+     * Returns the adjustment to the decimal point position.
+     */
+    private static int shortenToOneDigit(StringBuilder digits, int n, double value) {
+        int twoDigits = (digits.charAt(0) - '0') * 10 + (digits.charAt(1) - '0');
+        BigDecimal exact = new BigDecimal(value);
+        int best = -1;
+        BigDecimal bestDistance = null;
+        for (int candidate : new int[]{twoDigits / 10, twoDigits / 10 + 1}) {
+            if (candidate == 0) {
+                continue;
+            }
+            BigDecimal decimal = BigDecimal.valueOf(candidate).scaleByPowerOfTen(n - 1);
+            if (decimal.doubleValue() != value) {
+                continue;
+            }
+            BigDecimal distance = decimal.subtract(exact).abs();
+            if (bestDistance == null || distance.compareTo(bestDistance) < 0) {
+                best = candidate;
+                bestDistance = distance;
+            }
+        }
+        if (best < 0) {
+            return 0;
+        }
+        digits.setLength(0);
+        if (best == 10) {
+            digits.append('1');
+            return 1;
+        }
+        digits.append((char) ('0' + best));
+        return 0;
+    }
+}
@@ -1,25 +1,143 @@
 package se.fk.data.modell.json;
 
-import com.apicatalog.jcs.Jcs;
-import com.apicatalog.tree.io.NativeAdapter;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.StreamReadFeature;
+import tools.jackson.databind.JsonNode;
 import tools.jackson.databind.ObjectMapper;
 import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.util.ByteBufferBackedInputStream;
+import tools.jackson.databind.util.TokenBuffer;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+/**
+ * RFC 8785 (JCS) canonicalization of raw JSON, streamed through {@link JcsCanonicalizer}
+ * straight from the parser -- without building an object tree or an intermediate String.
+ */
 public final class JcsUtils {
+    // Only used for tokenizing raw JSON. Streams are owned by the caller, so they are left open.
+    private static final ObjectMapper PARSER_MAPPER = JsonMapper.builder()
+            .disable(StreamReadFeature.AUTO_CLOSE_SOURCE)
+            .build();
+
     private JcsUtils() {}
 
     public static byte[] canonicalize(byte[] json) {
         if (json == null) {
             throw new IllegalArgumentException("json must not be null");
         }
-        try {
-            ObjectMapper mapper = JsonMapper.builder().build();
-            Object tree = mapper.readValue(json, Object.class);
-            String canonical = Jcs.canonize(tree, NativeAdapter.instance());
-            return canonical.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        try (JsonParser parser = PARSER_MAPPER.createParser(json)) {
+            return JcsCanonicalizer.canonicalize(parser);
 
         } catch (Exception e) {
             throw new IllegalStateException("Failed to canonicalize JSON with JCS", e);
         }
     }
+
+    /**
+     * Serializes a bean straight into its canonical form, i.e. the tokens produced by
+     * {@code mapper} are canonicalized as they are, without ever being written as text.
+     */
+    public static byte[] canonicalize(Object bean, ObjectMapper mapper) throws JacksonException {
+        if (mapper == null) {
+            throw new IllegalArgumentException("mapper must not be null");
+        }
+        try (TokenBuffer tokens = mapper.writeValueIntoBuffer(bean);
+             JsonParser parser = tokens.asParser()) {
+            return JcsCanonicalizer.canonicalize(parser);
+        }
+    }
+
+    public static void canonicalize(byte[] json, OutputStream out) {
+        if (json == null) {
+            throw new IllegalArgumentException("json must not be null");
+        }
+        if (out == null) {
+            throw new IllegalArgumentException("out must not be null");
+        }
+        try (JsonParser parser = PARSER_MAPPER.createParser(json)) {
+            JcsCanonicalizer.canonicalize(parser, out);
+
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to canonicalize JSON with JCS", e);
+        }
+    }
+
+    /**
+     * Canonicalizes JSON read from {@code in}, handing a read-only view of the canonical
+     * bytes to {@code action} (see {@link JcsCanonicalizer#withCanonical}). The input is
+     * tokenized as it is read, so it is never held in memory as a whole -- only its
+     * canonical form is, since members of an object have to be sorted before it can be
+     * emitted. Nothing but whitespace may follow the value; the stream is read to its
+     * end to make sure of that, but is not closed.
+     */
+    public static <R> R withCanonical(InputStream in, Function<ByteBuffer, R> action) throws JacksonException {
+        if (in == null) {
+            throw new IllegalArgumentException("in must not be null");
+        }
+        if (action == null) {
+            throw new IllegalArgumentException("action must not be null");
+        }
+        try (JsonParser parser = PARSER_MAPPER.createParser(in)) {
+            return JcsCanonicalizer.withCanonical(parser, action);
+        }
+    }
+
+    /**
+     * Canonicalizes the JSON between position and limit of {@code json}, which is left
+     * unchanged. Direct and memory-mapped buffers are read in place. Nothing but
+     * whitespace may follow the value before the limit.
+     */
+    public static <R> R withCanonical(ByteBuffer json, Function<ByteBuffer, R> action) throws JacksonException {
+        if (json == null) {
+            throw new IllegalArgumentException("json must not be null");
+        }
+        if (json.hasArray()) {
+            if (action == null) {
+                throw new IllegalArgumentException("action must not be null");
+            }
+            try (JsonParser parser = PARSER_MAPPER.createParser(
+                    json.array(), json.arrayOffset() + json.position(), json.remaining())) {
+                return JcsCanonicalizer.withCanonical(parser, action);
+            }
+        }
+        return withCanonical(new ByteBufferBackedInputStream(json.duplicate()), action);
+    }
+
+    /**
+     * Canonicalizes an already parsed tree, handing a read-only view of the canonical
+     * bytes to {@code action}. The tree is read as tokens, never written as text.
+     */
+    public static <R> R withCanonical(JsonNode tree, Function<ByteBuffer, R> action) throws JacksonException {
+        if (tree == null) {
+            throw new IllegalArgumentException("tree must not be null");
+        }
+        if (action == null) {
+            throw new IllegalArgumentException("action must not be null");
+        }
+        try (JsonParser parser = PARSER_MAPPER.treeAsTokens(tree)) {
+            return JcsCanonicalizer.withCanonical(parser, action);
+        }
+    }
+
+    /**
+     * Serializes a bean straight into its canonical form (see {@link #canonicalize(Object, ObjectMapper)}),
+     * handing a read-only view of the canonical bytes to {@code action}.
+     */
+    public static <R> R withCanonical(Object bean, ObjectMapper mapper, Function<ByteBuffer, R> action) throws JacksonException {
+        if (mapper == null) {
+            throw new IllegalArgumentException("mapper must not be null");
+        }
+        if (action == null) {
+            throw new IllegalArgumentException("action must not be null");
+        }
+        try (TokenBuffer tokens = mapper.writeValueIntoBuffer(bean);
+             JsonParser parser = tokens.asParser()) {
+            return JcsCanonicalizer.withCanonical(parser, action);
+        }
+    }
 }
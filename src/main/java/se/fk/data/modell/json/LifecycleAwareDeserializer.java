@@ -6,29 +6,28 @@ import se.fk.data.modell.v1.Livscykelhanterad;
 import tools.jackson.core.JacksonException;
 import tools.jackson.core.JsonParser;
 import tools.jackson.databind.DeserializationContext;
-import tools.jackson.databind.ObjectMapper;
 import tools.jackson.databind.ValueDeserializer;
 
 public final class LifecycleAwareDeserializer<T extends Livscykelhanterad> extends tools.jackson.databind.deser.std.DelegatingDeserializer {
     private static final Logger log = LoggerFactory.getLogger(LifecycleAwareDeserializer.class);
 
     private final Class<T> type;
-    private final ObjectMapper canonicalMapper;
+    private final LifecycleDigester digester;
 
     public LifecycleAwareDeserializer(
             ValueDeserializer<?> delegate,
             Class<T> type,
-            ObjectMapper canonicalMapper
+            LifecycleDigester digester
     ) {
         super(delegate);
         this.type = type;
-        this.canonicalMapper = canonicalMapper;
+        this.digester = digester;
 
         log.debug("Created for {}", type.getCanonicalName());
     }
 
     @Override protected ValueDeserializer<?> newDelegatingInstance(ValueDeserializer<?> newDelegate) {
-        return new LifecycleAwareDeserializer<>(newDelegate, type, canonicalMapper);
+        return new LifecycleAwareDeserializer<>(newDelegate, type, digester);
     }
 
     @Override
@@ -36,13 +35,59 @@ public final class LifecycleAwareDeserializer<T extends Livscykelhanterad> exten
             JsonParser p,
             DeserializationContext ctxt
     ) throws JacksonException {
+        LifecycleDigester.Pass pass = digester.pass(ctxt);
+        if (digester.options().lazyDigest()) {
+            //noinspection unchecked
+            T bean = (T) super.deserialize(p, ctxt);
+            log.debug("Deserialized bean {}@{}", bean.getClass().getCanonicalName(), String.format("%08x", bean.hashCode()));
 
-        //noinspection unchecked
-        T bean = (T) super.deserialize(p, ctxt);
-        log.debug("Deserialized bean {}@{}", bean.getClass().getCanonicalName(), String.format("%08x", bean.hashCode()));
+            // Digest is computed if and when the bean is about to be written
+            pass.defer(bean);
+            return bean;
+        }
 
-        byte[] pristine = DigestUtils.computeDigest(bean, canonicalMapper);
-        bean.resetDigest(pristine);
-        return bean;
+        if (!digester.options().digestOnRead()) {
+            //noinspection unchecked
+            T bean = (T) super.deserialize(p, ctxt);
+            log.debug("Deserialized bean {}@{}", bean.getClass().getCanonicalName(), String.format("%08x", bean.hashCode()));
+
+            // Nested objects were completed (and settled) first, which the pass remembers
+            pass.settle(bean);
+            return bean;
+        }
+
+        // The outermost livscykelhanterad object records the tokens consumed,
+        // on behalf of itself as well as any nested objects.
+        DigestingParser reader = pass.reader();
+        boolean outermost = null == reader;
+        if (outermost) {
+            reader = pass.startReading(p);
+        }
+        try {
+            int start = reader.objectStart();
+
+            //noinspection unchecked
+            T bean = (T) super.deserialize(outermost ? reader : p, ctxt);
+            log.debug("Deserialized bean {}@{}", bean.getClass().getCanonicalName(), String.format("%08x", bean.hashCode()));
+
+            byte[] pristine = reader.digestObjectAt(start, digester.newDigest());
+            if (null == pristine) {
+                // Could not tell which tokens made up this object, so fall back on serialization
+                log.trace("Digesting {}@{} by serialization", bean.getClass().getCanonicalName(), String.format("%08x", bean.hashCode()));
+                pass.settle(bean);
+                return bean;
+            }
+            pass.settle(bean, pristine);
+
+            if (digester.options().digestMode() == LifecycleOptions.DigestMode.MERKLE) {
+                // Ancestors refer to this object by its digest
+                reader.replaceLastObject(pristine);
+            }
+            return bean;
+        } finally {
+            if (outermost) {
+                pass.stopReading();
+            }
+        }
     }
 }
@@ -13,10 +13,14 @@ import tools.jackson.databind.module.SimpleModule;
 public class LifecycleAwareDeserializerModule extends SimpleModule {
     private static final Logger log = LoggerFactory.getLogger(LifecycleAwareDeserializerModule.class);
 
-    private final ObjectMapper canonicalMapper;
+    private final LifecycleDigester digester;
 
     public LifecycleAwareDeserializerModule(ObjectMapper canonicalMapper) {
-        this.canonicalMapper = canonicalMapper;
+        this(new LifecycleDigester(canonicalMapper, LifecycleOptions.defaults()));
+    }
+
+    public LifecycleAwareDeserializerModule(LifecycleDigester digester) {
+        this.digester = digester;
     }
 
     @Override
@@ -30,7 +34,7 @@ public class LifecycleAwareDeserializerModule extends SimpleModule {
             ) {
                 Class<?> beanClass = beanDesc.getBeanClass();
                 if (MutationPredicates.isLifeCycleHandled(beanClass)) {
-                    return new LifecycleAwareDeserializer<>(deserializer, (Class<Livscykelhanterad>) beanClass, canonicalMapper);
+                    return new LifecycleAwareDeserializer<>(deserializer, (Class<Livscykelhanterad>) beanClass, digester);
                 }
                 return deserializer;
             }
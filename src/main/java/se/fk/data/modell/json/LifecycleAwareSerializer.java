@@ -5,25 +5,25 @@ import org.slf4j.LoggerFactory;
 import se.fk.data.modell.v1.Livscykelhanterad;
 import tools.jackson.core.JacksonException;
 import tools.jackson.core.JsonGenerator;
-import tools.jackson.databind.ObjectMapper;
 import tools.jackson.databind.SerializationContext;
 import tools.jackson.databind.ValueSerializer;
 import tools.jackson.databind.ser.std.StdSerializer;
+import tools.jackson.databind.util.TokenBuffer;
 
 public final class LifecycleAwareSerializer<T extends Livscykelhanterad> extends StdSerializer<T> {
     private static final Logger log = LoggerFactory.getLogger(LifecycleAwareSerializer.class);
 
     private final ValueSerializer<Object> defaultSerializer;
-    private final ObjectMapper canonicalMapper;
+    private final LifecycleDigester digester;
 
     LifecycleAwareSerializer(
             ValueSerializer<Object> defaultSerializer,
             Class<T> type,
-            ObjectMapper canonicalMapper
+            LifecycleDigester digester
     ) {
         super(type);
         this.defaultSerializer = defaultSerializer;
-        this.canonicalMapper = canonicalMapper;
+        this.digester = digester;
 
         log.debug("Created for {}", type.getCanonicalName());
     }
@@ -34,34 +34,86 @@ public final class LifecycleAwareSerializer<T extends Livscykelhanterad> extends
             JsonGenerator gen,
             SerializationContext provider
     ) throws JacksonException {
-        byte[] current = DigestUtils.computeDigest(bean, canonicalMapper);
-        byte[] stored  = bean.getDigest();
+        LifecycleDigester.Pass pass = digester.pass(provider);
+        Livscykelhanterad.State observed = bean.getState();
 
-        boolean isNew = null == stored;
-        boolean isModified = !bean.compareDigest(current);
+        boolean isNew = pass.isNew(bean, observed);
+        boolean isModified = !isNew && pass.isModified(bean);
         if (isNew) {
             log.trace("** New bean: {}@{}", bean.getClass().getCanonicalName(), String.format("%08x", bean.hashCode()));
         } else if (isModified) {
             log.trace("** Modified bean: {}#{}", bean.getClass().getCanonicalName(), String.format("%08x", bean.hashCode()));
         }
 
-        // Auto-increment version if bean is new or modified
-        if (isNew || isModified) {
-            log.trace("Stepping version of bean: {}@{}", bean.getClass().getCanonicalName(), String.format("%08x", bean.hashCode()));
-            bean.stepVersion();
-            bean.__attention = Boolean.TRUE;
+        // Only detecting changes, so report and move on without touching the bean
+        if (provider.getAttribute(ChangeReport.class) instanceof ChangeReport report) {
+            report.add(bean, isNew ? ChangeReport.Status.NEW
+                    : isModified ? ChangeReport.Status.MODIFIED
+                    : ChangeReport.Status.UNCHANGED);
+            defaultSerializer.serialize(bean, gen, provider);
+            return;
+        }
 
-            // Recalculate digest (after having modified version)
-            current = DigestUtils.computeDigest(bean, canonicalMapper);
+        // Auto-increment version if bean is new or modified -- unless some other
+        // thread, serializing the same bean, is already at it or beats us to it.
+        // The claim also marks the bean for attention, in this pass only.
+        Livscykelhanterad.State expected = observed;
+        if (isNew || isModified) {
+            Livscykelhanterad.State claimed = bean.claimStep(observed);
+            if (null != claimed) {
+                log.trace("Stepping version of bean: {}@{}", bean.getClass().getCanonicalName(), String.format("%08x", bean.hashCode()));
+                pass.claim(bean, claimed);
+                expected = claimed;
+            }
+        }
 
+        // Delegate the actual JSON structure -- possibly to the side, if only changes are written
+        DeltaDocument delta = provider.getAttribute(DeltaDocument.class) instanceof DeltaDocument d ? d : null;
+        TokenBuffer own = null;
+        boolean nested = false;
+        try {
+            if (null == delta) {
+                defaultSerializer.serialize(bean, gen, provider);
+            } else {
+                own = provider.bufferForValueConversion();
+                nested = delta.enter();
+                try {
+                    defaultSerializer.serialize(bean, own, provider);
+                } finally {
+                    delta.exit();
+                }
+            }
+        } catch (RuntimeException e) {
+            // Let go of our claim and step back, so that the bean is neither stuck in
+            // stepping state nor at a version that was never written
+            if (expected != observed) {
+                pass.release(bean);
+                bean.releaseStep(expected, observed);
+            }
+            throw e;
         }
+        pass.release(bean);
 
-        // Delegate the actual JSON structure
-        defaultSerializer.serialize(bean, gen, provider);
+        // Settle after serialization, covering the stepped version as well as
+        // any bean state mutated by serializers.
+        if (!pass.settle(bean, expected)) {
+            log.trace("Bean {}@{} was settled concurrently", bean.getClass().getCanonicalName(), String.format("%08x", bean.hashCode()));
+        }
 
-        // Recompute after serialization in case serializers mutate bean state.
-        current = DigestUtils.computeDigest(bean, canonicalMapper);
-        bean.resetDigest(current);
+        if (null != delta) {
+            if (isNew || isModified) {
+                delta.add(bean.id, own);
+            }
+            if (nested) {
+                // Refer to the nested object, which appears in the document on its own if changed
+                gen.writeStartObject();
+                gen.writeStringProperty("id", bean.id);
+                gen.writeNumberProperty("version", bean.version);
+                gen.writeEndObject();
+            } else {
+                delta.writeTo(gen);
+            }
+        }
 
         log.debug("Serialized bean {}@{}", bean.getClass().getCanonicalName(), String.format("%08x", bean.hashCode()));
     }
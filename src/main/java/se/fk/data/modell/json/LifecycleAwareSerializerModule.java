@@ -9,10 +9,14 @@ import tools.jackson.databind.module.SimpleModule;
 import tools.jackson.databind.ser.ValueSerializerModifier;
 
 public class LifecycleAwareSerializerModule extends SimpleModule {
-    private final ObjectMapper canonicalMapper;
+    private final LifecycleDigester digester;
 
     public LifecycleAwareSerializerModule(ObjectMapper canonicalMapper) {
-        this.canonicalMapper = canonicalMapper;
+        this(new LifecycleDigester(canonicalMapper, LifecycleOptions.defaults()));
+    }
+
+    public LifecycleAwareSerializerModule(LifecycleDigester digester) {
+        this.digester = digester;
     }
 
     @Override
@@ -29,7 +33,7 @@ public class LifecycleAwareSerializerModule extends SimpleModule {
                     return new LifecycleAwareSerializer<>(
                             (ValueSerializer<Object>) serializer,
                             (Class<Livscykelhanterad>) beanClass,
-                            canonicalMapper
+                            digester
                     );
                 }
                 return serializer;
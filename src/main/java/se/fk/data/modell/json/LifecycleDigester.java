@@ -0,0 +1,201 @@
+package se.fk.data.modell.json;
+
+import se.fk.data.modell.v1.Livscykelhanterad;
+import tools.jackson.core.JsonParser;
+import tools.jackson.databind.DatabindContext;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.ObjectWriter;
+
+import java.security.MessageDigest;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Computes the digests used to detect modifications of livscykelhanterade objects.
+ * <p>
+ * Digests are computed within a {@link Pass}, bound to a single (de)serialization
+ * call, that remembers the digest of every object it has seen. In
+ * {@link LifecycleOptions.DigestMode#MERKLE} mode, the canonical form of an object
+ * refers to nested livscykelhanterade objects by their (remembered) digest, so
+ * each object is canonicalized once per pass.
+ * <p>
+ * Classes annotated {@code @ChangeDetection(FIELD_SNAPSHOT)} are instead compared
+ * against a {@link FieldSnapshot}, taken when last read or written.
+ */
+public final class LifecycleDigester {
+    private final ObjectMapper canonicalMapper;
+    private final LifecycleOptions options;
+
+    public LifecycleDigester(
+            ObjectMapper canonicalMapper,
+            LifecycleOptions options
+    ) {
+        if (canonicalMapper == null) {
+            throw new IllegalArgumentException("canonicalMapper must not be null");
+        }
+        this.canonicalMapper = canonicalMapper;
+        this.options = options == null ? LifecycleOptions.defaults() : options;
+    }
+
+    public LifecycleOptions options() {
+        return options;
+    }
+
+    /** A fresh digest, as chosen by {@link LifecycleOptions#changeHash()} */
+    MessageDigest newDigest() {
+        ChangeHash changeHash = options.changeHash();
+        return (null == changeHash ? ChangeHash.SHA_256 : changeHash).newDigest();
+    }
+
+    /**
+     * Returns the pass associated with the ongoing (de)serialization call,
+     * creating one if this is the first livscykelhanterad object seen.
+     */
+    Pass pass(DatabindContext ctxt) {
+        Object attribute = ctxt.getAttribute(Pass.class);
+        if (attribute instanceof Pass pass && pass.owner() == this) {
+            return pass;
+        }
+        Pass pass = new Pass();
+        ctxt.setAttribute(Pass.class, pass);
+        return pass;
+    }
+
+    final class Pass {
+        private final Map<Object, byte[]> digests = new IdentityHashMap<>();
+        private final Map<Object, Boolean> modifications = new IdentityHashMap<>();
+        private final Map<Object, Livscykelhanterad.State> claims = new IdentityHashMap<>();
+        private final ObjectWriter writer = canonicalMapper.writer().withAttribute(Pass.class, this);
+
+        // Tokens consumed while reading the outermost livscykelhanterad object, if digesting on read
+        private DigestingParser reader;
+
+        private LifecycleDigester owner() {
+            return LifecycleDigester.this;
+        }
+
+        byte[] digest(Object bean) {
+            byte[] digest = digests.get(bean);
+            if (null == digest) {
+                digest = DigestUtils.computeDigest(bean, writer, newDigest());
+                digests.put(bean, digest);
+            }
+            return digest;
+        }
+
+        /** Had the bean neither been read nor written before, given its (observed) state? */
+        boolean isNew(Livscykelhanterad bean, Livscykelhanterad.State state) {
+            if (FieldSnapshot.isEnabled(bean.getClass())) {
+                return !state.hasSnapshot();
+            }
+            return !state.hasDigest() && !state.hasSnapshot(); // digest may be pending
+        }
+
+        /** Has the bean been modified since last read or written? */
+        boolean isModified(Livscykelhanterad bean) {
+            Boolean modified = modifications.get(bean);
+            if (null == modified) {
+                if (FieldSnapshot.isEnabled(bean.getClass())) {
+                    Object snapshot = bean.getSnapshot();
+                    modified = null != snapshot && !FieldSnapshot.matches(snapshot, bean, this::isModified);
+                } else if (null != bean.getDigest()) {
+                    modified = !bean.compareDigest(digest(bean));
+                } else {
+                    // Digest is pending, so compare with the snapshot taken when read
+                    Object snapshot = bean.getSnapshot();
+                    modified = null != snapshot && !FieldSnapshot.matches(snapshot, bean, this::isModified);
+                }
+                modifications.put(bean, modified);
+            }
+            return modified;
+        }
+
+        private Livscykelhanterad.State pristine(Livscykelhanterad bean) {
+            forget(bean);
+            if (FieldSnapshot.isEnabled(bean.getClass())) {
+                return Livscykelhanterad.State.ofSnapshot(FieldSnapshot.capture(bean));
+            }
+            return Livscykelhanterad.State.ofDigest(digest(bean));
+        }
+
+        /**
+         * Records the current state of the bean as pristine, i.e. as it was read.
+         */
+        void settle(Livscykelhanterad bean) {
+            bean.resetState(pristine(bean));
+        }
+
+        /**
+         * Records the current state of the bean as pristine, i.e. as it was written,
+         * unless its state has been replaced (by another thread) since {@code expected}.
+         */
+        boolean settle(Livscykelhanterad bean, Livscykelhanterad.State expected) {
+            return bean.compareAndSetState(expected, pristine(bean));
+        }
+
+        /**
+         * Records the current state of the bean as pristine, deferring the digest
+         * (if any) until the bean is about to be written. Until then, a snapshot of
+         * the bean's fields stands in for the digest.
+         */
+        void defer(Livscykelhanterad bean) {
+            forget(bean);
+            bean.resetState(Livscykelhanterad.State.ofSnapshot(FieldSnapshot.capture(bean)));
+        }
+
+        /**
+         * Records the current state of the bean as pristine, given its digest
+         * as computed from the tokens it was read from.
+         */
+        void settle(Livscykelhanterad bean, byte[] digest) {
+            forget(bean);
+            digests.put(bean, digest);
+            if (FieldSnapshot.isEnabled(bean.getClass())) {
+                bean.resetState(Livscykelhanterad.State.ofSnapshot(FieldSnapshot.capture(bean)));
+            } else {
+                bean.resetState(Livscykelhanterad.State.ofDigest(digest));
+            }
+        }
+
+        /**
+         * Remembers that this pass stepped the version of the bean, holding {@code claimed}
+         * (see {@link Livscykelhanterad#claimStep}) until it has been written.
+         */
+        void claim(Livscykelhanterad bean, Livscykelhanterad.State claimed) {
+            claims.put(bean, claimed);
+        }
+
+        void release(Livscykelhanterad bean) {
+            claims.remove(bean);
+        }
+
+        /**
+         * Is this pass writing the version it stepped? If so, the bean needs attention,
+         * in this pass only -- concurrent passes writing the same bean don't get the flag.
+         */
+        boolean holdsClaim(Livscykelhanterad bean) {
+            Livscykelhanterad.State claimed = claims.get(bean);
+            return null != claimed && bean.getState() == claimed;
+        }
+
+        /** The parser recording consumed tokens, or null if not (yet) reading */
+        DigestingParser reader() {
+            return reader;
+        }
+
+        DigestingParser startReading(JsonParser p) {
+            reader = new DigestingParser(p);
+            return reader;
+        }
+
+        void stopReading() {
+            reader = null;
+        }
+
+        /** Drops what is remembered about a bean, e.g. when it was modified during the pass. */
+        void forget(Object bean) {
+            digests.remove(bean);
+            modifications.remove(bean);
+        }
+    }
+}
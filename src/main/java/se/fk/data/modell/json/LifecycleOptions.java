@@ -0,0 +1,65 @@
+package se.fk.data.modell.json;
+
+/**
+ * Options governing how livscykelhanterade objects are tracked for modification.
+ *
+ * @param digestMode how nested livscykelhanterade objects contribute to a parent's digest
+ * @param digestOnRead whether pristine digests are taken from the tokens consumed while
+ *                     deserializing, rather than from a serialization of the bound objects.
+ *                     Digests then cover the wire form of objects (including "@context",
+ *                     "@type" and expanded properties). Input that is not as this library
+ *                     would have written it, e.g. carrying unknown properties or having
+ *                     been rewritten by migrations, makes an object appear modified at
+ *                     the next serialization.
+ * @param lazyDigest whether pristine digests are deferred until objects are about to be
+ *                   serialized, so that objects that are only read never pay for hashing.
+ *                   Until then, a snapshot of the object's fields (as for
+ *                   {@code @ChangeDetection(FIELD_SNAPSHOT)}) is kept and compared against,
+ *                   and {@link se.fk.data.modell.v1.Livscykelhanterad#getDigest()} yields null.
+ *                   Takes precedence over {@code digestOnRead}.
+ * @param changeHash the hash used for digests, which only serve to detect modifications.
+ *                   Defaults to {@link ChangeHash#SHA_256}, whereas
+ *                   {@link ChangeHash#MURMUR3_128} is considerably faster.
+ */
+public record LifecycleOptions(
+        DigestMode digestMode,
+        boolean digestOnRead,
+        boolean lazyDigest,
+        ChangeHash changeHash
+) {
+    public enum DigestMode {
+        /**
+         * A digest covers the whole subtree of an object, so every nested
+         * livscykelhanterad object is canonicalized again by each of its ancestors.
+         */
+        SUBTREE,
+
+        /**
+         * A digest covers the object's own fields, while nested livscykelhanterade
+         * objects contribute only their own digests (as in a Merkle tree). Each
+         * object is thus canonicalized once per pass, regardless of depth.
+         */
+        MERKLE
+    }
+
+    // Immutable defaults, matching the behaviour prior to having options.
+    public static LifecycleOptions defaults() {
+        return new LifecycleOptions(DigestMode.SUBTREE, false, false, ChangeHash.SHA_256);
+    }
+
+    public LifecycleOptions withDigestMode(DigestMode value) {
+        return new LifecycleOptions(value, digestOnRead, lazyDigest, changeHash);
+    }
+
+    public LifecycleOptions withDigestOnRead(boolean value) {
+        return new LifecycleOptions(digestMode, value, lazyDigest, changeHash);
+    }
+
+    public LifecycleOptions withLazyDigest(boolean value) {
+        return new LifecycleOptions(digestMode, digestOnRead, value, changeHash);
+    }
+
+    public LifecycleOptions withChangeHash(ChangeHash value) {
+        return new LifecycleOptions(digestMode, digestOnRead, lazyDigest, value);
+    }
+}
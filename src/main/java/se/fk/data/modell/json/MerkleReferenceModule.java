@@ -0,0 +1,86 @@
+package se.fk.data.modell.json;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.databind.BeanDescription;
+import tools.jackson.databind.SerializationConfig;
+import tools.jackson.databind.SerializationContext;
+import tools.jackson.databind.ValueSerializer;
+import tools.jackson.databind.jsontype.TypeSerializer;
+import tools.jackson.databind.module.SimpleModule;
+import tools.jackson.databind.ser.ValueSerializerModifier;
+import tools.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * Used with the canonical mapper in {@link LifecycleOptions.DigestMode#MERKLE} mode.
+ * Nested livscykelhanterade objects are written as their digest rather than as
+ * their fields, while the object being digested (at root level) is written as usual.
+ */
+public class MerkleReferenceModule extends SimpleModule {
+
+    @Override
+    public void setupModule(SetupContext context) {
+        context.addSerializerModifier(new ValueSerializerModifier() {
+            @Override
+            public ValueSerializer<?> modifySerializer(
+                    SerializationConfig config,
+                    BeanDescription.Supplier beanDesc,
+                    ValueSerializer<?> serializer
+            ) {
+                Class<?> beanClass = beanDesc.getBeanClass();
+                if (MutationPredicates.isLifeCycleHandled(beanClass)) {
+                    return new ReferenceSerializer((ValueSerializer<Object>) serializer, beanClass);
+                }
+                return serializer;
+            }
+        });
+        super.setupModule(context);
+    }
+
+    private static final class ReferenceSerializer extends StdSerializer<Object> {
+        private final ValueSerializer<Object> defaultSerializer;
+
+        ReferenceSerializer(ValueSerializer<Object> defaultSerializer, Class<?> type) {
+            super(type);
+            this.defaultSerializer = defaultSerializer;
+        }
+
+        @Override
+        public void serialize(
+                Object bean,
+                JsonGenerator gen,
+                SerializationContext ctxt
+        ) throws JacksonException {
+            LifecycleDigester.Pass pass = nestedPass(gen, ctxt);
+            if (null == pass) {
+                defaultSerializer.serialize(bean, gen, ctxt);
+                return;
+            }
+            gen.writeBinary(pass.digest(bean));
+        }
+
+        @Override
+        public void serializeWithType(
+                Object bean,
+                JsonGenerator gen,
+                SerializationContext ctxt,
+                TypeSerializer typeSer
+        ) throws JacksonException {
+            LifecycleDigester.Pass pass = nestedPass(gen, ctxt);
+            if (null == pass) {
+                defaultSerializer.serializeWithType(bean, gen, ctxt, typeSer);
+                return;
+            }
+            // Only the digest stands in for the nested object, type id included
+            gen.writeBinary(pass.digest(bean));
+        }
+
+        private static LifecycleDigester.Pass nestedPass(JsonGenerator gen, SerializationContext ctxt) {
+            if (gen.streamWriteContext().inRoot()) {
+                return null; // this is the object being digested
+            }
+            Object attribute = ctxt.getAttribute(LifecycleDigester.Pass.class);
+            return attribute instanceof LifecycleDigester.Pass pass ? pass : null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package se.fk.data.modell.json;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merkle hash tree over a batch of canonical (JCS) documents, for signing the whole
+ * batch with a single signature over the root.
+ * <p>
+ * The tree has the shape of RFC 9162 (section 2.1): leaves are hashed as
+ * {@code H(0x00 || document)}, interior nodes as {@code H(0x01 || left || right)},
+ * and a node without a sibling is carried up a level unchanged. The inclusion proof
+ * (audit path) of a document is the list of sibling hashes from its leaf up to the root.
+ */
+public final class MerkleTree {
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    private final SignatureUtils.DigestAlgorithm digestAlgorithm;
+    private final List<byte[][]> levels; // leaves first, root last
+
+    private MerkleTree(SignatureUtils.DigestAlgorithm digestAlgorithm, List<byte[][]> levels) {
+        this.digestAlgorithm = digestAlgorithm;
+        this.levels = levels;
+    }
+
+    public static MerkleTree build(
+            List<byte[]> canonicalDocuments,
+            SignatureUtils.DigestAlgorithm digestAlgorithm
+    ) {
+        if (canonicalDocuments == null || canonicalDocuments.isEmpty()) {
+            throw new IllegalArgumentException("canonicalDocuments must not be empty");
+        }
+        SignatureUtils.DigestAlgorithm effective = digestAlgorithm == null
+                ? SignatureUtils.DigestAlgorithm.SHA_512
+                : digestAlgorithm;
+        MessageDigest digest = DigestUtils.newMessageDigest(effective);
+
+        byte[][] level = new byte[canonicalDocuments.size()][];
+        for (int i = 0; i < level.length; i++) {
+            level[i] = leafHash(canonicalDocuments.get(i), digest);
+        }
+
+        List<byte[][]> levels = new ArrayList<>();
+        levels.add(level);
+        while (level.length > 1) {
+            byte[][] parent = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < parent.length; i++) {
+                int left = 2 * i;
+                parent[i] = left + 1 < level.length
+                        ? nodeHash(level[left], level[left + 1], digest)
+                        : level[left];
+            }
+            levels.add(parent);
+            level = parent;
+        }
+        return new MerkleTree(effective, levels);
+    }
+
+    public SignatureUtils.DigestAlgorithm digestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /** Number of documents (leaves) in the tree */
+    public int size() {
+        return levels.getFirst().length;
+    }
+
+    public byte[] root() {
+        return levels.getLast()[0].clone();
+    }
+
+    /** Sibling hashes from the leaf of the given document up to the root */
+    public byte[][] path(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IllegalArgumentException("index " + index + " is outside tree of size " + size());
+        }
+        List<byte[]> path = new ArrayList<>();
+        for (int l = 0; l < levels.size() - 1; l++) {
+            byte[][] level = levels.get(l);
+            int sibling = index ^ 1;
+            if (sibling < level.length) {
+                path.add(level[sibling].clone());
+            }
+            index >>= 1;
+        }
+        return path.toArray(new byte[0][]);
+    }
+
+    public static byte[] leafHash(byte[] canonicalDocument, SignatureUtils.DigestAlgorithm digestAlgorithm) {
+        return leafHash(canonicalDocument, DigestUtils.newMessageDigest(digestAlgorithm));
+    }
+
+    /**
+     * Recomputes the root from a leaf hash and its inclusion proof, following
+     * RFC 9162 section 2.1.3.2. Returns null if the proof does not fit a tree of the
+     * given size.
+     */
+    public static byte[] rootFromPath(
+            byte[] leafHash,
+            int index,
+            int size,
+            byte[][] path,
+            SignatureUtils.DigestAlgorithm digestAlgorithm
+    ) {
+        if (leafHash == null || path == null || index < 0 || index >= size) {
+            return null;
+        }
+        MessageDigest digest = DigestUtils.newMessageDigest(digestAlgorithm);
+        long fn = index;
+        long sn = size - 1L;
+        byte[] r = leafHash;
+        for (byte[] p : path) {
+            if (p == null || sn == 0) {
+                return null;
+            }
+            if ((fn & 1) == 1 || fn == sn) {
+                r = nodeHash(p, r, digest);
+                while ((fn & 1) == 0 && fn != 0) {
+                    fn >>= 1;
+                    sn >>= 1;
+                }
+            } else {
+                r = nodeHash(r, p, digest);
+            }
+            fn >>= 1;
+            sn >>= 1;
+        }
+        return sn == 0 ? r : null;
+    }
+
+    private static byte[] leafHash(byte[] canonicalDocument, MessageDigest digest) {
+        if (canonicalDocument == null) {
+            throw new IllegalArgumentException("canonicalDocument must not be null");
+        }
+        digest.update(LEAF_PREFIX);
+        digest.update(canonicalDocument);
+        return digest.digest();
+    }
+
+    private static byte[] nodeHash(byte[] left, byte[] right, MessageDigest digest) {
+        digest.update(NODE_PREFIX);
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+}
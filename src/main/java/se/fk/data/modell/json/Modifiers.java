@@ -21,29 +21,52 @@ public class Modifiers {
                     .setSerializerModifier(new PropertySerializerModifier())
                     .setDeserializerModifier(new PropertyDeserializerModifier());
 
-    private static JsonMapper setupCanonicalMapper() {
+    private static JsonMapper setupCanonicalMapper(LifecycleOptions options) {
         //
         // We need to ensure the canonical mapper sorts properties and orders
         // map entries so digests are stable.
         //
         // Thus, the ORDER_MAP_ENTRIES_BY_KEYS below.
         //
-        JsonMapper canonicalMapper = JsonMapper.builder()
-                .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
-                .build();
+        JsonMapper.Builder builder = JsonMapper.builder()
+                .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
 
-        return canonicalMapper;
+        //
+        // When digesting on read, digests are computed over the wire form
+        // (the tokens consumed), so the canonical mapper has to produce
+        // that same form -- except for the attention flag.
+        //
+        if (options.digestOnRead()) {
+            builder.addModule(new SimpleModule().setSerializerModifier(new ClassSerializerModifier(false)));
+            builder.addModule(ANNOTATED_PROPERTIES_MODULE);
+            builder.addModule(new WireFormModule());
+        }
+
+        //
+        // In Merkle mode, nested livscykelhanterade objects are represented
+        // by their digests rather than by their fields.
+        //
+        if (options.digestMode() == LifecycleOptions.DigestMode.MERKLE) {
+            builder.addModule(new MerkleReferenceModule());
+        }
+
+        return builder.build();
     }
 
     public static Iterable<SimpleModule> getModules() {
+        return getModules(LifecycleOptions.defaults());
+    }
+
+    public static Iterable<SimpleModule> getModules(LifecycleOptions options) {
+        LifecycleOptions effective = options == null ? LifecycleOptions.defaults() : options;
         List<SimpleModule> modules = new ArrayList<>();
 
         // post-deserialization hashing
-        JsonMapper canonicalMapper = setupCanonicalMapper();
-        modules.add(new LifecycleAwareDeserializerModule(canonicalMapper));
+        LifecycleDigester digester = new LifecycleDigester(setupCanonicalMapper(effective), effective);
+        modules.add(new LifecycleAwareDeserializerModule(digester));
 
         // pre-serialization compare/skip
-        modules.add(new LifecycleAwareSerializerModule(canonicalMapper));
+        modules.add(new LifecycleAwareSerializerModule(digester));
 
         // @Context annotation handling
         modules.add(ANNOTATED_CLASSES_MODULE);
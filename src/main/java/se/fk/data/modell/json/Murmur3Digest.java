@@ -0,0 +1,145 @@
+package se.fk.data.modell.json;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * MurmurHash3 (x64, 128 bit, seed 0) exposed as a {@link MessageDigest}, so that it
+ * can be fed by {@link JcsCanonicalizer} just like the cryptographic digests.
+ * <p>
+ * This is <em>not</em> a cryptographic hash -- it is only fit for detecting accidental
+ * modification, never for signing. The 16 byte result is h1 followed by h2, both
+ * little-endian (as in the reference implementation).
+ */
+final class Murmur3Digest extends MessageDigest {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final byte[] block = new byte[16];
+    private int blockLength;
+    private long h1;
+    private long h2;
+    private long total;
+
+    Murmur3Digest() {
+        super("MurmurHash3-128");
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 16;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        block[blockLength++] = input;
+        if (blockLength == 16) {
+            mix(block, 0);
+            blockLength = 0;
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int length) {
+        int end = offset + length;
+
+        // Complete any partial block first
+        while (blockLength > 0 && offset < end) {
+            engineUpdate(input[offset++]);
+        }
+
+        // Whole blocks straight from the input
+        while (end - offset >= 16) {
+            mix(input, offset);
+            offset += 16;
+        }
+
+        while (offset < end) {
+            block[blockLength++] = input[offset++];
+        }
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = blockLength - 1; i >= 8; i--) {
+            k2 = (k2 << 8) | (block[i] & 0xFFL);
+        }
+        for (int i = Math.min(blockLength, 8) - 1; i >= 0; i--) {
+            k1 = (k1 << 8) | (block[i] & 0xFFL);
+        }
+        if (blockLength > 8) {
+            h2 ^= mixK2(k2);
+        }
+        if (blockLength > 0) {
+            h1 ^= mixK1(k1);
+        }
+        total += blockLength;
+
+        h1 ^= total;
+        h2 ^= total;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+
+        byte[] result = new byte[16];
+        LONG_LE.set(result, 0, h1);
+        LONG_LE.set(result, 8, h2);
+        engineReset();
+        return result;
+    }
+
+    @Override
+    protected void engineReset() {
+        blockLength = 0;
+        h1 = 0;
+        h2 = 0;
+        total = 0;
+    }
+
+    private void mix(byte[] bytes, int offset) {
+        long k1 = (long) LONG_LE.get(bytes, offset);
+        long k2 = (long) LONG_LE.get(bytes, offset + 8);
+
+        h1 ^= mixK1(k1);
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        h2 ^= mixK2(k2);
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+
+        total += 16;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
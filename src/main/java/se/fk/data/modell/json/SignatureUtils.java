@@ -3,9 +3,12 @@ package se.fk.data.modell.json;
 import tools.jackson.databind.ObjectMapper;
 
 import javax.crypto.Cipher;
+import java.nio.ByteBuffer;
+import java.security.Key;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Signature;
+import java.security.interfaces.ECKey;
 import java.security.spec.MGF1ParameterSpec;
 import java.security.spec.PSSParameterSpec;
 
@@ -14,6 +17,10 @@ public final class SignatureUtils {
             0x30, 0x31, 0x30, 0x0d, 0x06, 0x09, 0x60, (byte) 0x86,
             0x48, 0x01, 0x65, 0x03, 0x04, 0x02, 0x01, 0x05, 0x00, 0x04, 0x20
     };
+    public static final byte[] SHA384_DIGEST_INFO_PREFIX = new byte[] {
+            0x30, 0x41, 0x30, 0x0d, 0x06, 0x09, 0x60, (byte) 0x86,
+            0x48, 0x01, 0x65, 0x03, 0x04, 0x02, 0x02, 0x05, 0x00, 0x04, 0x30
+    };
     public static final byte[] SHA512_DIGEST_INFO_PREFIX = new byte[] {
             0x30, 0x51, 0x30, 0x0d, 0x06, 0x09, 0x60, (byte) 0x86,
             0x48, 0x01, 0x65, 0x03, 0x04, 0x02, 0x03, 0x05, 0x00, 0x04, 0x40
@@ -21,6 +28,7 @@ public final class SignatureUtils {
 
     public enum DigestAlgorithm {
         SHA_256("SHA-256", "SHA-256", SHA256_DIGEST_INFO_PREFIX, 32),
+        SHA_384("SHA-384", "SHA-384", SHA384_DIGEST_INFO_PREFIX, 48),
         SHA_512("SHA-512", "SHA-512", SHA512_DIGEST_INFO_PREFIX, 64);
 
         private final String jcaName;
@@ -55,6 +63,34 @@ public final class SignatureUtils {
         public int digestLengthBytes() {
             return digestLengthBytes;
         }
+
+        /** The digest algorithm with the given JSON name, or null if there is none */
+        public static DigestAlgorithm fromJsonName(String name) {
+            for (DigestAlgorithm value : values()) {
+                if (value.jsonName.equals(name)) {
+                    return value;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The digest algorithm used with a scheme and key when none is given: for ECDSA the
+     * one that matches the curve (P-256 with SHA-256, P-384 with SHA-384, P-521 with
+     * SHA-512), otherwise SHA-512.
+     */
+    public static DigestAlgorithm defaultDigestAlgorithm(SignatureScheme signatureScheme, Key key) {
+        if (signatureScheme == SignatureScheme.ECDSA && key instanceof ECKey ecKey) {
+            int bits = ecKey.getParams().getOrder().bitLength();
+            if (bits <= 256) {
+                return DigestAlgorithm.SHA_256;
+            }
+            if (bits <= 384) {
+                return DigestAlgorithm.SHA_384;
+            }
+        }
+        return DigestAlgorithm.SHA_512;
     }
 
     /*
@@ -63,10 +99,18 @@ public final class SignatureUtils {
      * The latter states that RSASSA-PSS is REQUIRED in new applications.
      *
      * We support both, but RSASSA_PSS will be default.
+     *
+     * For EC keys there is ECDSA -- on whatever curve the key is on, e.g. P-256 (with
+     * SHA-256) or P-384 (with SHA-384), see {@link #defaultDigestAlgorithm} -- and for
+     * EdDSA keys Ed25519. ECDSA signatures
+     * are in IEEE P1363 format (r || s), as in JWS. Ed25519 does its own hashing, so
+     * the digest algorithm only applies to e.g. batch signing.
      */
     public enum SignatureScheme {
         RSASSA_PKCS1_V1_5("RSASSA-PKCS1-v1_5"),
-        RSASSA_PSS("RSASSA-PSS");
+        RSASSA_PSS("RSASSA-PSS"),
+        ECDSA("ECDSA"),
+        ED25519("Ed25519");
 
         private final String jsonName;
 
@@ -77,6 +121,16 @@ public final class SignatureUtils {
         public String jsonName() {
             return jsonName;
         }
+
+        /** The signature scheme with the given JSON name, or null if there is none */
+        public static SignatureScheme fromJsonName(String name) {
+            for (SignatureScheme value : values()) {
+                if (value.jsonName.equals(name)) {
+                    return value;
+                }
+            }
+            return null;
+        }
     }
 
     private SignatureUtils() {}
@@ -174,21 +228,139 @@ public final class SignatureUtils {
         SignatureScheme effectiveScheme = signatureScheme == null
                 ? SignatureScheme.RSASSA_PSS
                 : signatureScheme;
-        DigestAlgorithm effectiveDigest = digestAlgorithm == null ? DigestAlgorithm.SHA_512 : digestAlgorithm;
+        DigestAlgorithm effectiveDigest = digestAlgorithm == null
+                ? defaultDigestAlgorithm(effectiveScheme, privateKey)
+                : digestAlgorithm;
         return switch (effectiveScheme) {
             case RSASSA_PKCS1_V1_5 -> signJcsDigestRsaPkcs1FromJsonBytes(jsonBytes, privateKey, effectiveDigest);
             case RSASSA_PSS -> signJcsRsaPssFromJsonBytes(jsonBytes, privateKey, effectiveDigest);
+            case ECDSA, ED25519 -> signJcsFromJsonBytes(jsonBytes, privateKey, effectiveScheme, effectiveDigest);
+        };
+    }
+
+    public static byte[] signJcsFromJsonBytes(
+            byte[] jsonBytes,
+            PrivateKey privateKey,
+            SignatureScheme signatureScheme,
+            DigestAlgorithm digestAlgorithm
+    ) {
+        byte[] canonical;
+        try {
+            canonical = JcsUtils.canonicalize(jsonBytes);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to canonicalize JCS payload for signing", e);
+        }
+        return signJcsFromCanonicalBytes(canonical, privateKey, signatureScheme, digestAlgorithm);
+    }
+
+    /**
+     * Signs JSON that is already in canonical (JCS) form, e.g. as produced by
+     * {@link JcsUtils#canonicalize(Object, tools.jackson.databind.ObjectMapper)},
+     * so it is not parsed again.
+     */
+    public static byte[] signJcsRsaFromCanonicalBytes(
+            byte[] canonicalBytes,
+            PrivateKey privateKey,
+            SignatureScheme signatureScheme,
+            DigestAlgorithm digestAlgorithm
+    ) {
+        SignatureScheme effectiveScheme = signatureScheme == null
+                ? SignatureScheme.RSASSA_PSS
+                : signatureScheme;
+        DigestAlgorithm effectiveDigest = digestAlgorithm == null
+                ? defaultDigestAlgorithm(effectiveScheme, privateKey)
+                : digestAlgorithm;
+        return switch (effectiveScheme) {
+            case RSASSA_PKCS1_V1_5 -> signJcsDigestRsaPkcs1(
+                    DigestUtils.newMessageDigest(effectiveDigest).digest(canonicalBytes),
+                    privateKey,
+                    effectiveDigest
+            );
+            case RSASSA_PSS -> signJcsRsaPssFromCanonicalBytes(canonicalBytes, privateKey, effectiveDigest);
+            case ECDSA, ED25519 -> signJcsFromCanonicalBytes(canonicalBytes, privateKey, effectiveScheme, effectiveDigest);
         };
     }
 
+    /**
+     * Signs JSON that is already in canonical (JCS) form with any of the supported schemes.
+     */
+    public static byte[] signJcsFromCanonicalBytes(
+            byte[] canonicalBytes,
+            PrivateKey privateKey,
+            SignatureScheme signatureScheme,
+            DigestAlgorithm digestAlgorithm
+    ) {
+        Signature signature = newInitializedSignature(privateKey, signatureScheme, digestAlgorithm);
+        try {
+            signature.update(canonicalBytes);
+            return signature.sign();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to sign JCS payload with " + signature.getAlgorithm(), e);
+        }
+    }
+
+    public static boolean verifyJcsFromCanonicalBytes(
+            byte[] canonical,
+            byte[] signatureBytes,
+            PublicKey publicKey,
+            SignatureScheme signatureScheme,
+            DigestAlgorithm digestAlgorithm
+    ) {
+        if (canonical == null) {
+            return false;
+        }
+        return verifyJcsFromCanonicalBytes(ByteBuffer.wrap(canonical), signatureBytes, publicKey, signatureScheme, digestAlgorithm);
+    }
+
+    /**
+     * Verifies a signature over the canonical bytes between position and limit of
+     * {@code canonical}, which is left unchanged (so it may be verified again).
+     */
+    public static boolean verifyJcsFromCanonicalBytes(
+            ByteBuffer canonical,
+            byte[] signatureBytes,
+            PublicKey publicKey,
+            SignatureScheme signatureScheme,
+            DigestAlgorithm digestAlgorithm
+    ) {
+        SignatureScheme effectiveScheme = signatureScheme == null
+                ? SignatureScheme.RSASSA_PSS
+                : signatureScheme;
+        DigestAlgorithm effective = digestAlgorithm == null
+                ? defaultDigestAlgorithm(effectiveScheme, publicKey)
+                : digestAlgorithm;
+        try {
+            Signature verifier = newSignature(effectiveScheme, effective);
+            verifier.initVerify(publicKey);
+            verifier.update(canonical.duplicate());
+            return verifier.verify(signatureBytes);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
     public static byte[] signJcsRsaPssFromJsonBytes(
             byte[] jsonBytes,
             PrivateKey privateKey,
             DigestAlgorithm digestAlgorithm
+    ) {
+        DigestAlgorithm effective = digestAlgorithm == null ? DigestAlgorithm.SHA_512 : digestAlgorithm;
+        byte[] canonical;
+        try {
+            canonical = JcsUtils.canonicalize(jsonBytes);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to sign JCS payload with " + effective.jsonName() + " RSASSA-PSS", e);
+        }
+        return signJcsRsaPssFromCanonicalBytes(canonical, privateKey, effective);
+    }
+
+    public static byte[] signJcsRsaPssFromCanonicalBytes(
+            byte[] canonical,
+            PrivateKey privateKey,
+            DigestAlgorithm digestAlgorithm
     ) {
         DigestAlgorithm effective = digestAlgorithm == null ? DigestAlgorithm.SHA_512 : digestAlgorithm;
         try {
-            byte[] canonical = JcsUtils.canonicalize(jsonBytes);
             Signature signature = Signature.getInstance("RSASSA-PSS");
             signature.setParameter(pssParameterSpec(effective));
             signature.initSign(privateKey);
@@ -199,19 +371,95 @@ public final class SignatureUtils {
         }
     }
 
+    /**
+     * A {@link Signature} initialized for signing canonical bytes with the given scheme,
+     * suitable for reuse -- after each {@code sign()} it is back in its initialized state.
+     * For RSASSA-PKCS1-v1_5 the signature is identical to that of
+     * {@link #signJcsDigestRsaPkcs1(byte[], PrivateKey, DigestAlgorithm)} over the digest.
+     */
+    public static Signature newInitializedSignature(
+            PrivateKey privateKey,
+            SignatureScheme signatureScheme,
+            DigestAlgorithm digestAlgorithm
+    ) {
+        if (privateKey == null) {
+            throw new IllegalArgumentException("privateKey must not be null");
+        }
+        SignatureScheme effectiveScheme = signatureScheme == null
+                ? SignatureScheme.RSASSA_PSS
+                : signatureScheme;
+        DigestAlgorithm effective = digestAlgorithm == null
+                ? defaultDigestAlgorithm(effectiveScheme, privateKey)
+                : digestAlgorithm;
+        try {
+            Signature signature = newSignature(effectiveScheme, effective);
+            signature.initSign(privateKey);
+            return signature;
+        } catch (Exception e) {
+            throw new IllegalStateException(
+                    "Failed to initialize " + effective.jsonName() + " " + effectiveScheme.jsonName() + " signer",
+                    e
+            );
+        }
+    }
+
+    private static Signature newSignature(
+            SignatureScheme signatureScheme,
+            DigestAlgorithm digestAlgorithm
+    ) throws Exception {
+        // E.g. "SHA-256" -> "SHA256"
+        String digest = digestAlgorithm.jcaName().replace("-", "");
+        return switch (signatureScheme) {
+            case RSASSA_PKCS1_V1_5 -> Signature.getInstance(digest + "withRSA");
+            case RSASSA_PSS -> {
+                Signature signature = Signature.getInstance("RSASSA-PSS");
+                signature.setParameter(pssParameterSpec(digestAlgorithm));
+                yield signature;
+            }
+            case ECDSA -> Signature.getInstance(digest + "withECDSAinP1363Format");
+            case ED25519 -> Signature.getInstance("Ed25519");
+        };
+    }
+
     public static boolean verifyJcsRsaPssFromJsonBytes(
             byte[] jsonBytes,
             byte[] signatureBytes,
             PublicKey publicKey,
             DigestAlgorithm digestAlgorithm
+    ) {
+        byte[] canonical;
+        try {
+            canonical = JcsUtils.canonicalize(jsonBytes);
+        } catch (Exception e) {
+            return false;
+        }
+        return verifyJcsRsaPssFromCanonicalBytes(canonical, signatureBytes, publicKey, digestAlgorithm);
+    }
+
+    public static boolean verifyJcsRsaPssFromCanonicalBytes(
+            byte[] canonical,
+            byte[] signatureBytes,
+            PublicKey publicKey,
+            DigestAlgorithm digestAlgorithm
+    ) {
+        if (canonical == null) {
+            return false;
+        }
+        return verifyJcsRsaPssFromCanonicalBytes(ByteBuffer.wrap(canonical), signatureBytes, publicKey, digestAlgorithm);
+    }
+
+    public static boolean verifyJcsRsaPssFromCanonicalBytes(
+            ByteBuffer canonical,
+            byte[] signatureBytes,
+            PublicKey publicKey,
+            DigestAlgorithm digestAlgorithm
     ) {
         DigestAlgorithm effective = digestAlgorithm == null ? DigestAlgorithm.SHA_512 : digestAlgorithm;
         try {
-            byte[] canonical = JcsUtils.canonicalize(jsonBytes);
             Signature verifier = Signature.getInstance("RSASSA-PSS");
             verifier.setParameter(pssParameterSpec(effective));
             verifier.initVerify(publicKey);
-            verifier.update(canonical);
+            verifier.update(canonical.duplicate());
             return verifier.verify(signatureBytes);
         } catch (Exception e) {
             return false;
@@ -236,6 +484,9 @@ public final class SignatureUtils {
         if (startsWith(digestInfo, SHA512_DIGEST_INFO_PREFIX)) {
             return DigestAlgorithm.SHA_512;
         }
+        if (startsWith(digestInfo, SHA384_DIGEST_INFO_PREFIX)) {
+            return DigestAlgorithm.SHA_384;
+        }
         if (startsWith(digestInfo, SHA256_DIGEST_INFO_PREFIX)) {
             return DigestAlgorithm.SHA_256;
         }
@@ -257,6 +508,7 @@ public final class SignatureUtils {
     private static PSSParameterSpec pssParameterSpec(DigestAlgorithm digestAlgorithm) {
         MGF1ParameterSpec mgf1Spec = switch (digestAlgorithm) {
             case SHA_256 -> MGF1ParameterSpec.SHA256;
+            case SHA_384 -> MGF1ParameterSpec.SHA384;
             case SHA_512 -> MGF1ParameterSpec.SHA512;
         };
         return new PSSParameterSpec(
@@ -0,0 +1,69 @@
+package se.fk.data.modell.json;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.databind.BeanDescription;
+import tools.jackson.databind.SerializationConfig;
+import tools.jackson.databind.SerializationContext;
+import tools.jackson.databind.ValueSerializer;
+import tools.jackson.databind.jsontype.TypeSerializer;
+import tools.jackson.databind.module.SimpleModule;
+import tools.jackson.databind.ser.ValueSerializerModifier;
+import tools.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * Used with the canonical mapper when digesting on read, where digests must
+ * cover the wire form. Livscykelhanterade objects are serialized through a
+ * delegating serializer, just as {@link LifecycleAwareSerializer} does on the
+ * wire -- the wrapped bean serializer is not resolved, which among other things
+ * means that null valued properties are left out.
+ */
+public class WireFormModule extends SimpleModule {
+
+    @Override
+    public void setupModule(SetupContext context) {
+        context.addSerializerModifier(new ValueSerializerModifier() {
+            @Override
+            public ValueSerializer<?> modifySerializer(
+                    SerializationConfig config,
+                    BeanDescription.Supplier beanDesc,
+                    ValueSerializer<?> serializer
+            ) {
+                Class<?> beanClass = beanDesc.getBeanClass();
+                if (MutationPredicates.isLifeCycleHandled(beanClass)) {
+                    return new DelegatingSerializer((ValueSerializer<Object>) serializer, beanClass);
+                }
+                return serializer;
+            }
+        });
+        super.setupModule(context);
+    }
+
+    private static final class DelegatingSerializer extends StdSerializer<Object> {
+        private final ValueSerializer<Object> defaultSerializer;
+
+        DelegatingSerializer(ValueSerializer<Object> defaultSerializer, Class<?> type) {
+            super(type);
+            this.defaultSerializer = defaultSerializer;
+        }
+
+        @Override
+        public void serialize(
+                Object bean,
+                JsonGenerator gen,
+                SerializationContext ctxt
+        ) throws JacksonException {
+            defaultSerializer.serialize(bean, gen, ctxt);
+        }
+
+        @Override
+        public void serializeWithType(
+                Object bean,
+                JsonGenerator gen,
+                SerializationContext ctxt,
+                TypeSerializer typeSer
+        ) throws JacksonException {
+            defaultSerializer.serializeWithType(bean, gen, ctxt, typeSer);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.uuid.Generators;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.security.MessageDigest;
 
 /**
@@ -14,23 +16,113 @@ import java.security.MessageDigest;
  * mottagaren inte behöver jämföra med redan lagrade data.
  */
 public class Livscykelhanterad {
+    /**
+     * Livscykeltillstånd, dvs kontrollsumma (digest) och/eller ögonblicksbild från när
+     * objektet senast lästes eller skrevs. Tillståndet är oföränderligt och byts atomiskt,
+     * så att ett objekt som delas mellan flera grafer kan serialiseras från flera trådar
+     * samtidigt. Under tiden versionen stegas och objektet skrivs är tillståndet "stepping",
+     * vilket hindrar andra trådar från att stega versionen en gång till.
+     * <p>
+     * Innehållet är inte åtkomligt utifrån; tillståndet jämförs med identitet.
+     */
+    public static final class State {
+        public static final State NEW = new State(null, null, false);
+
+        private final byte[] digest;
+        private final Object snapshot;
+        private final boolean stepping;
+
+        private State(byte[] digest, Object snapshot, boolean stepping) {
+            this.digest = digest;
+            this.snapshot = snapshot;
+            this.stepping = stepping;
+        }
+
+        /** Tillstånd som ges av en kontrollsumma */
+        public static State ofDigest(byte[] digest) {
+            return new State(digest, null, false);
+        }
+
+        /** Tillstånd som ges av en ögonblicksbild (vars form bestäms av den som tog den) */
+        public static State ofSnapshot(Object snapshot) {
+            return new State(null, snapshot, false);
+        }
+
+        public boolean hasDigest() {
+            return null != digest;
+        }
+
+        public boolean hasSnapshot() {
+            return null != snapshot;
+        }
+
+        public boolean stepping() {
+            return stepping;
+        }
+    }
+
+    private static final VarHandle STATE;
+    private static final VarHandle ATTENTION;
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            STATE = lookup.findVarHandle(Livscykelhanterad.class, "__state", State.class);
+            ATTENTION = lookup.findVarHandle(Livscykelhanterad.class, "__attention", Boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     @JsonIgnore
-    private transient byte[] __digest;
+    private transient volatile State __state = State.NEW;
 
     @JsonIgnore
-    public Boolean __attention = null;
+    public volatile Boolean __attention = null;
 
     @JsonProperty("id")
     public String id = Generators.timeBasedEpochGenerator().generate().toString(); // Always set here, but may be reset
 
     @JsonProperty("version")
-    public int version = 0;
+    public volatile int version = 0; // only stepped by whoever holds the "stepping" state
 
     @JsonIgnore
     public void stepVersion() {
         this.version++;
     }
 
+    /**
+     * Tar tillståndet "stepping" från {@code observed} och stegar versionen, om ingen
+     * annan tråd redan gör det (eller hinner före).
+     * @param observed tillståndet som det såg ut när objektet bedömdes som nytt eller ändrat
+     * @return det övertagna tillståndet, eller null om någon annan stegar versionen
+     */
+    @JsonIgnore
+    public State claimStep(State observed) {
+        if (observed.stepping) {
+            return null;
+        }
+        State claimed = new State(observed.digest, observed.snapshot, true);
+        if (!compareAndSetState(observed, claimed)) {
+            return null;
+        }
+        this.version++;
+        return claimed;
+    }
+
+    /**
+     * Backar ett steg som inte blev skrivet, och släpper tillståndet "stepping".
+     * @param claimed tillståndet från {@link #claimStep(State)}
+     * @param observed tillståndet som gällde innan dess
+     */
+    @JsonIgnore
+    public void releaseStep(State claimed, State observed) {
+        // Still ours, so nobody else steps the version meanwhile
+        if (__state == claimed) {
+            this.version--;
+            compareAndSetState(claimed, observed);
+        }
+    }
+
     protected Livscykelhanterad() {} // Required for deserialization
 
     protected Livscykelhanterad(String id) {
@@ -39,19 +131,50 @@ public class Livscykelhanterad {
         }
     }
 
+    @JsonIgnore
+    public State getState() {
+        return __state;
+    }
+
+    @JsonIgnore
+    public boolean compareAndSetState(State expected, State next) {
+        return STATE.compareAndSet(this, expected, next);
+    }
+
+    @JsonIgnore
+    public void resetState(State next) {
+        __state = next;
+    }
+
     @JsonIgnore
     public boolean compareDigest(byte[] current) {
-        return MessageDigest.isEqual(current, __digest);
+        return MessageDigest.isEqual(current, __state.digest);
     }
 
     @JsonIgnore
     public void resetDigest(byte[] current) {
-        __digest = current;
+        State state;
+        do {
+            state = __state;
+        } while (!compareAndSetState(state, new State(current, state.snapshot, state.stepping)));
     }
 
     @JsonIgnore
     public byte[] getDigest() {
-        return __digest;
+        return __state.digest;
+    }
+
+    @JsonIgnore
+    public void resetSnapshot(Object current) {
+        State state;
+        do {
+            state = __state;
+        } while (!compareAndSetState(state, new State(state.digest, current, state.stepping)));
+    }
+
+    @JsonIgnore
+    public Object getSnapshot() {
+        return __state.snapshot;
     }
 
     @JsonIgnore
@@ -59,6 +182,15 @@ public class Livscykelhanterad {
         this.__attention = true;
     }
 
+    /**
+     * Hämtar och nollställer uppmärksamhetsflaggan, som den satts med {@link #flagAttention()}.
+     * Flaggan för en stegad version skrivs av den serialisering som stegade den.
+     */
+    @JsonIgnore
+    public Boolean takeAttention() {
+        return (Boolean) ATTENTION.getAndSet(this, (Boolean) null);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -0,0 +1,112 @@
+package se.fk.mimer.klient;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs a task for each of a number of independent beans, in parallel.
+ * <p>
+ * Only a few tasks more than the parallelism are in flight at any time, so that
+ * a (possibly lazy) source of beans is consumed only as fast as it is processed.
+ * Results are handed to the sink on the calling thread, in order of completion,
+ * so sinks need not be thread-safe.
+ * <p>
+ * The first failing task fails the batch; remaining tasks are cancelled.
+ */
+final class BatchRunner {
+
+    private BatchRunner() {}
+
+    private record Done<R>(int index, Object bean, R result) {}
+
+    static <R> List<R> runOrdered(
+            List<?> beans,
+            MimerProxy.BatchOptions options,
+            Function<Object, R> task
+    ) {
+        @SuppressWarnings("unchecked")
+        R[] results = (R[]) new Object[beans.size()];
+        run(beans.iterator(), options, task, (done) -> results[done.index()] = done.result());
+        return Arrays.asList(results);
+    }
+
+    static <R> void runUnordered(
+            Iterator<?> beans,
+            MimerProxy.BatchOptions options,
+            Function<Object, R> task,
+            BiConsumer<Object, R> sink
+    ) {
+        run(beans, options, task, (done) -> sink.accept(done.bean(), done.result()));
+    }
+
+    private static <R> void run(
+            Iterator<?> beans,
+            MimerProxy.BatchOptions options,
+            Function<Object, R> task,
+            Consumer<Done<R>> sink
+    ) {
+        int parallelism = options.parallelism();
+
+        // Virtual threads are not pooled, so the number of tasks in flight is what bounds parallelism
+        int maxInFlight = options.virtualThreads() ? parallelism : 2 * parallelism;
+
+        try (ExecutorService executor = options.virtualThreads()
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(parallelism)) {
+            CompletionService<Done<R>> completions = new ExecutorCompletionService<>(executor);
+            Set<Future<Done<R>>> inFlight = new HashSet<>();
+            int index = 0;
+            try {
+                while (beans.hasNext() || !inFlight.isEmpty()) {
+                    while (inFlight.size() < maxInFlight && beans.hasNext()) {
+                        Object bean = beans.next();
+                        if (bean == null) {
+                            throw new IllegalArgumentException("bean at index " + index + " must not be null");
+                        }
+                        int i = index++;
+                        inFlight.add(completions.submit(() -> new Done<>(i, bean, task.apply(bean))));
+                    }
+                    Future<Done<R>> completed = completions.take();
+                    inFlight.remove(completed);
+                    sink.accept(completed.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel(inFlight);
+                throw new IllegalStateException("Interrupted while running batch", e);
+            } catch (ExecutionException e) {
+                cancel(inFlight);
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException re) {
+                    throw re;
+                }
+                if (cause instanceof Error err) {
+                    throw err;
+                }
+                throw new IllegalStateException("Batch task failed", cause);
+            } catch (RuntimeException e) {
+                cancel(inFlight);
+                throw e;
+            }
+        }
+    }
+
+    private static void cancel(Collection<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package se.fk.mimer.klient;
+
+import java.security.cert.CertPath;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXCertPathValidatorResult;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * PKIX validation of signer certificate chains, caching the outcome.
+ * <p>
+ * Results are keyed by signer certificate, chain and the set of trust anchors --
+ * certificates compare by their encoded form, so this is in effect keyed by
+ * fingerprints -- and by how revocation was checked, if at all. A changed set of
+ * trust anchors, or reloaded CRLs, thus never hits results validated before. Results are kept
+ * for a limited time, never beyond the notAfter of any certificate in the chain, and
+ * valid results never beyond the nextUpdate of the CRLs they were checked against.
+ * Keys refer to CRLs by generation, so results do not keep CRLs that have been reloaded.
+ * The least recently used results are dropped when the cache is full.
+ * <p>
+ * Chains checked with the default (online) revocation checks are not cached, since
+ * a certificate may be revoked at any time. Neither are failures other than the chain
+ * being found invalid (e.g. a missing algorithm), which may not be there next time.
+ * <p>
+ * Trust anchor sets are indexed once, rather than scanned for each certificate.
+ */
+final class CertificateValidator {
+    static final int DEFAULT_MAX_ENTRIES = 1024;
+    static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+
+    // Only a few sets of trust anchors are expected to be in use at any time
+    private static final int MAX_ANCHOR_SETS = 16;
+
+    private record Key(
+            X509Certificate signer,
+            List<X509Certificate> chain,
+            Set<X509Certificate> anchors,
+            long crlGeneration // of the CRL snapshot used, or 0 if revocation was not checked
+    ) {}
+
+    private record Result(boolean valid, Instant expires) {}
+
+    private record Anchors(Set<X509Certificate> certificates, Set<TrustAnchor> trustAnchors) {
+        static Anchors of(Set<X509Certificate> certificates) {
+            Set<TrustAnchor> trustAnchors = new HashSet<>();
+            for (X509Certificate cert : certificates) {
+                trustAnchors.add(new TrustAnchor(cert, null));
+            }
+            return new Anchors(certificates, Collections.unmodifiableSet(trustAnchors));
+        }
+
+        boolean contains(X509Certificate certificate) {
+            return certificates.contains(certificate);
+        }
+    }
+
+    private final Map<Key, Result> results;
+    private final Map<Set<X509Certificate>, Anchors> anchorSets;
+    private final Duration ttl;
+    private final Clock clock;
+
+    CertificateValidator() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL, Clock.systemUTC());
+    }
+
+    CertificateValidator(int maxEntries, Duration ttl, Clock clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        if (ttl == null || ttl.isNegative()) {
+            throw new IllegalArgumentException("ttl must not be null or negative");
+        }
+        // A zero ttl disables caching
+        this.results = lruMap(maxEntries);
+        this.anchorSets = lruMap(MAX_ANCHOR_SETS);
+        this.ttl = ttl;
+        this.clock = clock == null ? Clock.systemUTC() : clock;
+    }
+
+    boolean validate(
+            X509Certificate signerCertificate,
+            List<X509Certificate> chain,
+            List<X509Certificate> trustAnchors,
+            boolean enableRevocation,
+            CrlCache crlCache
+    ) {
+        if (signerCertificate == null) {
+            return false;
+        }
+
+        if (trustAnchors == null || trustAnchors.isEmpty()) {
+            return false;
+        }
+
+        Anchors anchors = anchors(trustAnchors);
+        if (anchors.contains(signerCertificate)) {
+            return true;
+        }
+
+        List<X509Certificate> effectiveChain = chain == null || chain.isEmpty()
+                ? List.of(signerCertificate)
+                : List.copyOf(chain);
+
+        Object revocation = null;
+        if (enableRevocation) {
+            revocation = crlCache != null ? crlCache.snapshot() : Boolean.TRUE;
+        }
+        Instant now = clock.instant();
+        if (Boolean.TRUE.equals(revocation) || ttl.isZero()) {
+            return Boolean.TRUE.equals(validatePath(effectiveChain, anchors, revocation, now));
+        }
+
+        long crlGeneration = revocation instanceof CrlCache.Snapshot crls ? crls.generation() : 0;
+        Key key = new Key(signerCertificate, effectiveChain, anchors.certificates(), crlGeneration);
+        Result cached;
+        synchronized (results) {
+            cached = results.get(key);
+        }
+        if (cached != null && now.isBefore(cached.expires())) {
+            return cached.valid();
+        }
+
+        Boolean valid = validatePath(effectiveChain, anchors, revocation, now);
+        if (valid == null) {
+            return false; // could not tell, so try again next time
+        }
+        Result result = new Result(valid, expiry(now, valid, signerCertificate, effectiveChain, revocation));
+        synchronized (results) {
+            results.put(key, result);
+        }
+        return valid;
+    }
+
+    /** Number of results currently cached, expired or not */
+    int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    /** Forgets all results, e.g. when a certificate is known to have been revoked */
+    void invalidate() {
+        synchronized (results) {
+            results.clear();
+        }
+        synchronized (anchorSets) {
+            anchorSets.clear();
+        }
+    }
+
+    private Anchors anchors(List<X509Certificate> trustAnchors) {
+        Set<X509Certificate> certificates = Set.copyOf(trustAnchors);
+        synchronized (anchorSets) {
+            return anchorSets.computeIfAbsent(certificates, Anchors::of);
+        }
+    }
+
+    /**
+     * @return whether the chain is valid, or null if that could not be determined
+     */
+    private static Boolean validatePath(
+            List<X509Certificate> chain,
+            Anchors anchors,
+            Object revocation,
+            Instant now
+    ) {
+        try {
+            // Exclude trust anchors from the path. Anchors are configured in PKIXParameters.
+            List<X509Certificate> pathCerts = new ArrayList<>();
+            for (X509Certificate cert : chain) {
+                if (!anchors.contains(cert)) {
+                    pathCerts.add(cert);
+                }
+            }
+
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            CertPath path = cf.generateCertPath(pathCerts);
+            PKIXParameters params = new PKIXParameters(anchors.trustAnchors());
+            params.setDate(Date.from(now));
+            if (revocation instanceof CrlCache.Snapshot crls) {
+                // Answer from the preloaded CRLs, instead of the default (online) checks
+                List<X509Certificate> issuers = new ArrayList<>(chain);
+                issuers.addAll(anchors.certificates());
+                params.setRevocationEnabled(false);
+                params.addCertPathChecker(CrlCache.checker(crls, issuers, now));
+            } else {
+                params.setRevocationEnabled(revocation != null);
+            }
+
+            CertPathValidator validator = CertPathValidator.getInstance("PKIX");
+            PKIXCertPathValidatorResult result = (PKIXCertPathValidatorResult) validator.validate(path, params);
+            return result != null;
+        } catch (CertPathValidatorException e) {
+            return false;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private Instant expiry(
+            Instant now,
+            boolean valid,
+            X509Certificate signerCertificate,
+            List<X509Certificate> chain,
+            Object revocation
+    ) {
+        Instant expires = now.plus(ttl);
+        List<X509Certificate> certificates = new ArrayList<>(chain);
+        certificates.add(signerCertificate);
+        for (X509Certificate cert : certificates) {
+            // A valid chain stops being valid when any certificate expires...
+            Instant notAfter = cert.getNotAfter().toInstant();
+            if (notAfter.isBefore(expires)) {
+                expires = notAfter;
+            }
+            // ...and an invalid one may become valid when a certificate does
+            Instant notBefore = cert.getNotBefore().toInstant();
+            if (!valid && notBefore.isAfter(now) && notBefore.isBefore(expires)) {
+                expires = notBefore;
+            }
+            // A valid chain must be checked again once a CRL it was checked against is out of date
+            if (valid && revocation instanceof CrlCache.Snapshot crls) {
+                X509CRL crl = crls.crlFor(cert);
+                if (crl != null && crl.getNextUpdate() != null && crl.getNextUpdate().toInstant().isBefore(expires)) {
+                    expires = crl.getNextUpdate().toInstant();
+                }
+            }
+        }
+        return expires;
+    }
+
+    private static <K, V> Map<K, V> lruMap(int maxEntries) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+}
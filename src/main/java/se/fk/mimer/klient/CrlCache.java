@@ -0,0 +1,284 @@
+package se.fk.mimer.klient;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.CRL;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXCertPathChecker;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Certificate revocation lists loaded from local files, for checking revocation
+ * without network access (see {@link MimerProxy.VerifyOptions#withCrlCache(CrlCache)}).
+ * <p>
+ * CRLs are read from the given files, and from all files directly in the given
+ * directories, in DER or PEM form. They are indexed by issuer (keeping the most
+ * recent CRL of each issuer), so revocation is answered from memory. The files may
+ * be reloaded periodically in the background, replacing all CRLs at once.
+ * <p>
+ * Revocation checking with a CRL cache is strict: a certificate whose issuer has no
+ * CRL, or only one past its nextUpdate, fails validation. CRL signatures are checked
+ * against the certificates of the chain being validated (including trust anchors).
+ */
+public final class CrlCache implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(CrlCache.class);
+
+    // Numbers snapshots across all caches
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+
+    /**
+     * CRLs as loaded at one point in time. Validation results depend on the snapshot
+     * they were checked against, so snapshots compare by identity -- or by generation,
+     * where the CRLs themselves need not be kept.
+     */
+    static final class Snapshot {
+        private final Map<X500Principal, X509CRL> byIssuer;
+        private final Instant loaded;
+        private final long generation = GENERATIONS.incrementAndGet();
+
+        // CRLs whose signatures have been verified, with the issuer certificate they were verified with
+        private final Map<X509CRL, X509Certificate> verified = new ConcurrentHashMap<>();
+
+        private Snapshot(Map<X500Principal, X509CRL> byIssuer, Instant loaded) {
+            this.byIssuer = byIssuer;
+            this.loaded = loaded;
+        }
+
+        X509CRL crlFor(X509Certificate certificate) {
+            return byIssuer.get(certificate.getIssuerX500Principal());
+        }
+
+        /** Unique to this snapshot */
+        long generation() {
+            return generation;
+        }
+    }
+
+    private final List<Path> sources;
+    private volatile Snapshot snapshot;
+    private ScheduledExecutorService refresher;
+
+    private CrlCache(List<Path> sources, Snapshot snapshot) {
+        this.sources = sources;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Loads CRLs from files and directories, failing if any of them can not be read.
+     */
+    public static CrlCache load(Collection<Path> sources) {
+        if (sources == null || sources.isEmpty()) {
+            throw new IllegalArgumentException("sources must not be empty");
+        }
+        List<Path> paths = List.copyOf(sources);
+        return new CrlCache(paths, read(paths));
+    }
+
+    public static CrlCache load(Path... sources) {
+        return load(sources == null ? null : List.of(sources));
+    }
+
+    /**
+     * Reloads the CRLs every {@code interval}, on a background (daemon) thread, until
+     * closed. If reloading fails, the previously loaded CRLs are kept.
+     */
+    public synchronized CrlCache refreshEvery(Duration interval) {
+        if (interval == null || interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        if (refresher != null) {
+            throw new IllegalStateException("Background refresh is already running");
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "crl-cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = interval.toMillis();
+        refresher.scheduleWithFixedDelay(this::refreshQuietly, millis, millis, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /** Reloads the CRLs now. If reloading fails, the previously loaded CRLs are kept */
+    public void refresh() {
+        snapshot = read(sources);
+    }
+
+    /** Issuers for which there is a CRL */
+    public Set<X500Principal> issuers() {
+        return snapshot.byIssuer.keySet();
+    }
+
+    /** When the current CRLs were loaded */
+    public Instant loaded() {
+        return snapshot.loaded;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * A checker for PKIX validation at the given time, against a snapshot and the
+     * certificates (chain and trust anchors) that CRLs may be issued by.
+     */
+    static PKIXCertPathChecker checker(
+            Snapshot snapshot,
+            List<X509Certificate> issuers,
+            Instant at
+    ) {
+        return new Checker(snapshot, issuers, Date.from(at));
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            log.warn("Failed to reload CRLs, keeping those loaded at {}: {}", snapshot.loaded, e.getMessage());
+        }
+    }
+
+    private static Snapshot read(List<Path> sources) {
+        Map<X500Principal, X509CRL> byIssuer = new HashMap<>();
+        try {
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            for (Path source : sources) {
+                for (Path file : files(source)) {
+                    try (InputStream in = Files.newInputStream(file)) {
+                        for (CRL crl : cf.generateCRLs(in)) {
+                            X509CRL x509 = (X509CRL) crl;
+                            // Keep the most recent CRL of each issuer
+                            byIssuer.merge(x509.getIssuerX500Principal(), x509, (current, candidate) ->
+                                    candidate.getThisUpdate().after(current.getThisUpdate()) ? candidate : current
+                            );
+                        }
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Failed to read CRLs from " + file, e);
+                    }
+                }
+            }
+        } catch (IllegalStateException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to read CRLs", e);
+        }
+        log.debug("Loaded CRLs for {} issuer(s)", byIssuer.size());
+        return new Snapshot(Map.copyOf(byIssuer), Instant.now());
+    }
+
+    private static List<Path> files(Path source) throws IOException {
+        if (!Files.isDirectory(source)) {
+            return List.of(source);
+        }
+        try (Stream<Path> entries = Files.list(source)) {
+            return entries.filter(Files::isRegularFile).sorted().toList();
+        }
+    }
+
+    private static final class Checker extends PKIXCertPathChecker {
+        private final Snapshot snapshot;
+        private final List<X509Certificate> issuers;
+        private final Date at;
+
+        Checker(Snapshot snapshot, List<X509Certificate> issuers, Date at) {
+            this.snapshot = snapshot;
+            this.issuers = issuers;
+            this.at = at;
+        }
+
+        @Override
+        public void init(boolean forward) {
+            // Certificates are checked independently, in any order
+        }
+
+        @Override
+        public boolean isForwardCheckingSupported() {
+            return true;
+        }
+
+        @Override
+        public Set<String> getSupportedExtensions() {
+            return null;
+        }
+
+        @Override
+        public void check(Certificate cert, Collection<String> unresolvedCritExts) throws CertPathValidatorException {
+            X509Certificate certificate = (X509Certificate) cert;
+            X509CRL crl = snapshot.crlFor(certificate);
+            if (crl == null) {
+                throw new CertPathValidatorException(
+                        "No CRL for issuer " + certificate.getIssuerX500Principal().getName()
+                );
+            }
+            if (crl.getNextUpdate() != null && crl.getNextUpdate().before(at)) {
+                throw new CertPathValidatorException(
+                        "CRL for issuer " + crl.getIssuerX500Principal().getName() + " is out of date"
+                );
+            }
+            verify(crl);
+            if (crl.isRevoked(certificate)) {
+                throw new CertPathValidatorException(
+                        "Certificate " + certificate.getSerialNumber() + " from "
+                                + certificate.getIssuerX500Principal().getName() + " is revoked"
+                );
+            }
+        }
+
+        private void verify(X509CRL crl) throws CertPathValidatorException {
+            X509Certificate verifiedWith = snapshot.verified.get(crl);
+            if (verifiedWith != null && issuers.contains(verifiedWith)) {
+                return;
+            }
+            List<Exception> failures = new ArrayList<>();
+            for (X509Certificate issuer : issuers) {
+                if (!issuer.getSubjectX500Principal().equals(crl.getIssuerX500Principal())) {
+                    continue;
+                }
+                try {
+                    crl.verify(issuer.getPublicKey());
+                    snapshot.verified.put(crl, issuer);
+                    return;
+                } catch (Exception e) {
+                    failures.add(e);
+                }
+            }
+            CertPathValidatorException e = new CertPathValidatorException(
+                    "CRL for issuer " + crl.getIssuerX500Principal().getName() + " could not be verified"
+            );
+            failures.forEach(e::addSuppressed);
+            throw e;
+        }
+    }
+}
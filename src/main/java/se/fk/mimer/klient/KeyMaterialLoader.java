@@ -93,6 +93,9 @@ public final class KeyMaterialLoader {
             if (encrypted != null) {
                 throw new IllegalArgumentException("Encrypted private keys are not supported");
             }
+            if (findFirstBlock(pem, "EC PRIVATE KEY") != null) {
+                throw new IllegalArgumentException("SEC1 EC private keys are not supported, convert to PKCS#8");
+            }
             throw new IllegalArgumentException("No PKCS#8 private key found");
         }
         byte[] der = block.decode();
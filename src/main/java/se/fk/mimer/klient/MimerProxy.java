@@ -1,33 +1,59 @@
 package se.fk.mimer.klient;
 
+import se.fk.data.modell.json.ChangeReport;
+import se.fk.data.modell.json.DeltaDocument;
 import se.fk.data.modell.json.DeserializationSnooper;
-import se.fk.data.modell.json.DigestUtils;
+import se.fk.data.modell.json.JcsUtils;
+import se.fk.data.modell.json.LifecycleOptions;
+import se.fk.data.modell.json.MerkleTree;
 import se.fk.data.modell.json.SignatureUtils;
+import se.fk.data.modell.v1.Livscykelhanterad;
+import se.fk.mimer.migration.MigrationAuditSink;
 import se.fk.mimer.migration.MigrationEngine;
 import se.fk.mimer.migration.MimerMigrations;
 import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.StreamReadFeature;
+import tools.jackson.core.exc.StreamReadException;
 import tools.jackson.databind.JsonNode;
 import tools.jackson.databind.ObjectMapper;
 import tools.jackson.databind.SerializationFeature;
 import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.util.ByteBufferBackedInputStream;
 
 import javax.crypto.Cipher;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.Key;
 import java.security.PrivateKey;
+import java.security.PublicKey;
 import java.security.cert.*;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 import static se.fk.data.modell.json.Modifiers.getModules;
 
 public final class MimerProxy {
     private static final SignatureUtils.DigestAlgorithm DEFAULT_DIGEST_ALGORITHM = SignatureUtils.DigestAlgorithm.SHA_512;
     private static final SignatureUtils.SignatureScheme DEFAULT_SIGNATURE_SCHEME = SignatureUtils.SignatureScheme.RSASSA_PSS;
-    private static final String DEFAULT_CANONICALIZATION = "JCS";
+    static final String DEFAULT_CANONICALIZATION = "JCS";
 
     private static final ObjectMapper DEFAULT_MAPPER = buildMapper();
     private static final MimerProxy DEFAULT_INSTANCE = new MimerProxy(DEFAULT_MAPPER);
 
     private static final MigrationEngine migrationEngine = new MigrationEngine();
+    private static volatile CertificateValidator certificateValidator = new CertificateValidator();
+    private static volatile MigrationAuditSink migrationAuditSink = MigrationAuditSink.stdout();
 
     private final ObjectMapper mapper;
 
@@ -46,10 +72,53 @@ public final class MimerProxy {
         return new MimerProxy(mapper);
     }
 
+    public static MimerProxy withLifecycleOptions(LifecycleOptions options) {
+        if (options == null) {
+            throw new IllegalArgumentException("options must not be null");
+        }
+        return new MimerProxy(buildMapper(options));
+    }
+
+    /**
+     * Sets where audit information from migrations, when deserializing historic JSON,
+     * is handed over -- for all instances. Defaults to {@link MigrationAuditSink#stdout()}.
+     */
+    public static void setMigrationAuditSink(MigrationAuditSink sink) {
+        if (sink == null) {
+            throw new IllegalArgumentException("sink must not be null");
+        }
+        migrationAuditSink = sink;
+    }
+
+    /**
+     * Sets how outcomes of certificate chain validation are cached -- for all instances:
+     * at most {@code maxEntries} outcomes, each kept for at most {@code ttl} (and never beyond
+     * the expiry of a certificate in the chain). A zero {@code ttl} disables caching.
+     * Outcomes cached so far are dropped. Defaults to 1024 outcomes for 10 minutes.
+     * <p>
+     * Chains checked with online revocation checks are never cached, whereas those
+     * checked against a {@link CrlCache} are cached per set of loaded CRLs.
+     */
+    public static void setCertificateValidationCache(int maxEntries, Duration ttl) {
+        certificateValidator = new CertificateValidator(maxEntries, ttl, Clock.systemUTC());
+    }
+
+    /**
+     * Drops all cached outcomes of certificate chain validation, e.g. when a certificate
+     * in use is known to have been revoked.
+     */
+    public static void invalidateCertificateValidationCache() {
+        certificateValidator.invalidate();
+    }
+
     private static ObjectMapper buildMapper() {
+        return buildMapper(LifecycleOptions.defaults());
+    }
+
+    private static ObjectMapper buildMapper(LifecycleOptions options) {
         return JsonMapper.builder()
                 .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
-                .addModules(getModules())
+                .addModules(getModules(options))
                 .addHandler(new DeserializationSnooper())
                 .build();
     }
@@ -95,6 +164,43 @@ public final class MimerProxy {
         public static byte[] decodeSignature(String signatureText, SignatureEncoding encoding) {
             return decodeSignatureText(signatureText, encoding);
         }
+
+        /**
+         * Detached header describing how the signature was made, e.g. "RSASSA-PSS; SHA-512; JCS",
+         * for passing along with the signature so that the verifier need not try every
+         * supported algorithm (see {@link VerifyOptions#withSignatureHeader(String)}).
+         */
+        public String signatureHeader() {
+            return signatureAlgorithm + "; " + digestAlgorithm + "; " + canonicalization;
+        }
+    }
+
+    /**
+     * Proof that a document is part of a {@link SignedBatch}: its position in the batch
+     * and the sibling hashes from its leaf up to the Merkle root (see {@link MerkleTree}).
+     */
+    public record InclusionProof(
+            int leafIndex,
+            int leafCount,
+            byte[][] path
+    ) {}
+
+    /**
+     * Documents signed as a batch, with a single signature over their Merkle root.
+     * <p>
+     * The signed root is an ordinary {@link SignedJson} over the canonical statement
+     * {@code {"leafCount":n,"root":"<base64url>"}}, the tree being built with the
+     * digest algorithm it is labeled with. Each document is verified against the signed
+     * root using its inclusion proof.
+     */
+    public record SignedBatch(
+            List<byte[]> documents,
+            List<InclusionProof> proofs,
+            SignedJson root
+    ) {
+        public int size() {
+            return documents.size();
+        }
     }
 
     public record VerificationResult(
@@ -112,9 +218,10 @@ public final class MimerProxy {
             List<X509Certificate> intermediates,
             List<X509Certificate> trustAnchors
     ) {
-        // Immutable defaults for options-based signing.
+        // Immutable defaults for options-based signing. The digest algorithm is left open,
+        // so that it follows the scheme and key (see SignatureUtils#defaultDigestAlgorithm).
         public static SignOptions defaults() {
-            return new SignOptions(null, DEFAULT_DIGEST_ALGORITHM, DEFAULT_SIGNATURE_SCHEME, null, null, null, null);
+            return new SignOptions(null, null, DEFAULT_SIGNATURE_SCHEME, null, null, null, null);
         }
 
         public SignOptions withKeyId(String value) {
@@ -154,31 +261,106 @@ public final class MimerProxy {
         }
     }
 
+    /**
+     * @param signatureScheme the scheme the signature was made with, or null if not known
+     * @param digestAlgorithm the digest algorithm the signature was made with, or null if not known
+     */
     public record VerifyOptions(
             SignatureEncoding signatureEncoding,
             List<X509Certificate> chain,
             List<X509Certificate> trustAnchors,
-            boolean enableRevocation
+            boolean enableRevocation,
+            SignatureUtils.SignatureScheme signatureScheme,
+            SignatureUtils.DigestAlgorithm digestAlgorithm,
+            CrlCache crlCache
     ) {
         // Text signatures default to Base64URL because it is safe in URLs and JSON fields.
+        // Unlabeled signatures are verified by trying each supported algorithm in turn.
         public static VerifyOptions defaults() {
-            return new VerifyOptions(SignatureEncoding.BASE64_URL, null, null, false);
+            return new VerifyOptions(SignatureEncoding.BASE64_URL, null, null, false, null, null, null);
         }
 
         public VerifyOptions withSignatureEncoding(SignatureEncoding value) {
-            return new VerifyOptions(value, chain, trustAnchors, enableRevocation);
+            return new VerifyOptions(value, chain, trustAnchors, enableRevocation, signatureScheme, digestAlgorithm, crlCache);
         }
 
         public VerifyOptions withChain(List<X509Certificate> value) {
-            return new VerifyOptions(signatureEncoding, value, trustAnchors, enableRevocation);
+            return new VerifyOptions(signatureEncoding, value, trustAnchors, enableRevocation, signatureScheme, digestAlgorithm, crlCache);
         }
 
         public VerifyOptions withTrustAnchors(List<X509Certificate> value) {
-            return new VerifyOptions(signatureEncoding, chain, value, enableRevocation);
+            return new VerifyOptions(signatureEncoding, chain, value, enableRevocation, signatureScheme, digestAlgorithm, crlCache);
         }
 
         public VerifyOptions withEnableRevocation(boolean value) {
-            return new VerifyOptions(signatureEncoding, chain, trustAnchors, value);
+            return new VerifyOptions(signatureEncoding, chain, trustAnchors, value, signatureScheme, digestAlgorithm, crlCache);
+        }
+
+        public VerifyOptions withSignatureScheme(SignatureUtils.SignatureScheme value) {
+            return new VerifyOptions(signatureEncoding, chain, trustAnchors, enableRevocation, value, digestAlgorithm, crlCache);
+        }
+
+        public VerifyOptions withDigestAlgorithm(SignatureUtils.DigestAlgorithm value) {
+            return new VerifyOptions(signatureEncoding, chain, trustAnchors, enableRevocation, signatureScheme, value, crlCache);
+        }
+
+        public VerifyOptions withCrlCache(CrlCache value) {
+            return new VerifyOptions(
+                    signatureEncoding,
+                    chain,
+                    trustAnchors,
+                    enableRevocation,
+                    signatureScheme,
+                    digestAlgorithm,
+                    value
+            );
+        }
+
+        /**
+         * Takes scheme and digest algorithm from a detached header, as produced by
+         * {@link SignedJson#signatureHeader()}. A null header leaves the options unlabeled.
+         */
+        public VerifyOptions withSignatureHeader(String header) {
+            if (header == null) {
+                return withSignatureScheme(null).withDigestAlgorithm(null);
+            }
+            String[] parts = header.split(";");
+            if (parts.length < 2) {
+                throw new IllegalArgumentException("Invalid signature header: " + header);
+            }
+            SignatureUtils.SignatureScheme scheme = SignatureUtils.SignatureScheme.fromJsonName(parts[0].trim());
+            SignatureUtils.DigestAlgorithm digest = SignatureUtils.DigestAlgorithm.fromJsonName(parts[1].trim());
+            if (scheme == null || digest == null) {
+                throw new IllegalArgumentException("Unsupported signature algorithm in header: " + header);
+            }
+            if (parts.length > 2 && !DEFAULT_CANONICALIZATION.equals(parts[2].trim())) {
+                throw new IllegalArgumentException("Unsupported canonicalization in header: " + header);
+            }
+            return withSignatureScheme(scheme).withDigestAlgorithm(digest);
+        }
+    }
+
+    public record BatchOptions(
+            int parallelism,
+            boolean virtualThreads
+    ) {
+        public BatchOptions {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be at least 1");
+            }
+        }
+
+        // Serialization is CPU bound, so by default we run one platform thread per core.
+        public static BatchOptions defaults() {
+            return new BatchOptions(Runtime.getRuntime().availableProcessors(), false);
+        }
+
+        public BatchOptions withParallelism(int value) {
+            return new BatchOptions(value, virtualThreads);
+        }
+
+        public BatchOptions withVirtualThreads(boolean value) {
+            return new BatchOptions(parallelism, value);
         }
     }
 
@@ -359,6 +541,62 @@ public final class MimerProxy {
         return serializeAndSign(bean, mapper, keyMaterial, options);
     }
 
+    public static SignedJson serializeAndSign(
+            Object bean,
+            ObjectMapper mapper,
+            PreparedSigner signer
+    ) throws JacksonException {
+        if (signer == null) {
+            throw new IllegalArgumentException("signer must not be null");
+        }
+        byte[] json = JcsUtils.canonicalize(bean, mapper);
+        byte[] signature = signer.sign(json);
+        return signer.toSignedJson(json, signature, Instant.now());
+    }
+
+    public SignedJson serializeAndSign(
+            Object bean,
+            PreparedSigner signer
+    ) throws JacksonException {
+        return serializeAndSign(bean, mapper, signer);
+    }
+
+    /**
+     * Serializes and signs a bean, writing its canonical JSON to {@code out} instead of
+     * returning it, and returns the signature. The canonical form is signed and written
+     * from where it is assembled, so no copies of the document are made. The stream is not closed.
+     */
+    public static byte[] serializeAndSign(
+            Object bean,
+            ObjectMapper mapper,
+            PreparedSigner signer,
+            OutputStream out
+    ) throws JacksonException {
+        if (signer == null) {
+            throw new IllegalArgumentException("signer must not be null");
+        }
+        if (out == null) {
+            throw new IllegalArgumentException("out must not be null");
+        }
+        return JcsUtils.withCanonical(bean, mapper, (canonical) -> {
+            byte[] signature = signer.sign(canonical);
+            try {
+                Channels.newChannel(out).write(canonical.duplicate());
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to write signed JSON", e);
+            }
+            return signature;
+        });
+    }
+
+    public byte[] serializeAndSign(
+            Object bean,
+            PreparedSigner signer,
+            OutputStream out
+    ) throws JacksonException {
+        return serializeAndSign(bean, mapper, signer, out);
+    }
+
     public static byte[] serialize(
             Object bean,
             ObjectMapper mapper
@@ -385,20 +623,322 @@ public final class MimerProxy {
         return serializePretty(bean, mapper);
     }
 
+    public static byte[] serializeChanges(
+            Livscykelhanterad bean,
+            ObjectMapper mapper
+    ) throws JacksonException {
+        if (bean == null) {
+            throw new IllegalArgumentException("bean must not be null");
+        }
+        return mapper.writer()
+                .withAttribute(DeltaDocument.class, new DeltaDocument())
+                .writeValueAsBytes(bean);
+    }
+
+    public byte[] serializeChanges(
+            Livscykelhanterad bean
+    ) throws JacksonException {
+        return serializeChanges(bean, mapper);
+    }
+
+    public static String serializeChangesPretty(
+            Livscykelhanterad bean,
+            ObjectMapper mapper
+    ) throws JacksonException {
+        if (bean == null) {
+            throw new IllegalArgumentException("bean must not be null");
+        }
+        return mapper.writerWithDefaultPrettyPrinter()
+                .withAttribute(DeltaDocument.class, new DeltaDocument())
+                .writeValueAsString(bean);
+    }
+
+    public String serializeChangesPretty(
+            Livscykelhanterad bean
+    ) throws JacksonException {
+        return serializeChangesPretty(bean, mapper);
+    }
+
+    /**
+     * Reports which livscykelhanterade objects in the graph are new, modified or unchanged,
+     * without touching versions, attention flags or digests.
+     * <p>
+     * The graph is walked by serializing it in full, to an output that is discarded, and
+     * objects are digested just as when serialized. So this costs as much as
+     * {@link #serialize(Object, ObjectMapper)}, minus keeping the output; it shows what
+     * serialization would do, but saves no work compared to serializing.
+     */
+    public static ChangeReport detectChanges(
+            Object bean,
+            ObjectMapper mapper
+    ) throws JacksonException {
+        if (bean == null) {
+            throw new IllegalArgumentException("bean must not be null");
+        }
+        // Walk the graph by serializing it in full (all serializers take part, so nothing is
+        // missed), but discard output and leave beans untouched
+        ChangeReport report = new ChangeReport();
+        mapper.writer()
+                .withAttribute(ChangeReport.class, report)
+                .writeValue(OutputStream.nullOutputStream(), bean);
+        return report;
+    }
+
+    public ChangeReport detectChanges(
+            Object bean
+    ) throws JacksonException {
+        return detectChanges(bean, mapper);
+    }
+
+    /*
+     * Batches: each bean is serialized (and signed) as if on its own, but in parallel. Beans
+     * may share livscykelhanterade objects, whose versions are then stepped once only.
+     * Streams of beans are consumed and closed, also when the batch fails.
+     */
+
+    public static List<byte[]> serializeAll(
+            Collection<?> beans,
+            ObjectMapper mapper,
+            BatchOptions options
+    ) throws JacksonException {
+        if (beans == null) {
+            throw new IllegalArgumentException("beans must not be null");
+        }
+        return BatchRunner.runOrdered(
+                new ArrayList<>(beans),
+                effectiveBatchOptions(options),
+                (bean) -> serialize(bean, mapper)
+        );
+    }
+
+    public static void serializeAll(
+            Stream<?> beans,
+            ObjectMapper mapper,
+            BatchOptions options,
+            BiConsumer<Object, byte[]> onCompletion
+    ) throws JacksonException {
+        if (beans == null || onCompletion == null) {
+            throw new IllegalArgumentException("beans and onCompletion must not be null");
+        }
+        try (beans) {
+            BatchRunner.runUnordered(
+                    beans.iterator(),
+                    effectiveBatchOptions(options),
+                    (bean) -> serialize(bean, mapper),
+                    onCompletion
+            );
+        }
+    }
+
+    public List<byte[]> serializeAll(
+            Collection<?> beans
+    ) throws JacksonException {
+        return serializeAll(beans, mapper, BatchOptions.defaults());
+    }
+
+    public List<byte[]> serializeAll(
+            Collection<?> beans,
+            BatchOptions options
+    ) throws JacksonException {
+        return serializeAll(beans, mapper, options);
+    }
+
+    public void serializeAll(
+            Stream<?> beans,
+            BatchOptions options,
+            BiConsumer<Object, byte[]> onCompletion
+    ) throws JacksonException {
+        serializeAll(beans, mapper, options, onCompletion);
+    }
+
+    public static List<SignedJson> serializeAndSignAll(
+            Collection<?> beans,
+            ObjectMapper mapper,
+            KeyMaterialLoader.KeyMaterial keyMaterial,
+            SignOptions signOptions,
+            BatchOptions options
+    ) throws JacksonException {
+        if (beans == null) {
+            throw new IllegalArgumentException("beans must not be null");
+        }
+        // Chain building and key setup are done once for the whole batch
+        return serializeAndSignAll(beans, mapper, PreparedSigner.prepare(keyMaterial, signOptions), options);
+    }
+
+    public static List<SignedJson> serializeAndSignAll(
+            Collection<?> beans,
+            ObjectMapper mapper,
+            PreparedSigner signer,
+            BatchOptions options
+    ) throws JacksonException {
+        if (beans == null) {
+            throw new IllegalArgumentException("beans must not be null");
+        }
+        if (signer == null) {
+            throw new IllegalArgumentException("signer must not be null");
+        }
+        return BatchRunner.runOrdered(
+                new ArrayList<>(beans),
+                effectiveBatchOptions(options),
+                (bean) -> serializeAndSign(bean, mapper, signer)
+        );
+    }
+
+    public static void serializeAndSignAll(
+            Stream<?> beans,
+            ObjectMapper mapper,
+            KeyMaterialLoader.KeyMaterial keyMaterial,
+            SignOptions signOptions,
+            BatchOptions options,
+            BiConsumer<Object, SignedJson> onCompletion
+    ) throws JacksonException {
+        if (beans == null || onCompletion == null) {
+            throw new IllegalArgumentException("beans and onCompletion must not be null");
+        }
+        // Closed here as well, in case preparing the signer fails (closing twice is harmless)
+        try (beans) {
+            serializeAndSignAll(beans, mapper, PreparedSigner.prepare(keyMaterial, signOptions), options, onCompletion);
+        }
+    }
+
+    public static void serializeAndSignAll(
+            Stream<?> beans,
+            ObjectMapper mapper,
+            PreparedSigner signer,
+            BatchOptions options,
+            BiConsumer<Object, SignedJson> onCompletion
+    ) throws JacksonException {
+        if (beans == null || onCompletion == null) {
+            throw new IllegalArgumentException("beans and onCompletion must not be null");
+        }
+        if (signer == null) {
+            throw new IllegalArgumentException("signer must not be null");
+        }
+        try (beans) {
+            BatchRunner.runUnordered(
+                    beans.iterator(),
+                    effectiveBatchOptions(options),
+                    (bean) -> serializeAndSign(bean, mapper, signer),
+                    onCompletion
+            );
+        }
+    }
+
+    public List<SignedJson> serializeAndSignAll(
+            Collection<?> beans,
+            KeyMaterialLoader.KeyMaterial keyMaterial,
+            SignOptions signOptions
+    ) throws JacksonException {
+        return serializeAndSignAll(beans, mapper, keyMaterial, signOptions, BatchOptions.defaults());
+    }
+
+    public List<SignedJson> serializeAndSignAll(
+            Collection<?> beans,
+            KeyMaterialLoader.KeyMaterial keyMaterial,
+            SignOptions signOptions,
+            BatchOptions options
+    ) throws JacksonException {
+        return serializeAndSignAll(beans, mapper, keyMaterial, signOptions, options);
+    }
+
+    public void serializeAndSignAll(
+            Stream<?> beans,
+            KeyMaterialLoader.KeyMaterial keyMaterial,
+            SignOptions signOptions,
+            BatchOptions options,
+            BiConsumer<Object, SignedJson> onCompletion
+    ) throws JacksonException {
+        serializeAndSignAll(beans, mapper, keyMaterial, signOptions, options, onCompletion);
+    }
+
+    public List<SignedJson> serializeAndSignAll(
+            Collection<?> beans,
+            PreparedSigner signer
+    ) throws JacksonException {
+        return serializeAndSignAll(beans, mapper, signer, BatchOptions.defaults());
+    }
+
+    public List<SignedJson> serializeAndSignAll(
+            Collection<?> beans,
+            PreparedSigner signer,
+            BatchOptions options
+    ) throws JacksonException {
+        return serializeAndSignAll(beans, mapper, signer, options);
+    }
+
+    public void serializeAndSignAll(
+            Stream<?> beans,
+            PreparedSigner signer,
+            BatchOptions options,
+            BiConsumer<Object, SignedJson> onCompletion
+    ) throws JacksonException {
+        serializeAndSignAll(beans, mapper, signer, options, onCompletion);
+    }
+
+    public static SignedBatch serializeAndSignBatch(
+            Collection<?> beans,
+            ObjectMapper mapper,
+            KeyMaterialLoader.KeyMaterial keyMaterial,
+            SignOptions signOptions
+    ) throws JacksonException {
+        return serializeAndSignBatch(beans, mapper, PreparedSigner.prepare(keyMaterial, signOptions));
+    }
+
+    public static SignedBatch serializeAndSignBatch(
+            Collection<?> beans,
+            ObjectMapper mapper,
+            PreparedSigner signer
+    ) throws JacksonException {
+        if (beans == null || beans.isEmpty()) {
+            throw new IllegalArgumentException("beans must not be empty");
+        }
+        if (signer == null) {
+            throw new IllegalArgumentException("signer must not be null");
+        }
+        List<byte[]> documents = new ArrayList<>(beans.size());
+        for (Object bean : beans) {
+            if (bean == null) {
+                throw new IllegalArgumentException("bean at index " + documents.size() + " must not be null");
+            }
+            documents.add(JcsUtils.canonicalize(bean, mapper));
+        }
+
+        // One signature over the root, instead of one per document
+        MerkleTree tree = MerkleTree.build(documents, signer.digestAlgorithm());
+        List<InclusionProof> proofs = new ArrayList<>(tree.size());
+        for (int i = 0; i < tree.size(); i++) {
+            proofs.add(new InclusionProof(i, tree.size(), tree.path(i)));
+        }
+        byte[] statement = rootStatement(tree.root(), tree.size());
+        SignedJson root = signer.toSignedJson(statement, signer.sign(statement), Instant.now());
+        return new SignedBatch(Collections.unmodifiableList(documents), Collections.unmodifiableList(proofs), root);
+    }
+
+    public SignedBatch serializeAndSignBatch(
+            Collection<?> beans,
+            KeyMaterialLoader.KeyMaterial keyMaterial,
+            SignOptions signOptions
+    ) throws JacksonException {
+        return serializeAndSignBatch(beans, mapper, keyMaterial, signOptions);
+    }
+
+    public SignedBatch serializeAndSignBatch(
+            Collection<?> beans,
+            PreparedSigner signer
+    ) throws JacksonException {
+        return serializeAndSignBatch(beans, mapper, signer);
+    }
+
     public static <T> T deserialize(
             byte[] jsonBytes,
             ObjectMapper mapper,
             Class<T> type
     ) throws JacksonException {
-        // Possibly migrate historic JSON to current format
-        JsonNode root = mapper.readTree(jsonBytes);
-        MigrationEngine.Result result = migrationEngine.applyUpToCurrent(root, MimerMigrations.all(), MimerMigrations.CURRENT);
-
-        // Log audit information (currently just dump to STDOUT)
-        result.audit.forEach(System.out::println);
-
-        // Bind after migration
-        return mapper.treeToValue(result.root, type);
+        // Current documents need no migration, so they are bound straight from the input
+        if (isCurrent(jsonBytes, mapper)) {
+            return mapper.readValue(jsonBytes, type);
+        }
+        return migrateAndBind(mapper.readTree(jsonBytes), mapper, type);
     }
 
     public <T> T deserialize(
@@ -413,15 +953,11 @@ public final class MimerProxy {
             ObjectMapper mapper,
             Class<T> type
     ) throws JacksonException {
-        // Possibly migrate historic JSON to current format
-        JsonNode root = mapper.readTree(json);
-        MigrationEngine.Result result = migrationEngine.applyUpToCurrent(root, MimerMigrations.all(), MimerMigrations.CURRENT);
-
-        // Log audit information (currently just dump to STDOUT)
-        result.audit.forEach(System.out::println);
-
-        // Bind after migration
-        return mapper.treeToValue(result.root, type);
+        // Current documents need no migration, so they are bound straight from the input
+        if (isCurrent(json, mapper)) {
+            return mapper.readValue(json, type);
+        }
+        return migrateAndBind(mapper.readTree(json), mapper, type);
     }
 
     public <T> T deserialize(
@@ -431,6 +967,39 @@ public final class MimerProxy {
         return deserialize(json, mapper, type);
     }
 
+    private static boolean isCurrent(byte[] jsonBytes, ObjectMapper mapper) throws JacksonException {
+        try (JsonParser parser = mapper.createParser(jsonBytes)) {
+            return MigrationEngine.readSchemaVersion(parser) >= MimerMigrations.CURRENT;
+        }
+    }
+
+    private static boolean isCurrent(String json, ObjectMapper mapper) throws JacksonException {
+        try (JsonParser parser = mapper.createParser(json)) {
+            return MigrationEngine.readSchemaVersion(parser) >= MimerMigrations.CURRENT;
+        }
+    }
+
+    private static <T> T migrateAndBind(
+            JsonNode root,
+            ObjectMapper mapper,
+            Class<T> type
+    ) throws JacksonException {
+        int version = MigrationEngine.readSchemaVersion(root);
+        if (version >= MimerMigrations.CURRENT) {
+            // Nothing to migrate, so skip setting up the migration engine
+            return mapper.treeToValue(root, type);
+        }
+
+        // Possibly migrate historic JSON to current format
+        MigrationEngine.Result result = migrationEngine.apply(root, MimerMigrations.planFrom(version));
+
+        // Hand audit information over (to STDOUT, unless another sink is configured)
+        migrationAuditSink.record(result.audit);
+
+        // Bind after migration
+        return mapper.treeToValue(result.root, type);
+    }
+
     public static <T> T verifyAndDeserialize(
             byte[] jsonBytes,
             byte[] signatureBytes,
@@ -438,8 +1007,15 @@ public final class MimerProxy {
             ObjectMapper mapper,
             Class<T> type
     ) throws JacksonException {
-        VerificationResult result = verifySignature(jsonBytes, signatureBytes, signerCertificate);
-        return deserializeIfVerified(jsonBytes, mapper, type, result, false);
+        return verifyAndDeserialize(
+                readTreeForVerification(jsonBytes, mapper),
+                signatureBytes,
+                signerCertificate,
+                VerifyOptions.defaults(),
+                false,
+                mapper,
+                type
+        );
     }
 
     public static <T> T verifyAndDeserialize(
@@ -450,8 +1026,15 @@ public final class MimerProxy {
             ObjectMapper mapper,
             Class<T> type
     ) throws JacksonException {
-        VerificationResult result = verifySignature(jsonBytes, signatureText, signatureEncoding, signerCertificate);
-        return deserializeIfVerified(jsonBytes, mapper, type, result, false);
+        return verifyAndDeserialize(
+                readTreeForVerification(jsonBytes, mapper),
+                decodeSignatureForVerification(signatureText, signatureEncoding),
+                signerCertificate,
+                VerifyOptions.defaults(),
+                false,
+                mapper,
+                type
+        );
     }
 
     public <T> T verifyAndDeserialize(
@@ -484,15 +1067,15 @@ public final class MimerProxy {
             ObjectMapper mapper,
             Class<T> type
     ) throws JacksonException {
-        VerificationResult result = verifySignature(
-                jsonBytes,
+        return verifyAndDeserialize(
+                readTreeForVerification(jsonBytes, mapper),
                 signatureBytes,
                 signerCertificate,
-                chain,
-                trustAnchors,
-                enableRevocation
+                legacyVerifyOptions(chain, trustAnchors, enableRevocation),
+                true,
+                mapper,
+                type
         );
-        return deserializeIfVerified(jsonBytes, mapper, type, result, true);
     }
 
     @Deprecated(since = "1.0", forRemoval = false)
@@ -507,16 +1090,15 @@ public final class MimerProxy {
             ObjectMapper mapper,
             Class<T> type
     ) throws JacksonException {
-        VerificationResult result = verifySignature(
-                jsonBytes,
-                signatureText,
-                signatureEncoding,
+        return verifyAndDeserialize(
+                readTreeForVerification(jsonBytes, mapper),
+                decodeSignatureForVerification(signatureText, signatureEncoding),
                 signerCertificate,
-                chain,
-                trustAnchors,
-                enableRevocation
+                legacyVerifyOptions(chain, trustAnchors, enableRevocation),
+                true,
+                mapper,
+                type
         );
-        return deserializeIfVerified(jsonBytes, mapper, type, result, true);
     }
 
     @Deprecated(since = "1.0", forRemoval = false)
@@ -550,8 +1132,15 @@ public final class MimerProxy {
             Class<T> type
     ) throws JacksonException {
         VerifyOptions effective = effectiveVerifyOptions(options);
-        VerificationResult result = verifySignature(jsonBytes, signatureBytes, signerCertificate, effective);
-        return deserializeIfVerified(jsonBytes, mapper, type, result, shouldRequireChainValidation(effective));
+        return verifyAndDeserialize(
+                readTreeForVerification(jsonBytes, mapper),
+                signatureBytes,
+                signerCertificate,
+                effective,
+                shouldRequireChainValidation(effective),
+                mapper,
+                type
+        );
     }
 
     public <T> T verifyAndDeserialize(
@@ -573,8 +1162,15 @@ public final class MimerProxy {
             Class<T> type
     ) throws JacksonException {
         VerifyOptions effective = effectiveVerifyOptions(options);
-        VerificationResult result = verifySignature(jsonBytes, signatureText, signerCertificate, effective);
-        return deserializeIfVerified(jsonBytes, mapper, type, result, shouldRequireChainValidation(effective));
+        return verifyAndDeserialize(
+                readTreeForVerification(jsonBytes, mapper),
+                decodeSignatureForVerification(signatureText, effective.signatureEncoding()),
+                signerCertificate,
+                effective,
+                shouldRequireChainValidation(effective),
+                mapper,
+                type
+        );
     }
 
     public <T> T verifyAndDeserialize(
@@ -587,6 +1183,109 @@ public final class MimerProxy {
         return verifyAndDeserialize(jsonBytes, signatureText, signerCertificate, options, mapper, type);
     }
 
+    /**
+     * Verifies and deserializes JSON read from {@code json}. The stream is not closed.
+     */
+    public static <T> T verifyAndDeserialize(
+            InputStream json,
+            byte[] signatureBytes,
+            X509Certificate signerCertificate,
+            VerifyOptions options,
+            ObjectMapper mapper,
+            Class<T> type
+    ) throws JacksonException {
+        VerifyOptions effective = effectiveVerifyOptions(options);
+        JsonNode root = null;
+        if (json != null) {
+            try {
+                root = mapper.reader().without(StreamReadFeature.AUTO_CLOSE_SOURCE).readTree(json);
+            } catch (StreamReadException e) {
+                throw new IllegalStateException("Signature verification failed: JSON is not well-formed", e);
+            }
+        }
+        return verifyAndDeserialize(
+                root,
+                signatureBytes,
+                signerCertificate,
+                effective,
+                shouldRequireChainValidation(effective),
+                mapper,
+                type
+        );
+    }
+
+    public <T> T verifyAndDeserialize(
+            InputStream json,
+            byte[] signatureBytes,
+            X509Certificate signerCertificate,
+            VerifyOptions options,
+            Class<T> type
+    ) throws JacksonException {
+        return verifyAndDeserialize(json, signatureBytes, signerCertificate, options, mapper, type);
+    }
+
+    public static <T> T verifyAndDeserialize(
+            ByteBuffer json,
+            byte[] signatureBytes,
+            X509Certificate signerCertificate,
+            VerifyOptions options,
+            ObjectMapper mapper,
+            Class<T> type
+    ) throws JacksonException {
+        VerifyOptions effective = effectiveVerifyOptions(options);
+        JsonNode root = null;
+        if (json != null) {
+            try {
+                root = readTree(json, mapper);
+            } catch (StreamReadException e) {
+                throw new IllegalStateException("Signature verification failed: JSON is not well-formed", e);
+            }
+        }
+        return verifyAndDeserialize(
+                root,
+                signatureBytes,
+                signerCertificate,
+                effective,
+                shouldRequireChainValidation(effective),
+                mapper,
+                type
+        );
+    }
+
+    public <T> T verifyAndDeserialize(
+            ByteBuffer json,
+            byte[] signatureBytes,
+            X509Certificate signerCertificate,
+            VerifyOptions options,
+            Class<T> type
+    ) throws JacksonException {
+        return verifyAndDeserialize(json, signatureBytes, signerCertificate, options, mapper, type);
+    }
+
+    public static <T> T verifyAndDeserialize(
+            Path json,
+            byte[] signatureBytes,
+            X509Certificate signerCertificate,
+            VerifyOptions options,
+            ObjectMapper mapper,
+            Class<T> type
+    ) throws JacksonException {
+        if (json == null) {
+            throw new IllegalStateException("Signature verification failed: Missing data for verification");
+        }
+        return verifyAndDeserialize(map(json), signatureBytes, signerCertificate, options, mapper, type);
+    }
+
+    public <T> T verifyAndDeserialize(
+            Path json,
+            byte[] signatureBytes,
+            X509Certificate signerCertificate,
+            VerifyOptions options,
+            Class<T> type
+    ) throws JacksonException {
+        return verifyAndDeserialize(json, signatureBytes, signerCertificate, options, mapper, type);
+    }
+
     @Deprecated(since = "1.0", forRemoval = false)
     public <T> T verifyAndDeserialize(
             byte[] jsonBytes,
@@ -781,10 +1480,12 @@ public final class MimerProxy {
             SignatureUtils.DigestAlgorithm digestAlgorithm,
             SignatureUtils.SignatureScheme signatureScheme
     ) throws JacksonException {
-        SignatureUtils.DigestAlgorithm effective = effectiveDigestAlgorithm(digestAlgorithm);
         SignatureUtils.SignatureScheme effectiveScheme = effectiveSignatureScheme(signatureScheme);
-        byte[] json = mapper.writeValueAsBytes(bean);
-        byte[] signature = SignatureUtils.signJcsRsaFromJsonBytes(json, privateKey, effectiveScheme, effective);
+        SignatureUtils.DigestAlgorithm effective = effectiveDigestAlgorithm(digestAlgorithm, effectiveScheme, privateKey);
+        // Write canonical JSON right away, so the signature is computed over exactly
+        // the bytes written -- without parsing and canonicalizing them again.
+        byte[] json = JcsUtils.canonicalize(bean, mapper);
+        byte[] signature = SignatureUtils.signJcsRsaFromCanonicalBytes(json, privateKey, effectiveScheme, effective);
         List<X509Certificate> chain = certificateChain;
         if ((chain == null || chain.isEmpty()) && signerCertificate != null) {
             chain = List.of(signerCertificate);
@@ -901,7 +1602,10 @@ public final class MimerProxy {
                 signerCertificate,
                 effective.chain(),
                 effective.trustAnchors(),
-                effective.enableRevocation()
+                effective.enableRevocation(),
+                effective.signatureScheme(),
+                effective.digestAlgorithm(),
+                effective.crlCache()
         );
     }
 
@@ -912,15 +1616,153 @@ public final class MimerProxy {
             VerifyOptions options
     ) {
         VerifyOptions effective = effectiveVerifyOptions(options);
-        return verifySignature(
-                jsonBytes,
-                signatureText,
-                effective.signatureEncoding(),
-                signerCertificate,
-                effective.chain(),
-                effective.trustAnchors(),
-                effective.enableRevocation()
-        );
+        final byte[] signatureBytes;
+        try {
+            signatureBytes = decodeSignatureText(signatureText, effective.signatureEncoding());
+        } catch (IllegalArgumentException e) {
+            return new VerificationResult(false, false, "Invalid signature encoding/text");
+        }
+        return verifySignature(jsonBytes, signatureBytes, signerCertificate, effective);
+    }
+
+    /**
+     * Verifies a signature over JSON read from {@code json}, which is canonicalized
+     * as it is read -- so the document is never held in memory in its original form,
+     * only in its canonical form. The stream is not closed.
+     */
+    public static VerificationResult verifySignature(
+            InputStream json,
+            byte[] signatureBytes,
+            X509Certificate signerCertificate,
+            VerifyOptions options
+    ) {
+        if (json == null || signatureBytes == null || signerCertificate == null) {
+            return new VerificationResult(false, false, "Missing data for verification");
+        }
+        VerifyOptions effective = effectiveVerifyOptions(options);
+        boolean signatureValid;
+        try {
+            signatureValid = JcsUtils.withCanonical(
+                    json,
+                    (canonical) -> verifySupportedSignature(canonical, signatureBytes, signerCertificate, effective)
+            );
+        } catch (StreamReadException | IllegalStateException e) {
+            // Not well-formed JSON
+            signatureValid = false;
+        }
+        return verificationResult(signatureValid, signerCertificate, effective);
+    }
+
+    /**
+     * Verifies a signature over the JSON between position and limit of {@code json},
+     * which is left unchanged. Direct and memory-mapped buffers are read in place.
+     */
+    public static VerificationResult verifySignature(
+            ByteBuffer json,
+            byte[] signatureBytes,
+            X509Certificate signerCertificate,
+            VerifyOptions options
+    ) {
+        if (json == null || signatureBytes == null || signerCertificate == null) {
+            return new VerificationResult(false, false, "Missing data for verification");
+        }
+        VerifyOptions effective = effectiveVerifyOptions(options);
+        boolean signatureValid;
+        try {
+            signatureValid = JcsUtils.withCanonical(
+                    json,
+                    (canonical) -> verifySupportedSignature(canonical, signatureBytes, signerCertificate, effective)
+            );
+        } catch (StreamReadException | IllegalStateException e) {
+            // Not well-formed JSON
+            signatureValid = false;
+        }
+        return verificationResult(signatureValid, signerCertificate, effective);
+    }
+
+    /**
+     * Verifies a signature over a JSON file, which is memory-mapped rather than read onto the heap.
+     */
+    public static VerificationResult verifySignature(
+            Path json,
+            byte[] signatureBytes,
+            X509Certificate signerCertificate,
+            VerifyOptions options
+    ) {
+        if (json == null) {
+            return new VerificationResult(false, false, "Missing data for verification");
+        }
+        return verifySignature(map(json), signatureBytes, signerCertificate, options);
+    }
+
+    /**
+     * Verifies a signed document using the algorithms it is labeled with, so that only
+     * a single verification attempt is made.
+     */
+    public static VerificationResult verifySignature(
+            SignedJson signed,
+            X509Certificate signerCertificate,
+            VerifyOptions options
+    ) {
+        if (signed == null) {
+            return new VerificationResult(false, false, "Missing data for verification");
+        }
+        VerifyOptions effective = effectiveVerifyOptions(options)
+                .withSignatureScheme(SignatureUtils.SignatureScheme.fromJsonName(signed.signatureAlgorithm()))
+                .withDigestAlgorithm(SignatureUtils.DigestAlgorithm.fromJsonName(signed.digestAlgorithm()));
+        return verifySignature(signed.jsonBytes(), signed.signatureBytes(), signerCertificate, effective);
+    }
+
+    /**
+     * Verifies a document from a {@link SignedBatch}: that the root is validly signed,
+     * and that the document is included under that root.
+     */
+    public static VerificationResult verifySignature(
+            byte[] jsonBytes,
+            InclusionProof proof,
+            SignedJson root,
+            X509Certificate signerCertificate,
+            VerifyOptions options
+    ) {
+        if (jsonBytes == null || proof == null || root == null) {
+            return new VerificationResult(false, false, "Missing data for verification");
+        }
+        VerificationResult rootResult = verifySignature(root, signerCertificate, options);
+        if (!rootResult.signatureValid()) {
+            return rootResult;
+        }
+        if (!isIncluded(jsonBytes, proof, root)) {
+            return new VerificationResult(false, rootResult.chainValid(), "Document is not included in signed batch");
+        }
+        return rootResult;
+    }
+
+    /**
+     * Verifies all documents of a {@link SignedBatch}, checking the root signature only once.
+     */
+    public static VerificationResult verifySignature(
+            SignedBatch batch,
+            X509Certificate signerCertificate,
+            VerifyOptions options
+    ) {
+        if (batch == null || batch.documents() == null || batch.proofs() == null
+                || batch.documents().size() != batch.proofs().size()) {
+            return new VerificationResult(false, false, "Missing data for verification");
+        }
+        VerificationResult rootResult = verifySignature(batch.root(), signerCertificate, options);
+        if (!rootResult.signatureValid()) {
+            return rootResult;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (!isIncluded(batch.documents().get(i), batch.proofs().get(i), batch.root())) {
+                return new VerificationResult(
+                        false,
+                        rootResult.chainValid(),
+                        "Document at index " + i + " is not included in signed batch"
+                );
+            }
+        }
+        return rootResult;
     }
 
     @Deprecated(since = "1.0", forRemoval = false)
@@ -962,13 +1804,69 @@ public final class MimerProxy {
             List<X509Certificate> chain,
             List<X509Certificate> trustAnchors,
             boolean enableRevocation
+    ) {
+        return verifySignature(
+                jsonBytes,
+                signatureBytes,
+                signerCertificate,
+                chain,
+                trustAnchors,
+                enableRevocation,
+                null,
+                null,
+                null
+        );
+    }
+
+    private static VerificationResult verifySignature(
+            byte[] jsonBytes,
+            byte[] signatureBytes,
+            X509Certificate signerCertificate,
+            List<X509Certificate> chain,
+            List<X509Certificate> trustAnchors,
+            boolean enableRevocation,
+            SignatureUtils.SignatureScheme signatureScheme,
+            SignatureUtils.DigestAlgorithm digestAlgorithm,
+            CrlCache crlCache
     ) {
         if (jsonBytes == null || signatureBytes == null || signerCertificate == null) {
             return new VerificationResult(false, false, "Missing data for verification");
         }
 
-        boolean signatureValid = verifySupportedSignature(jsonBytes, signatureBytes, signerCertificate);
-        boolean chainValid = validateCertificateChain(signerCertificate, chain, trustAnchors, enableRevocation);
+        boolean signatureValid = verifySupportedSignature(
+                jsonBytes,
+                signatureBytes,
+                signerCertificate,
+                signatureScheme,
+                digestAlgorithm
+        );
+        return verificationResult(signatureValid, signerCertificate, chain, trustAnchors, enableRevocation, crlCache);
+    }
+
+    private static VerificationResult verificationResult(
+            boolean signatureValid,
+            X509Certificate signerCertificate,
+            VerifyOptions effective
+    ) {
+        return verificationResult(
+                signatureValid,
+                signerCertificate,
+                effective.chain(),
+                effective.trustAnchors(),
+                effective.enableRevocation(),
+                effective.crlCache()
+        );
+    }
+
+    private static VerificationResult verificationResult(
+            boolean signatureValid,
+            X509Certificate signerCertificate,
+            List<X509Certificate> chain,
+            List<X509Certificate> trustAnchors,
+            boolean enableRevocation,
+            CrlCache crlCache
+    ) {
+        boolean chainValid = validateCertificateChain(signerCertificate, chain, trustAnchors, enableRevocation, crlCache);
 
         String message;
         if (!signatureValid) {
@@ -1007,10 +1905,14 @@ public final class MimerProxy {
         );
     }
 
-    private static SignatureUtils.DigestAlgorithm effectiveDigestAlgorithm(
-            SignatureUtils.DigestAlgorithm digestAlgorithm
+    static SignatureUtils.DigestAlgorithm effectiveDigestAlgorithm(
+            SignatureUtils.DigestAlgorithm digestAlgorithm,
+            SignatureUtils.SignatureScheme signatureScheme,
+            Key key
     ) {
-        return digestAlgorithm == null ? DEFAULT_DIGEST_ALGORITHM : digestAlgorithm;
+        return digestAlgorithm == null
+                ? SignatureUtils.defaultDigestAlgorithm(signatureScheme, key)
+                : digestAlgorithm;
     }
 
     private static SignatureUtils.SignatureScheme effectiveSignatureScheme(
@@ -1019,11 +1921,11 @@ public final class MimerProxy {
         return signatureScheme == null ? DEFAULT_SIGNATURE_SCHEME : signatureScheme;
     }
 
-    private static SignOptions effectiveSignOptions(SignOptions options) {
+    static SignOptions effectiveSignOptions(SignOptions options) {
         SignOptions value = options == null ? SignOptions.defaults() : options;
         return new SignOptions(
                 value.keyId(),
-                effectiveDigestAlgorithm(value.digestAlgorithm()),
+                value.digestAlgorithm(), // depends on the key, so resolved when signing
                 effectiveSignatureScheme(value.signatureScheme()),
                 value.signerCertificate(),
                 copyOrNull(value.certificateChain()),
@@ -1032,6 +1934,10 @@ public final class MimerProxy {
         );
     }
 
+    private static BatchOptions effectiveBatchOptions(BatchOptions options) {
+        return options == null ? BatchOptions.defaults() : options;
+    }
+
     private static VerifyOptions effectiveVerifyOptions(VerifyOptions options) {
         VerifyOptions value = options == null ? VerifyOptions.defaults() : options;
         SignatureEncoding encoding = value.signatureEncoding() == null
@@ -1041,7 +1947,10 @@ public final class MimerProxy {
                 encoding,
                 copyOrNull(value.chain()),
                 copyOrNull(value.trustAnchors()),
-                value.enableRevocation()
+                value.enableRevocation(),
+                value.signatureScheme(),
+                value.digestAlgorithm(),
+                value.crlCache()
         );
     }
 
@@ -1050,7 +1959,7 @@ public final class MimerProxy {
         return options != null && options.trustAnchors() != null && !options.trustAnchors().isEmpty();
     }
 
-    private static <T> List<T> firstNonNull(List<T> preferred, List<T> fallback) {
+    static <T> List<T> firstNonNull(List<T> preferred, List<T> fallback) {
         if (preferred != null) {
             return preferred;
         }
@@ -1061,23 +1970,76 @@ public final class MimerProxy {
         return value == null ? null : List.copyOf(value);
     }
 
-    private static <T> T deserializeIfVerified(
-            byte[] jsonBytes,
+    /*
+     * The input is parsed once, into a tree. The canonical bytes that are verified are
+     * derived from that tree, which is then migrated in place and bound.
+     */
+    private static <T> T verifyAndDeserialize(
+            JsonNode root,
+            byte[] signatureBytes,
+            X509Certificate signerCertificate,
+            VerifyOptions effective,
+            boolean requireChain,
             ObjectMapper mapper,
-            Class<T> type,
-            VerificationResult result,
-            boolean requireChain
+            Class<T> type
     ) throws JacksonException {
+        if (root == null || signatureBytes == null || signerCertificate == null) {
+            throw new IllegalStateException("Signature verification failed: Missing data for verification");
+        }
+        boolean signatureValid;
+        try {
+            signatureValid = JcsUtils.withCanonical(
+                    root,
+                    (canonical) -> verifySupportedSignature(canonical, signatureBytes, signerCertificate, effective)
+            );
+        } catch (IllegalStateException e) {
+            // E.g. empty input, which has no value to canonicalize
+            signatureValid = false;
+        }
+        requireVerified(verificationResult(signatureValid, signerCertificate, effective), requireChain);
+        return migrateAndBind(root, mapper, type);
+    }
+
+    private static JsonNode readTreeForVerification(byte[] jsonBytes, ObjectMapper mapper) {
+        if (jsonBytes == null) {
+            return null;
+        }
+        try {
+            return mapper.readTree(jsonBytes);
+        } catch (StreamReadException e) {
+            throw new IllegalStateException("Signature verification failed: JSON is not well-formed", e);
+        }
+    }
+
+    private static byte[] decodeSignatureForVerification(String signatureText, SignatureEncoding encoding) {
+        try {
+            return decodeSignatureText(signatureText, encoding);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Signature verification failed: Invalid signature encoding/text", e);
+        }
+    }
+
+    private static VerifyOptions legacyVerifyOptions(
+            List<X509Certificate> chain,
+            List<X509Certificate> trustAnchors,
+            boolean enableRevocation
+    ) {
+        return effectiveVerifyOptions(VerifyOptions.defaults()
+                .withChain(chain)
+                .withTrustAnchors(trustAnchors)
+                .withEnableRevocation(enableRevocation));
+    }
+
+    private static void requireVerified(VerificationResult result, boolean requireChain) {
         if (!result.signatureValid()) {
             throw new IllegalStateException("Signature verification failed: " + result.message());
         }
         if (requireChain && !result.chainValid()) {
             throw new IllegalStateException("Certificate validation failed: " + result.message());
         }
-        return deserialize(jsonBytes, mapper, type);
     }
 
-    private static byte[] encodeCertificate(X509Certificate certificate) {
+    static byte[] encodeCertificate(X509Certificate certificate) {
         if (certificate == null) {
             return null;
         }
@@ -1088,7 +2050,7 @@ public final class MimerProxy {
         }
     }
 
-    private static byte[][] encodeCertificateChain(List<X509Certificate> chain) {
+    static byte[][] encodeCertificateChain(List<X509Certificate> chain) {
         if (chain == null || chain.isEmpty()) {
             return null;
         }
@@ -1102,45 +2064,158 @@ public final class MimerProxy {
     private static boolean verifySupportedSignature(
             byte[] jsonBytes,
             byte[] signatureBytes,
-            X509Certificate signerCertificate
+            X509Certificate signerCertificate,
+            SignatureUtils.SignatureScheme signatureScheme,
+            SignatureUtils.DigestAlgorithm digestAlgorithm
     ) {
-        // Try RSASSA-PSS first (SHA-512, then SHA-256), then fall back to PKCS#1 v1.5.
-        if (verifyRsaPssSignature(jsonBytes, signatureBytes, signerCertificate, DEFAULT_DIGEST_ALGORITHM)) {
-            return true;
+        // Canonicalize once, whatever the number of attempts.
+        byte[] canonical;
+        try {
+            canonical = JcsUtils.canonicalize(jsonBytes);
+        } catch (Exception e) {
+            return false;
         }
-        if (verifyRsaPssSignature(jsonBytes, signatureBytes, signerCertificate, SignatureUtils.DigestAlgorithm.SHA_256)) {
+        return verifySupportedSignature(
+                ByteBuffer.wrap(canonical),
+                signatureBytes,
+                signerCertificate,
+                signatureScheme,
+                digestAlgorithm
+        );
+    }
+
+    private static boolean verifySupportedSignature(
+            ByteBuffer canonical,
+            byte[] signatureBytes,
+            X509Certificate signerCertificate,
+            VerifyOptions effective
+    ) {
+        return verifySupportedSignature(
+                canonical,
+                signatureBytes,
+                signerCertificate,
+                effective.signatureScheme(),
+                effective.digestAlgorithm()
+        );
+    }
+
+    private static boolean verifySupportedSignature(
+            ByteBuffer canonical,
+            byte[] signatureBytes,
+            X509Certificate signerCertificate,
+            SignatureUtils.SignatureScheme signatureScheme,
+            SignatureUtils.DigestAlgorithm digestAlgorithm
+    ) {
+        PublicKey publicKey = signerCertificate.getPublicKey();
+
+        // Labeled signatures are verified with the algorithm they were made with.
+        if (signatureScheme != null) {
+            return switch (signatureScheme) {
+                case RSASSA_PSS -> digestAlgorithm != null
+                        ? SignatureUtils.verifyJcsRsaPssFromCanonicalBytes(canonical, signatureBytes, publicKey, digestAlgorithm)
+                        : verifyRsaPssSignature(canonical, signatureBytes, publicKey);
+                case RSASSA_PKCS1_V1_5 -> verifyRsaPkcs1Signature(canonical, signatureBytes, publicKey, digestAlgorithm);
+                case ECDSA -> digestAlgorithm != null
+                        ? SignatureUtils.verifyJcsFromCanonicalBytes(canonical, signatureBytes, publicKey, signatureScheme, digestAlgorithm)
+                        : verifyEcdsaSignature(canonical, signatureBytes, publicKey);
+                case ED25519 -> SignatureUtils.verifyJcsFromCanonicalBytes(canonical, signatureBytes, publicKey, signatureScheme, null);
+            };
+        }
+
+        // Unlabeled: the key type tells which schemes are possible.
+        switch (publicKey.getAlgorithm()) {
+            case "EC" -> {
+                return verifyEcdsaSignature(canonical, signatureBytes, publicKey);
+            }
+            case "Ed25519", "EdDSA" -> {
+                return SignatureUtils.verifyJcsFromCanonicalBytes(
+                        canonical,
+                        signatureBytes,
+                        publicKey,
+                        SignatureUtils.SignatureScheme.ED25519,
+                        null
+                );
+            }
+            default -> {
+                // Try RSASSA-PSS first (SHA-512, then SHA-256), then fall back to PKCS#1 v1.5.
+                // Other digests, such as SHA-384 with PSS, need a labeled signature.
+                if (verifyRsaPssSignature(canonical, signatureBytes, publicKey)) {
+                    return true;
+                }
+                return verifyRsaPkcs1Signature(canonical, signatureBytes, publicKey, null);
+            }
+        }
+    }
+
+    private static boolean verifyEcdsaSignature(
+            ByteBuffer canonical,
+            byte[] signatureBytes,
+            PublicKey publicKey
+    ) {
+        // The digest algorithm usually follows the curve (P-256 with SHA-256, P-384 with SHA-384 ...),
+        // so try that one first
+        SignatureUtils.DigestAlgorithm expected = SignatureUtils.defaultDigestAlgorithm(
+                SignatureUtils.SignatureScheme.ECDSA,
+                publicKey
+        );
+        if (SignatureUtils.verifyJcsFromCanonicalBytes(
+                canonical,
+                signatureBytes,
+                publicKey,
+                SignatureUtils.SignatureScheme.ECDSA,
+                expected
+        )) {
             return true;
         }
-        return verifyRsaPkcs1Signature(jsonBytes, signatureBytes, signerCertificate);
+        for (SignatureUtils.DigestAlgorithm digestAlgorithm : SignatureUtils.DigestAlgorithm.values()) {
+            if (digestAlgorithm != expected && SignatureUtils.verifyJcsFromCanonicalBytes(
+                    canonical,
+                    signatureBytes,
+                    publicKey,
+                    SignatureUtils.SignatureScheme.ECDSA,
+                    digestAlgorithm
+            )) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private static boolean verifyRsaPssSignature(
-            byte[] jsonBytes,
+            ByteBuffer canonical,
             byte[] signatureBytes,
-            X509Certificate signerCertificate,
-            SignatureUtils.DigestAlgorithm digestAlgorithm
+            PublicKey publicKey
     ) {
-        return SignatureUtils.verifyJcsRsaPssFromJsonBytes(
-                jsonBytes,
+        if (SignatureUtils.verifyJcsRsaPssFromCanonicalBytes(canonical, signatureBytes, publicKey, DEFAULT_DIGEST_ALGORITHM)) {
+            return true;
+        }
+        return SignatureUtils.verifyJcsRsaPssFromCanonicalBytes(
+                canonical,
                 signatureBytes,
-                signerCertificate.getPublicKey(),
-                digestAlgorithm
+                publicKey,
+                SignatureUtils.DigestAlgorithm.SHA_256
         );
     }
 
     private static boolean verifyRsaPkcs1Signature(
-            byte[] jsonBytes,
+            ByteBuffer canonical,
             byte[] signatureBytes,
-            X509Certificate signerCertificate
+            PublicKey publicKey,
+            SignatureUtils.DigestAlgorithm expectedDigestAlgorithm
     ) {
         try {
             // For PKCS#1 v1.5, compare decrypted DigestInfo with the JCS digest.
-            byte[] actual = rsaPkcs1Decrypt(signatureBytes, signerCertificate.getPublicKey());
+            byte[] actual = rsaPkcs1Decrypt(signatureBytes, publicKey);
             SignatureUtils.DigestAlgorithm digestAlgorithm = SignatureUtils.detectDigestAlgorithmFromDigestInfo(actual);
             if (digestAlgorithm == null) {
                 return false;
             }
-            byte[] digest = DigestUtils.computeJcsDigestFromJsonBytes(jsonBytes, digestAlgorithm);
+            if (expectedDigestAlgorithm != null && digestAlgorithm != expectedDigestAlgorithm) {
+                return false;
+            }
+            java.security.MessageDigest md = java.security.MessageDigest.getInstance(digestAlgorithm.jcaName());
+            md.update(canonical.duplicate());
+            byte[] digest = md.digest();
             byte[] expected = SignatureUtils.digestInfo(digest, digestAlgorithm);
             return java.security.MessageDigest.isEqual(expected, actual);
         } catch (Exception e) {
@@ -1148,62 +2223,80 @@ public final class MimerProxy {
         }
     }
 
-    private static byte[] rsaPkcs1Decrypt(byte[] signature, java.security.PublicKey publicKey) throws Exception {
-        Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
-        cipher.init(Cipher.DECRYPT_MODE, publicKey);
-        return cipher.doFinal(signature);
-    }
-
-    private static boolean validateCertificateChain(
-            X509Certificate signerCertificate,
-            List<X509Certificate> chain,
-            List<X509Certificate> trustAnchors,
-            boolean enableRevocation
-    ) {
-        if (signerCertificate == null) {
+    private static boolean isIncluded(byte[] jsonBytes, InclusionProof proof, SignedJson root) {
+        if (jsonBytes == null || proof == null || root == null || root.jsonBytes() == null) {
             return false;
         }
-
-        if (trustAnchors == null || trustAnchors.isEmpty()) {
+        SignatureUtils.DigestAlgorithm digestAlgorithm = SignatureUtils.DigestAlgorithm.fromJsonName(root.digestAlgorithm());
+        if (digestAlgorithm == null) {
             return false;
         }
-
-        if (isTrustAnchor(signerCertificate, trustAnchors)) {
-            return true;
-        }
-
         try {
-            Set<TrustAnchor> anchors = new HashSet<>();
-            for (X509Certificate cert : trustAnchors) {
-                anchors.add(new TrustAnchor(cert, null));
+            // Canonicalization fails on anything after the JSON value, so appended bytes cannot ride along
+            byte[] leaf = MerkleTree.leafHash(JcsUtils.canonicalize(jsonBytes), digestAlgorithm);
+            byte[] computed = MerkleTree.rootFromPath(
+                    leaf,
+                    proof.leafIndex(),
+                    proof.leafCount(),
+                    proof.path(),
+                    digestAlgorithm
+            );
+            if (computed == null) {
+                return false;
             }
+            // The signed statement must be exactly the one for the recomputed root
+            byte[] expected = rootStatement(computed, proof.leafCount());
+            return java.security.MessageDigest.isEqual(expected, JcsUtils.canonicalize(root.jsonBytes()));
+        } catch (Exception e) {
+            return false;
+        }
+    }
 
-            List<X509Certificate> effectiveChain = chain == null || chain.isEmpty()
-                    ? List.of(signerCertificate)
-                    : chain;
+    private static byte[] rootStatement(byte[] root, int leafCount) {
+        // Already in canonical (JCS) form: members sorted, no whitespace
+        String statement = "{\"leafCount\":" + leafCount
+                + ",\"root\":\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(root) + "\"}";
+        return statement.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+    }
 
-            // Exclude trust anchors from the path. Anchors are configured in PKIXParameters.
-            List<X509Certificate> pathCerts = new ArrayList<>();
-            for (X509Certificate cert : effectiveChain) {
-                if (!isTrustAnchor(cert, trustAnchors)) {
-                    pathCerts.add(cert);
-                }
+    private static ByteBuffer map(Path file) {
+        // The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("File is too large to map: " + file);
             }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read " + file, e);
+        }
+    }
 
-            java.security.cert.CertificateFactory cf = java.security.cert.CertificateFactory.getInstance("X.509");
-            java.security.cert.CertPath path = cf.generateCertPath(pathCerts);
-            PKIXParameters params = new PKIXParameters(anchors);
-            params.setRevocationEnabled(enableRevocation);
-
-            CertPathValidator validator = CertPathValidator.getInstance("PKIX");
-            PKIXCertPathValidatorResult result = (PKIXCertPathValidatorResult) validator.validate(path, params);
-            return result != null;
-        } catch (Exception e) {
-            return false;
+    private static JsonNode readTree(ByteBuffer json, ObjectMapper mapper) throws JacksonException {
+        if (json.hasArray()) {
+            return mapper.readTree(json.array(), json.arrayOffset() + json.position(), json.remaining());
         }
+        return mapper.readTree(new ByteBufferBackedInputStream(json.duplicate()));
     }
 
-    private static List<X509Certificate> buildCertificateChain(
+    private static byte[] rsaPkcs1Decrypt(byte[] signature, PublicKey publicKey) throws Exception {
+        Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        cipher.init(Cipher.DECRYPT_MODE, publicKey);
+        return cipher.doFinal(signature);
+    }
+
+    private static boolean validateCertificateChain(
+            X509Certificate signerCertificate,
+            List<X509Certificate> chain,
+            List<X509Certificate> trustAnchors,
+            boolean enableRevocation,
+            CrlCache crlCache
+    ) {
+        // The same few signer certificates are seen over and over, so outcomes are cached
+        return certificateValidator.validate(signerCertificate, chain, trustAnchors, enableRevocation, crlCache);
+    }
+
+    static List<X509Certificate> buildCertificateChain(
             X509Certificate signerCertificate,
             List<X509Certificate> intermediates,
             List<X509Certificate> trustAnchors
@@ -1273,18 +2366,6 @@ public final class MimerProxy {
         }
     }
 
-    private static boolean isTrustAnchor(X509Certificate certificate, List<X509Certificate> trustAnchors) {
-        if (certificate == null || trustAnchors == null) {
-            return false;
-        }
-        for (X509Certificate anchor : trustAnchors) {
-            if (certificate.equals(anchor)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private static String toHex(byte[] value) {
         char[] out = new char[value.length * 2];
         final char[] hex = "0123456789abcdef".toCharArray();
@@ -0,0 +1,201 @@
+package se.fk.mimer.klient;
+
+import se.fk.data.modell.json.SignatureUtils;
+
+import java.nio.ByteBuffer;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Signing key material and options, prepared once for signing any number of documents.
+ * <p>
+ * Resolving the certificate chain (which may involve PKIX path building) and encoding
+ * the certificates is done when preparing, as is the provider lookup for the signature
+ * algorithm. Each thread signing with a prepared signer gets its own initialized
+ * {@link Signature}, which is reused for subsequent documents on that thread.
+ * <p>
+ * Prepared signers are immutable and thread-safe.
+ */
+public final class PreparedSigner {
+    private final String keyId;
+    private final SignatureUtils.DigestAlgorithm digestAlgorithm;
+    private final SignatureUtils.SignatureScheme signatureScheme;
+    private final X509Certificate signerCertificate;
+    private final List<X509Certificate> certificateChain;
+    private final byte[] signerCertificateDer;
+    private final byte[][] certificateChainDer;
+    private final ThreadLocal<Signature> signatures;
+
+    private PreparedSigner(
+            PrivateKey privateKey,
+            String keyId,
+            SignatureUtils.DigestAlgorithm digestAlgorithm,
+            SignatureUtils.SignatureScheme signatureScheme,
+            X509Certificate signerCertificate,
+            List<X509Certificate> certificateChain
+    ) {
+        this.keyId = keyId;
+        this.digestAlgorithm = digestAlgorithm;
+        this.signatureScheme = signatureScheme;
+        this.signerCertificate = signerCertificate;
+        this.certificateChain = certificateChain;
+        this.signerCertificateDer = MimerProxy.encodeCertificate(signerCertificate);
+        this.certificateChainDer = MimerProxy.encodeCertificateChain(certificateChain);
+        this.signatures = ThreadLocal.withInitial(
+                () -> SignatureUtils.newInitializedSignature(privateKey, signatureScheme, digestAlgorithm)
+        );
+
+        // Fail early on keys that do not fit the scheme, rather than on the first document
+        signatures.get();
+    }
+
+    public static PreparedSigner prepare(
+            KeyMaterialLoader.KeyMaterial keyMaterial,
+            MimerProxy.SignOptions options
+    ) {
+        if (keyMaterial == null) {
+            throw new IllegalArgumentException("keyMaterial must not be null");
+        }
+        MimerProxy.SignOptions effective = MimerProxy.effectiveSignOptions(options);
+        X509Certificate signer = effective.signerCertificate() != null
+                ? effective.signerCertificate()
+                : keyMaterial.signerCertificate();
+
+        List<X509Certificate> intermediates = MimerProxy.firstNonNull(effective.intermediates(), keyMaterial.certificateChain());
+        List<X509Certificate> trustAnchors = MimerProxy.firstNonNull(effective.trustAnchors(), keyMaterial.trustAnchors());
+
+        // Prefer chain-building when intermediates or trust anchors are provided.
+        List<X509Certificate> chain;
+        if (intermediates != null || trustAnchors != null) {
+            chain = MimerProxy.buildCertificateChain(signer, intermediates, trustAnchors);
+        } else {
+            chain = MimerProxy.firstNonNull(effective.certificateChain(), keyMaterial.certificateChain());
+        }
+        return prepare(keyMaterial.privateKey(), effective, signer, chain);
+    }
+
+    public static PreparedSigner prepare(
+            PrivateKey privateKey,
+            MimerProxy.SignOptions options
+    ) {
+        MimerProxy.SignOptions effective = MimerProxy.effectiveSignOptions(options);
+        List<X509Certificate> chain;
+        if (effective.intermediates() != null || effective.trustAnchors() != null) {
+            chain = MimerProxy.buildCertificateChain(
+                    effective.signerCertificate(),
+                    effective.intermediates(),
+                    effective.trustAnchors()
+            );
+        } else {
+            chain = effective.certificateChain();
+        }
+        return prepare(privateKey, effective, effective.signerCertificate(), chain);
+    }
+
+    private static PreparedSigner prepare(
+            PrivateKey privateKey,
+            MimerProxy.SignOptions effective,
+            X509Certificate signer,
+            List<X509Certificate> chain
+    ) {
+        if (privateKey == null) {
+            throw new IllegalArgumentException("privateKey must not be null");
+        }
+        if ((chain == null || chain.isEmpty()) && signer != null) {
+            chain = List.of(signer);
+        }
+        return new PreparedSigner(
+                privateKey,
+                effective.keyId(),
+                MimerProxy.effectiveDigestAlgorithm(effective.digestAlgorithm(), effective.signatureScheme(), privateKey),
+                effective.signatureScheme(),
+                signer,
+                chain == null ? null : List.copyOf(chain)
+        );
+    }
+
+    public String keyId() {
+        return keyId;
+    }
+
+    public SignatureUtils.DigestAlgorithm digestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    public SignatureUtils.SignatureScheme signatureScheme() {
+        return signatureScheme;
+    }
+
+    public X509Certificate signerCertificate() {
+        return signerCertificate;
+    }
+
+    /** The resolved certificate chain, or null if there is none */
+    public List<X509Certificate> certificateChain() {
+        return certificateChain;
+    }
+
+    /**
+     * Signs JSON that is already in canonical (JCS) form. Same as
+     * {@link SignatureUtils#signJcsRsaFromCanonicalBytes} with this signer's key and options.
+     */
+    public byte[] sign(byte[] canonicalBytes) {
+        if (canonicalBytes == null) {
+            throw new IllegalArgumentException("canonicalBytes must not be null");
+        }
+        return sign(ByteBuffer.wrap(canonicalBytes));
+    }
+
+    /**
+     * Signs the canonical (JCS) bytes between position and limit of {@code canonicalBytes},
+     * which is left unchanged.
+     */
+    public byte[] sign(ByteBuffer canonicalBytes) {
+        if (canonicalBytes == null) {
+            throw new IllegalArgumentException("canonicalBytes must not be null");
+        }
+        Signature signature = signatures.get();
+        try {
+            signature.update(canonicalBytes.duplicate());
+            return signature.sign();
+        } catch (SignatureException e) {
+            // A failed signature may be left in an unknown state, so do not reuse it
+            signatures.remove();
+            throw new IllegalStateException(
+                    "Failed to sign JCS payload with " + digestAlgorithm.jsonName() + " " + signatureScheme.jsonName(),
+                    e
+            );
+        }
+    }
+
+    MimerProxy.SignedJson toSignedJson(byte[] canonicalBytes, byte[] signature, Instant signingTime) {
+        // The certificates are encoded once, but each document gets its own copies,
+        // as the arrays of one result could otherwise be modified through another
+        return new MimerProxy.SignedJson(
+                canonicalBytes,
+                signature,
+                signatureScheme.jsonName(),
+                digestAlgorithm.jsonName(),
+                MimerProxy.DEFAULT_CANONICALIZATION,
+                signingTime,
+                keyId,
+                signerCertificateDer == null ? null : signerCertificateDer.clone(),
+                copyOf(certificateChainDer)
+        );
+    }
+
+    private static byte[][] copyOf(byte[][] encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        byte[][] copy = new byte[encoded.length][];
+        for (int i = 0; i < encoded.length; i++) {
+            copy[i] = encoded[i].clone();
+        }
+        return copy;
+    }
+}
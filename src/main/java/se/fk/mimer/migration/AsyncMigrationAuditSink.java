@@ -0,0 +1,261 @@
+package se.fk.mimer.migration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Audit-sink som lämnar över posterna till en bakgrundstråd, som skriver dem
+ * i omgångar till en fil eller en logger.
+ * <p>
+ * Posterna läggs i en begränsad ringbuffert utan lås, så deserialiserande trådar
+ * väntar aldrig på varandra eller på I/O. Poster formateras först när de skrivs,
+ * av bakgrundstråden. Får ett dokuments poster inte plats i bufferten kastas de
+ * (och räknas, se {@link #dropped()}) hellre än att anroparen blockeras.
+ * <p>
+ * Antalet poster per regel räknas för alla poster, även de som kastats.
+ */
+public final class AsyncMigrationAuditSink implements MigrationAuditSink, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(AsyncMigrationAuditSink.class);
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofMillis(200);
+
+    private static final int MAX_BATCH = 512;
+
+    @FunctionalInterface
+    private interface Target {
+        void write(List<MigrationEngine.AuditEntry> batch) throws IOException;
+
+        default void close() throws IOException {}
+    }
+
+    // Bounded multi-producer, single-consumer ring buffer. Producers claim a position
+    // by advancing tail, then publish into the slot; the flusher empties slots from head.
+    // Closing sets a bit in tail, so no position can be claimed once the sink is closed,
+    // and the flusher knows when it has seen the last one.
+    private static final long CLOSED = 1L << 62;
+
+    private final AtomicReferenceArray<MigrationEngine.AuditEntry> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final LongAdder dropped = new LongAdder();
+
+    private final Target target;
+    private final long flushIntervalNanos;
+    private final Thread flusher;
+
+    private AsyncMigrationAuditSink(Target target, int capacity, Duration flushInterval) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        if (flushInterval == null || flushInterval.isNegative() || flushInterval.isZero()) {
+            throw new IllegalArgumentException("flushInterval must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.target = target;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.flusher = new Thread(this::run, "migration-audit");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Skriver poster till en logger, på nivå INFO.
+     */
+    public static AsyncMigrationAuditSink toLogger(Logger logger) {
+        return toLogger(logger, DEFAULT_CAPACITY, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    public static AsyncMigrationAuditSink toLogger(Logger logger, int capacity, Duration flushInterval) {
+        if (logger == null) {
+            throw new IllegalArgumentException("logger must not be null");
+        }
+        return new AsyncMigrationAuditSink(batch -> {
+            if (logger.isInfoEnabled()) {
+                for (MigrationEngine.AuditEntry entry : batch) {
+                    logger.info("{}", entry);
+                }
+            }
+        }, capacity, flushInterval);
+    }
+
+    /**
+     * Lägger till poster, en per rad, i slutet av en fil.
+     */
+    public static AsyncMigrationAuditSink toFile(Path file) {
+        return toFile(file, DEFAULT_CAPACITY, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    public static AsyncMigrationAuditSink toFile(Path file, int capacity, Duration flushInterval) {
+        if (file == null) {
+            throw new IllegalArgumentException("file must not be null");
+        }
+        final BufferedWriter writer;
+        try {
+            writer = Files.newBufferedWriter(
+                    file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND
+            );
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open audit file " + file, e);
+        }
+        return new AsyncMigrationAuditSink(new Target() {
+            @Override
+            public void write(List<MigrationEngine.AuditEntry> batch) throws IOException {
+                for (MigrationEngine.AuditEntry entry : batch) {
+                    writer.write(entry.toString());
+                    writer.newLine();
+                }
+                writer.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
+            }
+        }, capacity, flushInterval);
+    }
+
+    @Override
+    public void record(List<MigrationEngine.AuditEntry> entries) {
+        if (entries == null || entries.isEmpty()) {
+            return;
+        }
+        for (MigrationEngine.AuditEntry entry : entries) {
+            count(entry.ruleName);
+        }
+        if (!offer(entries)) {
+            dropped.add(entries.size());
+        }
+    }
+
+    /** Antal poster per regel, sedan start */
+    public Map<String, Long> counts() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((rule, count) -> snapshot.put(rule, count.sum()));
+        return snapshot;
+    }
+
+    /** Antal poster som inte skrivits, eftersom bufferten var full (eller sinken stängd) */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Skriver återstående poster och stänger målet.
+     */
+    @Override
+    public void close() {
+        if ((tail.getAndUpdate(t -> t | CLOSED) & CLOSED) != 0) {
+            return;
+        }
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            target.close();
+        } catch (IOException e) {
+            log.warn("Failed to close migration audit target: {}", e.getMessage());
+        }
+    }
+
+    private void count(String ruleName) {
+        String key = ruleName == null ? "" : ruleName;
+        LongAdder counter = counters.get(key);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(key, k -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    private boolean offer(List<MigrationEngine.AuditEntry> entries) {
+        // The entries of a document are claimed together, so they are kept or dropped as a whole
+        int n = entries.size();
+        long t;
+        do {
+            t = tail.get();
+            if ((t & CLOSED) != 0 || t + n - head > slots.length()) {
+                return false;
+            }
+        } while (!tail.compareAndSet(t, t + n));
+        for (int i = 0; i < n; i++) {
+            slots.set((int) (t + i) & mask, entries.get(i));
+        }
+        return true;
+    }
+
+    private void drain(List<MigrationEngine.AuditEntry> batch) {
+        long h = head;
+        while (batch.size() < MAX_BATCH) {
+            int index = (int) h & mask;
+            MigrationEngine.AuditEntry entry = slots.get(index);
+            if (entry == null) {
+                // Nothing more, or claimed but not yet published
+                break;
+            }
+            slots.set(index, null);
+            batch.add(entry);
+            h++;
+        }
+        head = h;
+    }
+
+    private void run() {
+        List<MigrationEngine.AuditEntry> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            long t = tail.get();
+            boolean closing = (t & CLOSED) != 0;
+            drain(batch);
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+                continue;
+            }
+            if (closing && head == (t & ~CLOSED)) {
+                // Nothing can be claimed after closing, so this was the last entry
+                return;
+            }
+            if (closing) {
+                // Claimed entries are about to be published
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+        }
+    }
+
+    private void write(List<MigrationEngine.AuditEntry> batch) {
+        try {
+            target.write(batch);
+        } catch (Exception e) {
+            log.warn("Failed to write {} migration audit entries: {}", batch.size(), e.getMessage());
+        }
+    }
+}
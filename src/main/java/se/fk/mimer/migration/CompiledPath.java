@@ -0,0 +1,291 @@
+package se.fk.mimer.migration;
+
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.node.ArrayNode;
+import tools.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Kompilerad JSONPath-selektor för den delmängd som våra regler använder:
+ * {@code $}, {@code .fält}, {@code ['fält']}, {@code .*}, {@code [*]}, {@code [n]}
+ * och {@code ..fält}.
+ * <p>
+ * Selektorn navigerar Jackson-trädet direkt och ger för varje träff den
+ * omslutande behållaren och nyckeln (eller index), så att regler inte behöver
+ * gå via sökvägar i textform. Träffarna följer samma ordning och samma regler
+ * som Jayway (med {@code SUPPRESS_EXCEPTIONS}): saknade fält ger inga träffar,
+ * medan fält med värdet null gör det.
+ * <p>
+ * Selektorer utanför delmängden (filter, slices, unioner, ...) kompileras inte,
+ * utan utvärderas som tidigare av Jayway.
+ */
+final class CompiledPath {
+
+    private static final int FIELD = 0;
+    private static final int WILDCARD = 1;
+    private static final int INDEX = 2;
+    private static final int SCAN = 3;
+
+    private final int[] kinds;
+    private final String[] names;
+    private final int[] indexes;
+
+    private CompiledPath(int[] kinds, String[] names, int[] indexes) {
+        this.kinds = kinds;
+        this.names = names;
+        this.indexes = indexes;
+    }
+
+    /**
+     * Location of a match: the container holding the matched value, and its key or index.
+     * Text paths are only built on demand, by walking back up the chain.
+     */
+    static final class Location {
+        final Location up;
+        final JsonNode parent;  // ObjectNode or ArrayNode; null for the root
+        final String key;       // field name; null for array elements (and the root)
+        final int index;        // array index; -1 for object members (and the root)
+
+        private Location(Location up, JsonNode parent, String key, int index) {
+            this.up = up;
+            this.parent = parent;
+            this.key = key;
+            this.index = index;
+        }
+
+        /** Current value at this location, as root.at(pointer()) would see it */
+        JsonNode value(JsonNode root) {
+            if (parent == null) return root;
+            return key != null ? parent.path(key) : parent.path(index);
+        }
+
+        /** Jayway style, e.g. "$['a'][0]['b']" */
+        String matchedPath() {
+            StringBuilder sb = new StringBuilder();
+            appendMatchedPath(sb);
+            return sb.toString();
+        }
+
+        /** RFC6901, e.g. "/a/0/b" */
+        String pointer() {
+            StringBuilder sb = new StringBuilder();
+            appendPointer(sb);
+            return sb.toString();
+        }
+
+        private void appendMatchedPath(StringBuilder sb) {
+            if (up == null) {
+                sb.append('$');
+                return;
+            }
+            up.appendMatchedPath(sb);
+            if (key != null) {
+                sb.append("['").append(key).append("']");
+            } else {
+                sb.append('[').append(index).append(']');
+            }
+        }
+
+        private void appendPointer(StringBuilder sb) {
+            if (up == null) return;
+            up.appendPointer(sb);
+            sb.append('/');
+            if (key == null) {
+                sb.append(index);
+            } else if (key.indexOf('~') < 0 && key.indexOf('/') < 0) {
+                sb.append(key);
+            } else {
+                sb.append(key.replace("~", "~0").replace("/", "~1"));
+            }
+        }
+    }
+
+    /**
+     * @param jsonPath selector, e.g. "$.producerade_resultat[*].period.from"
+     * @return compiled selector, or null if the selector is outside the supported subset
+     */
+    static CompiledPath compile(String jsonPath) {
+        if (jsonPath == null) return null;
+        String p = jsonPath.trim();
+        if (p.isEmpty() || p.charAt(0) != '$') return null;
+
+        List<Integer> kinds = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+
+        int i = 1;
+        while (i < p.length()) {
+            char c = p.charAt(i);
+            if (c == '.') {
+                boolean scan = i + 1 < p.length() && p.charAt(i + 1) == '.';
+                int start = i + (scan ? 2 : 1);
+                int end = start;
+                while (end < p.length() && p.charAt(end) != '.' && p.charAt(end) != '[') end++;
+                String name = p.substring(start, end);
+                if (!isPlainName(name)) {
+                    if (!scan && "*".equals(name)) {
+                        kinds.add(WILDCARD); names.add(null); indexes.add(-1);
+                        i = end;
+                        continue;
+                    }
+                    return null;
+                }
+                kinds.add(scan ? SCAN : FIELD); names.add(name); indexes.add(-1);
+                i = end;
+            } else if (c == '[') {
+                int end = p.indexOf(']', i);
+                if (end < 0) return null;
+                String inside = p.substring(i + 1, end).trim();
+                if ("*".equals(inside)) {
+                    kinds.add(WILDCARD); names.add(null); indexes.add(-1);
+                } else if (inside.length() >= 2
+                        && (inside.charAt(0) == '\'' || inside.charAt(0) == '"')
+                        && inside.charAt(inside.length() - 1) == inside.charAt(0)) {
+                    String name = inside.substring(1, inside.length() - 1);
+                    if (name.indexOf('\'') >= 0 || name.indexOf('"') >= 0 || name.indexOf('\\') >= 0) return null;
+                    kinds.add(FIELD); names.add(name); indexes.add(-1);
+                } else {
+                    try {
+                        int index = Integer.parseInt(inside);
+                        kinds.add(INDEX); names.add(null); indexes.add(index);
+                    } catch (NumberFormatException e) {
+                        // filter, slice, union or script
+                        return null;
+                    }
+                }
+                i = end + 1;
+            } else {
+                return null;
+            }
+        }
+
+        int n = kinds.size();
+        int[] k = new int[n];
+        int[] x = new int[n];
+        for (int j = 0; j < n; j++) {
+            k[j] = kinds.get(j);
+            x[j] = indexes.get(j);
+        }
+        return new CompiledPath(k, names.toArray(new String[0]), x);
+    }
+
+    private static boolean isPlainName(String name) {
+        if (name.isEmpty()) return false;
+        for (int j = 0; j < name.length(); j++) {
+            char c = name.charAt(j);
+            if (c == '*' || c == '?' || c == '(' || c == ')' || c == ',' || c == ']'
+                    || c == '\'' || c == '"' || Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int length() {
+        return kinds.length;
+    }
+
+    /** Name of the root member this selector descends into, or null (e.g. "$", "$..x", "$[0]") */
+    String rootField() {
+        return kinds.length > 0 && kinds[0] == FIELD ? names[0] : null;
+    }
+
+    /** If any step, from {@code from} (inclusive) to {@code to} (exclusive), is a deep scan */
+    boolean scans(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (kinds[i] == SCAN) return true;
+        }
+        return false;
+    }
+
+    /** Steps from {@code from} (inclusive) to {@code to} (exclusive), as a selector of their own */
+    CompiledPath slice(int from, int to) {
+        return new CompiledPath(
+                Arrays.copyOfRange(kinds, from, to),
+                Arrays.copyOfRange(names, from, to),
+                Arrays.copyOfRange(indexes, from, to)
+        );
+    }
+
+    boolean sameSteps(CompiledPath other) {
+        return Arrays.equals(kinds, other.kinds)
+                && Arrays.equals(names, other.names)
+                && Arrays.equals(indexes, other.indexes);
+    }
+
+    /**
+     * Collects all matches before any of them is acted upon, as Jayway does
+     * with {@code AS_PATH_LIST}.
+     */
+    List<Location> select(JsonNode root) {
+        return select(root, new Location(null, null, null, -1));
+    }
+
+    /**
+     * As {@link #select(JsonNode)}, but relative to a node found earlier (at {@code at}).
+     */
+    List<Location> select(JsonNode node, Location at) {
+        List<Location> out = new ArrayList<>();
+        walk(0, node, at, out);
+        return out;
+    }
+
+    private void walk(int step, JsonNode node, Location at, List<Location> out) {
+        if (step == kinds.length) {
+            out.add(at);
+            return;
+        }
+        switch (kinds[step]) {
+            case FIELD -> {
+                if (node instanceof ObjectNode obj) {
+                    JsonNode child = obj.get(names[step]);
+                    if (child != null) {
+                        walk(step + 1, child, new Location(at, obj, names[step], -1), out);
+                    }
+                }
+            }
+            case WILDCARD -> {
+                if (node instanceof ObjectNode obj) {
+                    for (Map.Entry<String, JsonNode> e : obj.properties()) {
+                        walk(step + 1, e.getValue(), new Location(at, obj, e.getKey(), -1), out);
+                    }
+                } else if (node instanceof ArrayNode arr) {
+                    for (int j = 0; j < arr.size(); j++) {
+                        walk(step + 1, arr.get(j), new Location(at, arr, null, j), out);
+                    }
+                }
+            }
+            case INDEX -> {
+                if (node instanceof ArrayNode arr) {
+                    int j = indexes[step] < 0 ? arr.size() + indexes[step] : indexes[step];
+                    if (j >= 0 && j < arr.size()) {
+                        walk(step + 1, arr.get(j), new Location(at, arr, null, j), out);
+                    }
+                }
+            }
+            case SCAN -> scan(step, node, at, out);
+            default -> throw new IllegalStateException("Unknown path step " + kinds[step]);
+        }
+    }
+
+    // Deep scan: the node itself first, then its descendants in document order
+    private void scan(int step, JsonNode node, Location at, List<Location> out) {
+        if (node instanceof ObjectNode obj) {
+            JsonNode child = obj.get(names[step]);
+            if (child != null) {
+                walk(step + 1, child, new Location(at, obj, names[step], -1), out);
+            }
+            for (Map.Entry<String, JsonNode> e : obj.properties()) {
+                scan(step, e.getValue(), new Location(at, obj, e.getKey(), -1), out);
+            }
+        } else if (node instanceof ArrayNode arr) {
+            for (int j = 0; j < arr.size(); j++) {
+                scan(step, arr.get(j), new Location(at, arr, null, j), out);
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package se.fk.mimer.migration;
+
+import java.util.List;
+
+/**
+ * Tar emot audit-information från migreringar, ett dokument i taget.
+ * <p>
+ * Anropas på den tråd som deserialiserar, så implementationer bör inte
+ * blockera eller formatera poster i onödan (se {@link AsyncMigrationAuditSink}).
+ */
+@FunctionalInterface
+public interface MigrationAuditSink {
+
+    /**
+     * @param entries audit-poster för ett migrerat dokument, i den ordning de uppstod
+     */
+    void record(List<MigrationEngine.AuditEntry> entries);
+
+    /**
+     * Skriver varje post till STDOUT, synkront (som tidigare).
+     */
+    static MigrationAuditSink stdout() {
+        return entries -> entries.forEach(System.out::println);
+    }
+
+    static MigrationAuditSink discard() {
+        return entries -> {};
+    }
+}
@@ -1,5 +1,7 @@
 package se.fk.mimer.migration;
 
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
 import tools.jackson.databind.JsonNode;
 import tools.jackson.databind.node.ObjectNode;
 import com.jayway.jsonpath.*;
@@ -17,7 +19,7 @@ import java.util.regex.Pattern;
  */
 public final class MigrationEngine {
 
-    private static final String SCHEMA_VERSION_FIELD = "mimer:schemaVersion";
+    static final String SCHEMA_VERSION_FIELD = "mimer:schemaVersion";
 
     // Configure Jayway to use Jackson JsonNode
     private static final Configuration JSONPATH_CONF =
@@ -28,6 +30,8 @@ public final class MigrationEngine {
                     .options(Option.AS_PATH_LIST, Option.SUPPRESS_EXCEPTIONS)
                     .build();
 
+    private static final Pattern INSTANT_Z = Pattern.compile("^\\d{4}-\\d{2}-\\d{2}T.*Z$");
+
     public static final class AuditEntry {
         public final String ruleName;
         public final String jsonPath;
@@ -56,15 +60,34 @@ public final class MigrationEngine {
         void apply(JsonNode root, Match match, List<AuditEntry> audit);
     }
 
+    /**
+     * What a mutator may change, relative to a match. Lets the engine run rules
+     * that touch separate parts of a document in the same pass (see {@link MigrationPlan}).
+     */
+    public enum Scope {
+        /** Anything in the document (never reordered) */
+        DOCUMENT,
+        /** Only the parent container of the match, and below */
+        PARENT,
+        /** Only the matched value: replacing or removing it in its parent, or changing it inside */
+        VALUE
+    }
+
     public static final class Rule {
         public final String name;
         public final String jsonPath;
         public final Mutator mutator;
+        public final Scope scope;
 
         public Rule(String name, String jsonPath, Mutator mutator) {
+            this(name, jsonPath, mutator, Scope.DOCUMENT);
+        }
+
+        public Rule(String name, String jsonPath, Mutator mutator, Scope scope) {
             this.name = name;
             this.jsonPath = jsonPath;
             this.mutator = mutator;
+            this.scope = scope == null ? Scope.DOCUMENT : scope;
         }
     }
 
@@ -88,13 +111,24 @@ public final class MigrationEngine {
         public final String matchedPath;  // Jayway path for this match
         public final String pointer;      // converted to RFC6901 pointer
         public final JsonNode value;      // current value at match
+        public final JsonNode parent;     // container holding value (null if unknown, or root)
+        public final String key;          // field name in parent (null for array elements)
+        public final int index;           // array index in parent (-1 for object members)
 
         public Match(String ruleName, String jsonPath, String matchedPath, String pointer, JsonNode value) {
+            this(ruleName, jsonPath, matchedPath, pointer, value, null, null, -1);
+        }
+
+        public Match(String ruleName, String jsonPath, String matchedPath, String pointer, JsonNode value,
+                     JsonNode parent, String key, int index) {
             this.ruleName = ruleName;
             this.jsonPath = jsonPath;
             this.matchedPath = matchedPath;
             this.pointer = pointer;
             this.value = value;
+            this.parent = parent;
+            this.key = key;
+            this.index = index;
         }
     }
 
@@ -118,6 +152,40 @@ public final class MigrationEngine {
         return 0;
     }
 
+    /**
+     * Reads the schema version straight from a token stream, without building a tree,
+     * following the same rules as {@link #readSchemaVersion(JsonNode)}. Only members of
+     * the root object are looked at (nested values are skipped), but all the way to its
+     * end: as in the tree, the last of several version fields is the one that counts.
+     * @param parser positioned before, or at, the root value
+     * @return
+     */
+    public static int readSchemaVersion(JsonParser parser) {
+        JsonToken t = parser.currentToken() == null ? parser.nextToken() : parser.currentToken();
+        if (t != JsonToken.START_OBJECT) return 0;
+        int version = 0;
+        while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+            String name = parser.currentName();
+            t = parser.nextToken();
+            if (!SCHEMA_VERSION_FIELD.equals(name)) {
+                parser.skipChildren();
+                continue;
+            }
+            version = 0;
+            if (t == JsonToken.VALUE_NUMBER_INT) {
+                version = switch (parser.getNumberType()) {
+                    case INT, LONG -> (int) parser.getLongValue();
+                    default -> 0;
+                };
+            } else if (t == JsonToken.VALUE_STRING) {
+                try { version = Integer.parseInt(parser.getString().trim()); } catch (Exception ignored) {}
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return version;
+    }
+
     public static void writeSchemaVersion(JsonNode root, int version) {
         if (root instanceof ObjectNode obj) obj.put(SCHEMA_VERSION_FIELD, version);
     }
@@ -131,50 +199,36 @@ public final class MigrationEngine {
      */
     public Result applyUpToCurrent(JsonNode root, List<Migration> migrations, final int currentVersion) {
         Objects.requireNonNull(root, "root");
+        return apply(root, MigrationPlan.compile(migrations, readSchemaVersion(root), currentVersion));
+    }
 
-        // ensure sorted by fromVersion (defensive copy in case list is immutable)
-        List<Migration> ordered = new ArrayList<>(migrations);
-        ordered.sort(Comparator.comparingInt(m -> m.fromVersion));
+    /**
+     * Apply a precompiled plan, which must start at the schema version of the document.
+     * @param root
+     * @param plan
+     * @return
+     */
+    public Result apply(JsonNode root, MigrationPlan plan) {
+        Objects.requireNonNull(root, "root");
+        Objects.requireNonNull(plan, "plan");
 
-        List<AuditEntry> audit = new ArrayList<>();
         int version = readSchemaVersion(root);
+        if (version != plan.fromVersion()) {
+            throw new IllegalArgumentException(
+                    "Plan starts at version " + plan.fromVersion() + ", but document is at version " + version);
+        }
 
-        // parse once for JSONPath selections; note: selections will see mutations since root is mutated in-place
-        DocumentContext ctx = JsonPath.using(JSONPATH_CONF).parse(root);
-
-        while (version < currentVersion) {
-            final int v = version;
-            Migration next = ordered.stream()
-                    .filter(m -> m.fromVersion == v)
-                    .findFirst()
-                    .orElse(null);
-
-            if (next == null) {
-                // no migration step defined; stop rather than guessing
-                audit.add(new AuditEntry("engine", "$", "$", "/" + SCHEMA_VERSION_FIELD,
-                        "halt", "No migration defined from version " + version));
-                break;
-            }
-
-            for (Rule rule : next.rules) {
-                @SuppressWarnings("unchecked")
-                List<String> paths = ctx.read(rule.jsonPath, List.class);
-                if (paths == null || paths.isEmpty()) continue;
-
-                for (String matchedPath : paths) {
-                    String pointer = jaywayPathToPointer(matchedPath);
-                    JsonNode value = root.at(pointer);
-                    Match match = new Match(rule.name, rule.jsonPath, matchedPath, pointer, value);
-                    rule.mutator.apply(root, match, audit);
-                }
-            }
-
-            version = next.toVersion;
-            writeSchemaVersion(root, version);
-            audit.add(new AuditEntry(next.name, "$", "$", "/" + SCHEMA_VERSION_FIELD,
-                    "set", "Upgraded to version " + version));
+        List<AuditEntry> audit = new ArrayList<>();
+        Selections selections = new Selections(root);
+        for (MigrationPlan.Op op : plan.ops()) {
+            run(root, op, selections, audit);
         }
 
+        if (plan.halted()) {
+            // no migration step defined; stop rather than guessing
+            audit.add(new AuditEntry("engine", "$", "$", "/" + SCHEMA_VERSION_FIELD,
+                    "halt", "No migration defined from version " + plan.toVersion()));
+        }
         return new Result(root, audit);
     }
 
@@ -182,28 +236,95 @@ public final class MigrationEngine {
         Objects.requireNonNull(root, "root");
         List<AuditEntry> audit = new ArrayList<>();
 
-        DocumentContext ctx = JsonPath.using(JSONPATH_CONF).parse(root);
-
+        Selections selections = new Selections(root);
         for (Migration mig : migrations) {
             for (Rule rule : mig.rules) {
-                // AS_PATH_LIST => returns list of matched paths as strings
-                @SuppressWarnings("unchecked")
-                List<String> paths = ctx.read(rule.jsonPath, List.class);
-                if (paths == null || paths.isEmpty()) continue;
-
-                for (String matchedPath : paths) {
-                    String pointer = jaywayPathToPointer(matchedPath);
-
-                    JsonNode v = root.at(pointer);
-                    // Note: root.at("/missing") returns MissingNode, still safe
-                    Match m = new Match(rule.name, rule.jsonPath, matchedPath, pointer, v);
-                    rule.mutator.apply(root, m, audit);
-                }
+                CompiledPath path = CompiledPath.compile(rule.jsonPath);
+                applyRule(root, rule, path, path == null ? JsonPath.compile(rule.jsonPath) : null, selections, audit);
             }
         }
         return new Result(root, audit);
     }
 
+    // Jayway context for selectors outside the compiled subset, parsed only when first needed
+    private static final class Selections {
+        private final JsonNode root;
+        private DocumentContext ctx;
+
+        Selections(JsonNode root) {
+            this.root = root;
+        }
+
+        List<String> read(JsonPath selector) {
+            if (ctx == null) {
+                // parse once for JSONPath selections; note: selections will see mutations since root is mutated in-place
+                ctx = JsonPath.using(JSONPATH_CONF).parse(root);
+            }
+            // AS_PATH_LIST => returns list of matched paths as strings
+            @SuppressWarnings("unchecked")
+            List<String> paths = ctx.read(selector, List.class);
+            return paths;
+        }
+    }
+
+    private static void run(JsonNode root, MigrationPlan.Op op, Selections selections, List<AuditEntry> audit) {
+        switch (op) {
+            case MigrationPlan.Single single ->
+                    applyRule(root, single.rule(), single.path(), single.selector(), selections, audit);
+            case MigrationPlan.Group group -> {
+                // None of the rules can match (or create) anything outside this member
+                if (root.get(group.rootField()) == null) return;
+                for (MigrationPlan.Op member : group.ops()) {
+                    run(root, member, selections, audit);
+                }
+            }
+            case MigrationPlan.Fused fused -> {
+                for (CompiledPath.Location container : fused.prefix().select(root)) {
+                    for (int i = 0; i < fused.rules().size(); i++) {
+                        List<CompiledPath.Location> matches = fused.suffixes().get(i).select(container.value(root), container);
+                        applyMatches(root, fused.rules().get(i), matches, audit);
+                    }
+                }
+            }
+            case MigrationPlan.Upgrade up -> {
+                writeSchemaVersion(root, up.migration().toVersion);
+                audit.add(new AuditEntry(up.migration().name, "$", "$", "/" + SCHEMA_VERSION_FIELD,
+                        "set", "Upgraded to version " + up.migration().toVersion));
+            }
+        }
+    }
+
+    private static void applyRule(
+            JsonNode root, Rule rule, CompiledPath path, JsonPath selector,
+            Selections selections, List<AuditEntry> audit
+    ) {
+        if (path != null) {
+            applyMatches(root, rule, path.select(root), audit);
+            return;
+        }
+
+        List<String> paths = selections.read(selector);
+        if (paths == null || paths.isEmpty()) return;
+
+        for (String matchedPath : paths) {
+            String pointer = jaywayPathToPointer(matchedPath);
+            JsonNode value = root.at(pointer);
+            // Note: root.at("/missing") returns MissingNode, still safe
+            Match match = new Match(rule.name, rule.jsonPath, matchedPath, pointer, value);
+            rule.mutator.apply(root, match, audit);
+        }
+    }
+
+    private static void applyMatches(JsonNode root, Rule rule, List<CompiledPath.Location> matches, List<AuditEntry> audit) {
+        // Navigated the tree directly; values are looked up just before each mutator runs,
+        // so they reflect changes made for earlier matches
+        for (CompiledPath.Location at : matches) {
+            Match match = new Match(rule.name, rule.jsonPath, at.matchedPath(), at.pointer(),
+                    at.value(root), at.parent, at.key, at.index);
+            rule.mutator.apply(root, match, audit);
+        }
+    }
+
     /**
      * Converts Jayway path like: $['producerade_resultat'][0]['period']['from']
      * to JSON Pointer: /producerade_resultat/0/period/from
@@ -249,6 +370,17 @@ public final class MigrationEngine {
         }
     }
 
+    /**
+     * Parent container and key/index of a match, straight from the match when the
+     * selector was navigated directly, otherwise by resolving its pointer.
+     */
+    public static ParentRef parentRef(JsonNode root, Match match) {
+        if (match.parent != null) {
+            return new ParentRef(match.parent, match.key != null ? match.key : Integer.toString(match.index));
+        }
+        return parentRef(root, match.pointer);
+    }
+
     public static ParentRef parentRef(JsonNode root, String pointer) {
         if (pointer == null || pointer.isEmpty() || "/".equals(pointer)) {
             return new ParentRef(null, null);
@@ -275,7 +407,7 @@ public final class MigrationEngine {
     public static Rule setDefaultStringIfMissing(String name, String parentSelector, String field, String defaultValue) {
         // parentSelector should match parent objects, e.g. "$.person" or "$..person"
         return new Rule(name, parentSelector, (root, match, audit) -> {
-            JsonNode parent = root.at(match.pointer);
+            JsonNode parent = match.value;
             if (parent instanceof ObjectNode obj) {
                 JsonNode cur = obj.get(field);
                 if (cur == null || cur.isNull()) {
@@ -284,7 +416,7 @@ public final class MigrationEngine {
                             "setDefault", "set '" + field + "' to '" + defaultValue + "'"));
                 }
             }
-        });
+        }, Scope.VALUE);
     }
 
     public static Rule setString(String name, String jsonPathSelect, String pointerToSet, String value) {
@@ -303,7 +435,7 @@ public final class MigrationEngine {
     public static Rule renameField(String name, String jsonPathSelect, String newFieldName) {
         // jsonPathSelect should point to the *field value* (e.g. "$.person.typ")
         return new Rule(name, jsonPathSelect, (root, match, audit) -> {
-            ParentRef pr = parentRef(root, match.pointer);
+            ParentRef pr = parentRef(root, match);
             if (pr.parent instanceof ObjectNode obj) {
                 JsonNode oldValue = obj.get(pr.lastToken);
                 if (oldValue == null) return;
@@ -312,7 +444,7 @@ public final class MigrationEngine {
                 audit.add(new AuditEntry(name, jsonPathSelect, match.matchedPath, match.pointer,
                         "rename", pr.lastToken + " -> " + newFieldName));
             }
-        });
+        }, Scope.PARENT);
     }
 
     /**
@@ -324,7 +456,7 @@ public final class MigrationEngine {
     public static Rule ensureArray(String name, String selectField) {
         // selectField points to the field itself, e.g. "$.addresses"
         return new Rule(name, selectField, (root, match, audit) -> {
-            ParentRef pr = parentRef(root, match.pointer);
+            ParentRef pr = parentRef(root, match);
             if (!(pr.parent instanceof ObjectNode obj)) return;
 
             JsonNode v = obj.get(pr.lastToken);
@@ -337,7 +469,7 @@ public final class MigrationEngine {
 
             audit.add(new AuditEntry(name, selectField, match.matchedPath, match.pointer,
                     "ensureArray", "wrapped non-array into array"));
-        });
+        }, Scope.VALUE);
     }
 
     /**
@@ -349,7 +481,7 @@ public final class MigrationEngine {
      */
     public static Rule ensureObjectWithValueKey(String name, String selectField, String valueKey) {
         return new Rule(name, selectField, (root, match, audit) -> {
-            ParentRef pr = parentRef(root, match.pointer);
+            ParentRef pr = parentRef(root, match);
             if (!(pr.parent instanceof ObjectNode obj)) return;
 
             JsonNode v = obj.get(pr.lastToken);
@@ -362,7 +494,7 @@ public final class MigrationEngine {
 
             audit.add(new AuditEntry(name, selectField, match.matchedPath, match.pointer,
                     "ensureObject", "wrapped into object with key '" + valueKey + "'"));
-        });
+        }, Scope.VALUE);
     }
 
     /**
@@ -372,25 +504,24 @@ public final class MigrationEngine {
      * @return
      */
     public static Rule normalizeInstantZToDate(String name, String jsonPathSelect) {
-        Pattern p = Pattern.compile("^\\d{4}-\\d{2}-\\d{2}T.*Z$");
         return new Rule(name, jsonPathSelect, (root, match, audit) -> {
             if (!match.value.isString()) return;
             String s = match.value.asString();
-            if (!p.matcher(s).matches() || s.length() < 10) return;
+            if (!INSTANT_Z.matcher(s).matches() || s.length() < 10) return;
 
-            ParentRef pr = parentRef(root, match.pointer);
+            ParentRef pr = parentRef(root, match);
             if (pr.parent instanceof ObjectNode obj) {
                 String d = s.substring(0, 10);
                 obj.put(pr.lastToken, d);
                 audit.add(new AuditEntry(name, jsonPathSelect, match.matchedPath, match.pointer,
                         "replace", "instantZ -> date '" + d + "'"));
             }
-        });
+        }, Scope.VALUE);
     }
 
     public static Rule delete(String name, String jsonPathSelect) {
         return new Rule(name, jsonPathSelect, (root, match, audit) -> {
-            ParentRef pr = parentRef(root, match.pointer);
+            ParentRef pr = parentRef(root, match);
             if (pr.parent instanceof ObjectNode obj) {
                 obj.remove(pr.lastToken);
                 audit.add(new AuditEntry(name, jsonPathSelect, match.matchedPath, match.pointer,
@@ -406,7 +537,7 @@ public final class MigrationEngine {
                     }
                 } catch (NumberFormatException ignored) { }
             }
-        });
+        }, Scope.PARENT);
     }
 
     /**
@@ -420,7 +551,7 @@ public final class MigrationEngine {
     public static Rule moveFieldToSibling(String name, String selectFieldValue, String targetFieldName) {
         // example: select "$.person.typ" and move to "$.person.roll"
         return new Rule(name, selectFieldValue, (root, match, audit) -> {
-            ParentRef pr = parentRef(root, match.pointer);
+            ParentRef pr = parentRef(root, match);
             if (!(pr.parent instanceof ObjectNode obj)) return;
 
             JsonNode val = obj.get(pr.lastToken);
@@ -431,7 +562,7 @@ public final class MigrationEngine {
 
             audit.add(new AuditEntry(name, selectFieldValue, match.matchedPath, match.pointer,
                     "moveField", pr.lastToken + " -> " + targetFieldName));
-        });
+        }, Scope.PARENT);
     }
 
     /**
@@ -443,7 +574,7 @@ public final class MigrationEngine {
      */
     public static Rule copyFieldToSibling(String name, String selectFieldValue, String targetFieldName) {
         return new Rule(name, selectFieldValue, (root, match, audit) -> {
-            ParentRef pr = parentRef(root, match.pointer);
+            ParentRef pr = parentRef(root, match);
             if (!(pr.parent instanceof ObjectNode obj)) return;
 
             JsonNode val = obj.get(pr.lastToken);
@@ -452,7 +583,7 @@ public final class MigrationEngine {
             obj.set(targetFieldName, val.deepCopy());
             audit.add(new AuditEntry(name, selectFieldValue, match.matchedPath, match.pointer,
                     "copyField", pr.lastToken + " -> " + targetFieldName));
-        });
+        }, Scope.PARENT);
     }
 
     /**
@@ -467,14 +598,14 @@ public final class MigrationEngine {
             String s = match.value.asString().trim();
             try {
                 int x = Integer.parseInt(s);
-                ParentRef pr = parentRef(root, match.pointer);
+                ParentRef pr = parentRef(root, match);
                 if (pr.parent instanceof ObjectNode obj) {
                     obj.put(pr.lastToken, x);
                     audit.add(new AuditEntry(name, selectField, match.matchedPath, match.pointer,
                             "coerce", "string -> int (" + x + ")"));
                 }
             } catch (Exception ignored) {}
-        });
+        }, Scope.VALUE);
     }
 
     /**
@@ -492,13 +623,13 @@ public final class MigrationEngine {
             if (s.equals("false") || s.equals("no") || s.equals("0")) b = false;
             if (b == null) return;
 
-            ParentRef pr = parentRef(root, match.pointer);
+            ParentRef pr = parentRef(root, match);
             if (pr.parent instanceof ObjectNode obj) {
                 obj.put(pr.lastToken, b);
                 audit.add(new AuditEntry(name, selectField, match.matchedPath, match.pointer,
                         "coerce", "string -> boolean (" + b + ")"));
             }
-        });
+        }, Scope.VALUE);
     }
 
     /**
@@ -515,13 +646,13 @@ public final class MigrationEngine {
             String repl = mapping.get(s);
             if (repl == null) return;
 
-            ParentRef pr = parentRef(root, match.pointer);
+            ParentRef pr = parentRef(root, match);
             if (pr.parent instanceof ObjectNode obj) {
                 obj.put(pr.lastToken, repl);
                 audit.add(new AuditEntry(name, selectField, match.matchedPath, match.pointer,
                         "mapValue", "'" + s + "' -> '" + repl + "'"));
             }
-        });
+        }, Scope.VALUE);
     }
 
 
@@ -548,13 +679,13 @@ public final class MigrationEngine {
             o.put(group1Key, m.group(1));
             o.put(group2Key, m.group(2));
 
-            ParentRef pr = parentRef(root, match.pointer);
+            ParentRef pr = parentRef(root, match);
             if (pr.parent instanceof ObjectNode obj) {
                 obj.set(pr.lastToken, o);
                 audit.add(new AuditEntry(name, selectField, match.matchedPath, match.pointer,
                         "split", "split into object {" + group1Key + "," + group2Key + "}"));
             }
-        });
+        }, Scope.VALUE);
     }
 
     /**
@@ -572,7 +703,7 @@ public final class MigrationEngine {
                                            String outField, String f1, String f2, String separator,
                                            boolean removeInputs) {
         return new Rule(name, parentSelector, (root, match, audit) -> {
-            JsonNode parent = root.at(match.pointer);
+            JsonNode parent = match.value;
             if (!(parent instanceof ObjectNode obj)) return;
 
             JsonNode a = obj.get(f1);
@@ -585,7 +716,7 @@ public final class MigrationEngine {
 
             audit.add(new AuditEntry(name, parentSelector, match.matchedPath, match.pointer + "/" + outField,
                     "merge", "merged " + f1 + " and " + f2));
-        });
+        }, Scope.VALUE);
     }
 
     /**
@@ -597,7 +728,7 @@ public final class MigrationEngine {
      */
     public static Rule dedupeArrayByKey(String name, String selectArrayField, String keyField) {
         return new Rule(name, selectArrayField, (root, match, audit) -> {
-            ParentRef pr = parentRef(root, match.pointer);
+            ParentRef pr = parentRef(root, match);
             if (!(pr.parent instanceof ObjectNode obj)) return;
 
             JsonNode arrN = obj.get(pr.lastToken);
@@ -623,6 +754,6 @@ public final class MigrationEngine {
             obj.set(pr.lastToken, out);
             audit.add(new AuditEntry(name, selectArrayField, match.matchedPath, match.pointer,
                     "dedupe", "deduped array by key '" + keyField + "'"));
-        });
+        }, Scope.VALUE);
     }
 }
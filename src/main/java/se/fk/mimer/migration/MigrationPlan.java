@@ -0,0 +1,231 @@
+package se.fk.mimer.migration;
+
+import com.jayway.jsonpath.JsonPath;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Förberedd migreringsväg från en schemaversion mot en annan: de steg som ska
+ * tillämpas, i ordning, med regler vars JSONPath-selektorer kompilerats i förväg
+ * (se {@link CompiledPath}).
+ * <p>
+ * En plan tas fram en gång per väg och kan sedan tillämpas på valfritt antal
+ * dokument (se {@link MigrationEngine#apply}). Planer är oföränderliga och kan
+ * delas mellan trådar.
+ * <p>
+ * Regler från på varandra följande steg slås samman där det går. Regler som
+ * enligt sin {@link MigrationEngine.Scope} bara påverkar det rotfält de väljer
+ * under grupperas per rotfält och hoppas över helt om fältet saknas; inom en
+ * grupp körs regler med samma selektor fram till sista ledet i ett gemensamt
+ * genomlöp. Regler med scope {@code DOCUMENT} (och selektorer som Jayway
+ * utvärderar) bryter sammanslagningen, så de ser dokumentet precis som när
+ * stegen körs ett i taget, inklusive schemaversion. Ordningen mellan
+ * regler för olika rotfält, och därmed i audit-informationen, kan däremot
+ * skilja sig från den deklarerade.
+ */
+public final class MigrationPlan {
+
+    static final class Step {
+        final MigrationEngine.Migration migration;
+        final CompiledPath[] paths; // per rule, in order
+        final JsonPath[] selectors; // per rule, where paths[i] is null (selector outside the compiled subset)
+
+        Step(MigrationEngine.Migration migration) {
+            this.migration = migration;
+            int n = migration.rules.size();
+            this.paths = new CompiledPath[n];
+            this.selectors = new JsonPath[n];
+            for (int i = 0; i < n; i++) {
+                String jsonPath = migration.rules.get(i).jsonPath;
+                paths[i] = CompiledPath.compile(jsonPath);
+                if (paths[i] == null) {
+                    selectors[i] = JsonPath.compile(jsonPath);
+                }
+            }
+        }
+    }
+
+    // What the engine executes, in order
+    sealed interface Op permits Single, Group, Fused, Upgrade {}
+
+    /** One rule, selecting on its own (path, or Jayway selector if path is null) */
+    record Single(MigrationEngine.Rule rule, CompiledPath path, JsonPath selector) implements Op {}
+
+    /** Rules confined to one root member, in declared order; skipped if the member is absent */
+    record Group(String rootField, List<Op> ops) implements Op {}
+
+    /** Rules sharing all but the last selector step: the prefix is walked once, each rule runs per container */
+    record Fused(CompiledPath prefix, List<MigrationEngine.Rule> rules, List<CompiledPath> suffixes) implements Op {}
+
+    /** Marks a migration step as complete */
+    record Upgrade(MigrationEngine.Migration migration) implements Op {}
+
+    private final int fromVersion;
+    private final int toVersion;
+    private final List<Step> steps;
+    private final List<Op> ops;
+    private final boolean halted;
+
+    private MigrationPlan(int fromVersion, int toVersion, List<Step> steps, boolean halted) {
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        this.steps = steps;
+        this.ops = fuse(steps);
+        this.halted = halted;
+    }
+
+    /**
+     * Tar fram vägen från {@code fromVersion} upp till {@code targetVersion}, på samma
+     * sätt som {@link MigrationEngine#applyUpToCurrent}: saknas ett steg från någon
+     * version stannar planen där.
+     * @param migrations
+     * @param fromVersion
+     * @param targetVersion
+     * @return
+     */
+    public static MigrationPlan compile(
+            List<MigrationEngine.Migration> migrations,
+            int fromVersion,
+            int targetVersion
+    ) {
+        if (migrations == null) {
+            throw new IllegalArgumentException("migrations must not be null");
+        }
+        List<MigrationEngine.Migration> ordered = new ArrayList<>(migrations);
+        ordered.sort(Comparator.comparingInt(m -> m.fromVersion));
+
+        List<Step> steps = new ArrayList<>();
+        int version = fromVersion;
+        boolean halted = false;
+        while (version < targetVersion) {
+            MigrationEngine.Migration next = null;
+            for (MigrationEngine.Migration m : ordered) {
+                if (m.fromVersion == version) {
+                    next = m;
+                    break;
+                }
+            }
+            if (next == null) {
+                // no migration step defined; stop rather than guessing
+                halted = true;
+                break;
+            }
+            if (next.toVersion <= version) {
+                throw new IllegalArgumentException("Migration '" + next.name + "' does not advance from version " + version);
+            }
+            steps.add(new Step(next));
+            version = next.toVersion;
+        }
+        return new MigrationPlan(fromVersion, version, List.copyOf(steps), halted);
+    }
+
+    /** Schemaversion som planen utgår från */
+    public int fromVersion() {
+        return fromVersion;
+    }
+
+    /** Schemaversion som dokument har efter planen */
+    public int toVersion() {
+        return toVersion;
+    }
+
+    /** Om det saknas ett steg från {@link #toVersion()} mot målversionen */
+    public boolean halted() {
+        return halted;
+    }
+
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    List<Op> ops() {
+        return ops;
+    }
+
+    private static List<Op> fuse(List<Step> steps) {
+        List<Op> ops = new ArrayList<>();
+        Map<String, List<Single>> groups = new LinkedHashMap<>();
+        List<Op> upgrades = new ArrayList<>();
+
+        for (Step step : steps) {
+            List<MigrationEngine.Rule> rules = step.migration.rules;
+            for (int i = 0; i < rules.size(); i++) {
+                MigrationEngine.Rule rule = rules.get(i);
+                String field = confinedTo(rule, step.paths[i]);
+                if (field == null) {
+                    // Everything before this rule, including version upgrades, must be done
+                    flush(ops, groups, upgrades);
+                    ops.add(new Single(rule, step.paths[i], step.selectors[i]));
+                } else {
+                    groups.computeIfAbsent(field, f -> new ArrayList<>()).add(new Single(rule, step.paths[i], null));
+                }
+            }
+            if (groups.isEmpty()) {
+                ops.add(new Upgrade(step.migration));
+            } else {
+                upgrades.add(new Upgrade(step.migration));
+            }
+        }
+        flush(ops, groups, upgrades);
+        return List.copyOf(ops);
+    }
+
+    private static void flush(List<Op> ops, Map<String, List<Single>> groups, List<Op> upgrades) {
+        groups.forEach((field, rules) -> ops.add(new Group(field, fuseByPrefix(rules))));
+        groups.clear();
+        ops.addAll(upgrades);
+        upgrades.clear();
+    }
+
+    /**
+     * Root member that a rule can neither look outside of nor change outside of,
+     * or null if the rule may touch anything.
+     */
+    private static String confinedTo(MigrationEngine.Rule rule, CompiledPath path) {
+        if (path == null || rule.scope == MigrationEngine.Scope.DOCUMENT) return null;
+        String field = path.rootField();
+        if (field == null || MigrationEngine.SCHEMA_VERSION_FIELD.equals(field)) return null;
+        // PARENT rules change the container of the match, which must itself lie below the root member
+        int depth = rule.scope == MigrationEngine.Scope.PARENT ? 2 : 1;
+        return path.length() >= depth ? field : null;
+    }
+
+    // Consecutive rules whose selectors differ only in the last step share one walk of the prefix.
+    // Their matches lie strictly below separate containers, which the rules therefore cannot
+    // add, remove or replace for each other.
+    private static List<Op> fuseByPrefix(List<Single> rules) {
+        List<Op> ops = new ArrayList<>();
+        int i = 0;
+        while (i < rules.size()) {
+            Single first = rules.get(i);
+            int n = first.path().length();
+            int j = i + 1;
+            if (n >= 2 && !first.path().scans(0, n - 1)) {
+                CompiledPath prefix = first.path().slice(0, n - 1);
+                while (j < rules.size()
+                        && rules.get(j).path().length() == n
+                        && rules.get(j).path().slice(0, n - 1).sameSteps(prefix)) {
+                    j++;
+                }
+                if (j - i > 1) {
+                    List<MigrationEngine.Rule> fused = new ArrayList<>();
+                    List<CompiledPath> suffixes = new ArrayList<>();
+                    for (Single s : rules.subList(i, j)) {
+                        fused.add(s.rule());
+                        suffixes.add(s.path().slice(n - 1, n));
+                    }
+                    ops.add(new Fused(prefix, List.copyOf(fused), List.copyOf(suffixes)));
+                    i = j;
+                    continue;
+                }
+            }
+            ops.add(first);
+            i = j;
+        }
+        return List.copyOf(ops);
+    }
+}
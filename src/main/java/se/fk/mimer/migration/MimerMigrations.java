@@ -5,6 +5,7 @@ import tools.jackson.databind.node.ObjectNode;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static se.fk.mimer.migration.MigrationEngine.*;
 
@@ -12,6 +13,12 @@ public final class MimerMigrations {
 
     public static final int CURRENT = 2;
 
+    // Built once; rules are stateless and may be shared between documents
+    private static final List<Migration> MIGRATIONS = List.copyOf(all());
+
+    // Plans from each historic version (0 .. CURRENT-1) up to CURRENT, compiled on first use
+    private static final AtomicReferenceArray<MigrationPlan> PLANS = new AtomicReferenceArray<>(CURRENT);
+
     /**
      * Notera att de migreringar som finns här är fejkade och inte
      * relevanta på riktigt i det skick de har här.
@@ -67,4 +74,24 @@ public final class MimerMigrations {
 
         return migrations;
     }
+
+    /**
+     * Plan som tar ett dokument från {@code fromVersion} till {@link #CURRENT}.
+     * Planer för historiska versioner tas fram en gång och återanvänds.
+     * @param fromVersion dokumentets schemaversion
+     * @return
+     */
+    public static MigrationPlan planFrom(int fromVersion) {
+        if (fromVersion < 0 || fromVersion >= CURRENT) {
+            // Nothing to cache: either already current, or no path to compile
+            return MigrationPlan.compile(MIGRATIONS, fromVersion, CURRENT);
+        }
+        MigrationPlan plan = PLANS.get(fromVersion);
+        if (plan == null) {
+            // Compiling twice under contention is harmless; the first plan wins
+            PLANS.compareAndSet(fromVersion, null, MigrationPlan.compile(MIGRATIONS, fromVersion, CURRENT));
+            plan = PLANS.get(fromVersion);
+        }
+        return plan;
+    }
 }
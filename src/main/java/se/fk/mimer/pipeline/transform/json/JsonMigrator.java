@@ -25,11 +25,7 @@ public final class JsonMigrator {
         }
 
         MigrationEngine engine = new MigrationEngine();
-        MigrationEngine.Result migrated = engine.applyUpToCurrent(
-                root,
-                MimerMigrations.all(),
-                MimerMigrations.CURRENT
-        );
+        MigrationEngine.Result migrated = engine.apply(root, MimerMigrations.planFrom(before));
 
         Files.createDirectories(outDir);
         Path out = outDir.resolve("migrated.json");
@@ -0,0 +1,63 @@
+package se.fk.data.modell.json;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.exc.StreamReadException;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DigestUtilsTest {
+    private static final Logger log = LoggerFactory.getLogger(DigestUtilsTest.class);
+    private static final ObjectMapper JSON = JsonMapper.builder().build();
+
+    @Test
+    void computeJcsDigestFromJsonBytes_digestsCanonicalForm() throws Exception {
+        log.info("*** Testcase *** Digest raw JSON differing only in formatting and key order, and a bean with the same content");
+        byte[] expected = MessageDigest.getInstance("SHA-256")
+                .digest("{\"a\":1,\"b\":[true,null]}".getBytes(StandardCharsets.UTF_8));
+
+        assertArrayEquals(expected, DigestUtils.computeJcsDigestFromJsonBytes(bytes("{\"b\":[true,null],\"a\":1}")));
+        assertArrayEquals(expected, DigestUtils.computeJcsDigestFromJsonBytes(bytes(" {\n  \"a\": 1.0, \"b\": [ true, null ]\n}\n")));
+        assertArrayEquals(expected, DigestUtils.computeDigest(Map.of("a", 1, "b", Arrays.asList(true, null)), JSON));
+    }
+
+    @Test
+    void computeJcsDigestFromJsonBytes_rejectsTrailingContent() {
+        log.info("*** Testcase *** Digest raw JSON followed by more input, which must be rejected");
+        String[] trailing = {
+                "{\"a\":1}garbage",
+                "{\"a\":1}{\"b\":2}",
+                "{\"a\":1} 42",
+                "[1]]",
+        };
+        for (String json : trailing) {
+            for (SignatureUtils.DigestAlgorithm algorithm : SignatureUtils.DigestAlgorithm.values()) {
+                try {
+                    DigestUtils.computeJcsDigestFromJsonBytes(bytes(json), algorithm);
+                    fail("Expected trailing content to be rejected: " + json);
+                } catch (StreamReadException expected) {
+                    // expected
+                }
+            }
+            try (JsonParser parser = JSON.createParser(json)) {
+                JcsCanonicalizer.digest(parser, ChangeHash.MURMUR3_128.newDigest());
+                fail("Expected trailing content to be rejected: " + json);
+            } catch (StreamReadException expected) {
+                // expected
+            }
+        }
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,254 @@
+package se.fk.data.modell.json;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.exc.StreamReadException;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JcsCanonicalizerTest {
+    private static final Logger log = LoggerFactory.getLogger(JcsCanonicalizerTest.class);
+    private static final ObjectMapper JSON = JsonMapper.builder().build();
+
+    @Test
+    void canonicalize_matchesRfc8785Example() {
+        log.info("*** Testcase *** Canonicalize the example of RFC 8785 section 3.2.2");
+        String input = """
+                {
+                  "numbers": [333333333.33333329, 1E30, 4.50, 2e-3, 0.000000000000000000000000001],
+                  "string": "\\u20ac$\\u000F\\u000aA'\\u0042\\u0022\\u005c\\\\\\"\\/",
+                  "literals": [null, true, false]
+                }
+                """;
+        String expected = "{\"literals\":[null,true,false],"
+                + "\"numbers\":[333333333.3333333,1e+30,4.5,0.002,1e-27],"
+                + "\"string\":\"\u20ac$\\u000f\\nA'B\\\"\\\\\\\\\\\"/\"}";
+        assertEquals(expected, canonical(input));
+    }
+
+    @Test
+    void canonicalize_sortsPropertiesByUtf16CodeUnits() {
+        log.info("*** Testcase *** Canonicalize the sorting example of RFC 8785 section 3.2.3, including a non-BMP key");
+        String input = """
+                {
+                  "\\u20ac": "Euro Sign",
+                  "\\r": "Carriage Return",
+                  "\\ufb33": "Hebrew Letter Dalet With Dagesh",
+                  "1": "One",
+                  "\\ud83d\\ude00": "Emoji: Grinning Face",
+                  "\\u0080": "Control",
+                  "\\u00f6": "Latin Small Letter O With Diaeresis"
+                }
+                """;
+        // U+1F600 (surrogates D83D DE00) sorts before U+FB33, unlike in code point order
+        String expected = "{\"\\r\":\"Carriage Return\","
+                + "\"1\":\"One\","
+                + "\"\u0080\":\"Control\","
+                + "\"\u00f6\":\"Latin Small Letter O With Diaeresis\","
+                + "\"\u20ac\":\"Euro Sign\","
+                + "\"\ud83d\ude00\":\"Emoji: Grinning Face\","
+                + "\"\ufb33\":\"Hebrew Letter Dalet With Dagesh\"}";
+        assertEquals(expected, canonical(input));
+    }
+
+    @Test
+    void pushApi_sortsNonBmpKeysByUtf16CodeUnits() {
+        log.info("*** Testcase *** Sort keys given through the push API, with keys outside the BMP");
+        JcsCanonicalizer canonicalizer = new JcsCanonicalizer();
+        canonicalizer.startObject();
+        canonicalizer.name("\uffff");
+        canonicalizer.number(1);
+        canonicalizer.name("\ud800\udc00"); // U+10000
+        canonicalizer.number(2);
+        canonicalizer.name("\ue000");
+        canonicalizer.number(3);
+        canonicalizer.endObject();
+
+        assertEquals("{\"\ud800\udc00\":2,\"\ue000\":3,\"\uffff\":1}",
+                new String(canonicalizer.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void number_followsEcmaScriptSerialization() {
+        log.info("*** Testcase *** Serialize numbers as ECMAScript does, per RFC 8785 appendix B");
+        long[] bits = {
+                0x0000000000000000L, 0x8000000000000000L, 0x0000000000000001L, 0x8000000000000001L,
+                0x7fefffffffffffffL, 0xffefffffffffffffL, 0x4340000000000000L, 0xc340000000000000L,
+                0x4430000000000000L, 0x44b52d02c7e14af5L, 0x44b52d02c7e14af6L, 0x44b52d02c7e14af7L,
+                0x444b1ae4d6e2ef4eL, 0x444b1ae4d6e2ef4fL, 0x444b1ae4d6e2ef50L, 0x3eb0c6f7a0b5ed8cL,
+                0x3eb0c6f7a0b5ed8dL, 0x41b3de4355555553L, 0x41b3de4355555554L, 0x41b3de4355555555L,
+                0x41b3de4355555556L, 0x41b3de4355555557L, 0xbecbf647612f3696L, 0x43143ff3c1cb0959L,
+        };
+        String[] expected = {
+                "0", "0", "5e-324", "-5e-324",
+                "1.7976931348623157e+308", "-1.7976931348623157e+308", "9007199254740992", "-9007199254740992",
+                "295147905179352830000", "9.999999999999997e+22", "1e+23", "1.0000000000000001e+23",
+                "999999999999999700000", "999999999999999900000", "1e+21", "9.999999999999997e-7",
+                "0.000001", "333333333.3333332", "333333333.33333325", "333333333.3333333",
+                "333333333.3333334", "333333333.33333343", "-0.0000033333333333333333", "1424953923781206.2",
+        };
+        for (int i = 0; i < bits.length; i++) {
+            assertEquals(expected[i], number(Double.longBitsToDouble(bits[i])), String.format("0x%016x", bits[i]));
+        }
+
+        // Integers beyond 2^53 are written as the double they become
+        JcsCanonicalizer canonicalizer = new JcsCanonicalizer();
+        canonicalizer.number(9007199254740993L);
+        assertEquals("9007199254740992", new String(canonicalizer.toByteArray(), StandardCharsets.UTF_8));
+
+        // Parsed literals end up the same way
+        assertEquals("[1e+21,5e-324,0,100,0.1]", canonical("[1E21, 4.9e-324, -0.0, 1.0e2, 0.10]"));
+
+        for (double invalid : new double[]{Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}) {
+            try {
+                new JcsCanonicalizer().number(invalid);
+                fail("Expected " + invalid + " to be rejected");
+            } catch (IllegalArgumentException expectedException) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    void string_escapesOnlyWhatJcsRequires() {
+        log.info("*** Testcase *** Escape control characters, quote and backslash, and write everything else as UTF-8");
+        JcsCanonicalizer canonicalizer = new JcsCanonicalizer();
+        canonicalizer.startArray();
+        canonicalizer.string("\u0000\u0001\u001f");
+        canonicalizer.string("\b\f\n\r\t");
+        canonicalizer.string("\"\\/");
+        canonicalizer.string("\u007f\u00e5\u2028\ud83d\ude00");
+        canonicalizer.string("\ud800"); // lone surrogate
+        canonicalizer.endArray();
+
+        String expected = "[\"\\u0000\\u0001\\u001f\","
+                + "\"\\b\\f\\n\\r\\t\","
+                + "\"\\\"\\\\/\","
+                + "\"\u007f\u00e5\u2028\ud83d\ude00\","
+                + "\"?\"]";
+        byte[] bytes = canonicalizer.toByteArray();
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), bytes);
+    }
+
+    @Test
+    void duplicateKeys_lastOneWins() {
+        log.info("*** Testcase *** Keep the last of several duplicate keys, at any depth");
+        assertEquals("{\"a\":3,\"b\":2}", canonical("{\"a\":1,\"b\":2,\"a\":3}"));
+        assertEquals("{\"a\":2}", canonical("{\"a\":1,\"a\":2}"));
+        assertEquals("{\"x\":{\"a\":[2],\"b\":true}}",
+                canonical("{\"x\":{\"b\":true,\"a\":[1],\"a\":[2]}}"));
+        assertEquals("[{\"k\":\"z\"},{\"k\":\"y\"}]",
+                canonical("[{\"k\":\"x\",\"k\":\"z\"},{\"k\":\"y\"}]"));
+    }
+
+    @Test
+    void canonicalize_rejectsTrailingContent() throws Exception {
+        log.info("*** Testcase *** Canonicalize documents followed by more input, which must be rejected");
+        String[] trailing = {
+                "{\"a\":1}garbage",
+                "{\"a\":1}{\"b\":2}",
+                "{\"a\":1} 42",
+                "{\"a\":1}\n{\"a\":1}",
+                "[1]]",
+                "[1],",
+                "\"x\" \"y\"",
+                "1 2",
+        };
+        for (String json : trailing) {
+            try {
+                canonical(json);
+                fail("Expected trailing content to be rejected: " + json);
+            } catch (StreamReadException expected) {
+                // expected
+            }
+            try (JsonParser parser = JSON.createParser(json)) {
+                JcsCanonicalizer.withCanonical(parser, canonical -> canonical);
+                fail("Expected trailing content to be rejected: " + json);
+            } catch (StreamReadException expected) {
+                // expected
+            }
+            try (JsonParser parser = JSON.createParser(json)) {
+                JcsCanonicalizer.canonicalize(parser, new ByteArrayOutputStream());
+                fail("Expected trailing content to be rejected: " + json);
+            } catch (StreamReadException expected) {
+                // expected
+            }
+            try {
+                JcsUtils.canonicalize(json.getBytes(StandardCharsets.UTF_8));
+                fail("Expected trailing content to be rejected: " + json);
+            } catch (IllegalStateException expected) {
+                // expected
+            }
+        }
+
+        // Whitespace is not content
+        assertEquals("{\"a\":1}", canonical(" {\"a\":1} \r\n\t"));
+        assertEquals("{\"a\":1}", new String(
+                JcsUtils.canonicalize("{\"a\":1}\n".getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void withCanonical_rejectsTrailingContentInStreamsAndBuffers() {
+        log.info("*** Testcase *** Canonicalize streams and buffers holding more than one document");
+        byte[] json = "{\"b\":2,\"a\":1}".getBytes(StandardCharsets.UTF_8);
+        byte[] concatenated = "{\"b\":2,\"a\":1}\n{\"b\":3}\n".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals("{\"a\":1,\"b\":2}", JcsUtils.withCanonical(new ByteArrayInputStream(json), JcsCanonicalizerTest::text));
+        assertEquals("{\"a\":1,\"b\":2}", JcsUtils.withCanonical(ByteBuffer.wrap(json), JcsCanonicalizerTest::text));
+        assertEquals("{\"a\":1,\"b\":2}", JcsUtils.withCanonical(direct(json), JcsCanonicalizerTest::text));
+
+        try {
+            JcsUtils.withCanonical(new ByteArrayInputStream(concatenated), JcsCanonicalizerTest::text);
+            fail("Expected a stream with two documents to be rejected");
+        } catch (StreamReadException expected) {
+            // expected
+        }
+        try {
+            JcsUtils.withCanonical(ByteBuffer.wrap(concatenated), JcsCanonicalizerTest::text);
+            fail("Expected a buffer with two documents to be rejected");
+        } catch (StreamReadException expected) {
+            // expected
+        }
+        try {
+            JcsUtils.withCanonical(direct(concatenated), JcsCanonicalizerTest::text);
+            fail("Expected a direct buffer with two documents to be rejected");
+        } catch (StreamReadException expected) {
+            // expected
+        }
+
+        // Only what lies before the limit counts
+        ByteBuffer first = ByteBuffer.wrap(concatenated, 0, json.length);
+        assertEquals("{\"a\":1,\"b\":2}", JcsUtils.withCanonical(first, JcsCanonicalizerTest::text));
+    }
+
+    private static String text(ByteBuffer canonical) {
+        byte[] bytes = new byte[canonical.remaining()];
+        canonical.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer direct(byte[] bytes) {
+        return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    }
+
+    private static String canonical(String json) {
+        try (JsonParser parser = JSON.createParser(json)) {
+            return new String(JcsCanonicalizer.canonicalize(parser), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String number(double value) {
+        JcsCanonicalizer canonicalizer = new JcsCanonicalizer();
+        canonicalizer.number(value);
+        return new String(canonicalizer.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
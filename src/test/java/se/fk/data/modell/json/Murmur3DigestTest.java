@@ -0,0 +1,97 @@
+package se.fk.data.modell.json;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class Murmur3DigestTest {
+    private static final Logger log = LoggerFactory.getLogger(Murmur3DigestTest.class);
+
+    private static final byte[] INPUT = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.US_ASCII);
+
+    // MurmurHash3_x64_128, seed 0, of the first n bytes of INPUT: h1 then h2, little-endian
+    // (as from the SMHasher reference implementation).
+    private static final String[] PREFIX_VECTORS = {
+            "00000000000000000000000000000000", // 0
+            "80a346d5bedec92a095e873ce5e98d3a", // 1
+            "8e70c17faa4e9e64d62a0f23105194e6",
+            "db3b357c0df668ce8af16b93d54c3600",
+            "5482f3e77c75950f4bab126f9e7cc6b4",
+            "c13f7f4959e4040f13d68da22362ccec",
+            "270abe8625a9c08844827237612d0681",
+            "a6f70626b89feb134ef3de2f49efebb4",
+            "4d3587739b033682204996d8879336c3", // 8
+            "ba38e79f51871e4cf197d599f87aa172",
+            "24ebff3eac52963f070b99f27ca12780",
+            "2986d329cdeac34b929cda97e7d9b27c",
+            "a73c9eee8c2b356658fca881b3f0eda9",
+            "1e936542dbf8b25eb70a1de653e81c80",
+            "1af759dd14a0a4073122d24c8537f4aa",
+            "5123bfc0f6d52da6f04c547c0cf5cc4f", // 15
+            "a7d14acf946de04bda08a7635c5bc387", // 16, one full block and no tail
+            "def945aa2d61328eee72c306c2f40008", // 17
+    };
+
+    @Test
+    void digest_matchesReferenceForEmptyInputAndEveryTailLength() {
+        log.info("*** Testcase *** MurmurHash3 x64/128 against reference vectors for lengths 0..17");
+        for (int n = 0; n < PREFIX_VECTORS.length; n++) {
+            MessageDigest md = new Murmur3Digest();
+            md.update(INPUT, 0, n);
+            assertEquals(PREFIX_VECTORS[n], hex(md.digest()), "length " + n);
+        }
+    }
+
+    @Test
+    void digest_matchesPublishedVector() {
+        log.info("*** Testcase *** MurmurHash3 x64/128 of the well-known pangram");
+        MessageDigest md = ChangeHash.MURMUR3_128.newDigest();
+        md.update("The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.US_ASCII));
+        assertEquals("6c1b07bc7bbc4be347939ac4a93c437a", hex(md.digest()));
+    }
+
+    @Test
+    void digest_doesNotDependOnHowInputIsSplit() {
+        log.info("*** Testcase *** Byte-wise, chunked and one-shot updates give the same MurmurHash3");
+        byte[] data = new byte[INPUT.length * 3];
+        for (int i = 0; i < 3; i++) {
+            System.arraycopy(INPUT, 0, data, i * INPUT.length, INPUT.length);
+        }
+
+        MessageDigest oneShot = new Murmur3Digest();
+        oneShot.update(data);
+        byte[] expected = oneShot.digest();
+
+        MessageDigest byteWise = new Murmur3Digest();
+        for (byte b : data) {
+            byteWise.update(b);
+        }
+        assertArrayEquals(expected, byteWise.digest());
+
+        // Chunks that straddle block boundaries, so partial blocks are completed from the next chunk
+        for (int chunk : new int[]{1, 3, 7, 15, 17, 33}) {
+            MessageDigest md = new Murmur3Digest();
+            for (int off = 0; off < data.length; off += chunk) {
+                md.update(data, off, Math.min(chunk, data.length - off));
+            }
+            assertArrayEquals(expected, md.digest(), "chunk " + chunk);
+        }
+
+        // Digest resets, so the instance can be reused
+        MessageDigest reused = new Murmur3Digest();
+        reused.update(INPUT);
+        reused.digest();
+        reused.update(INPUT, 0, 17);
+        assertEquals(PREFIX_VECTORS[17], hex(reused.digest()));
+    }
+
+    private static String hex(byte[] bytes) {
+        return HexFormat.of().formatHex(bytes);
+    }
+}
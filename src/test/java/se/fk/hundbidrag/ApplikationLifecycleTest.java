@@ -1,12 +1,20 @@
 package se.fk.hundbidrag;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import se.fk.data.modell.annotations.ChangeDetection;
+import se.fk.data.modell.json.ChangeHash;
+import se.fk.data.modell.json.ChangeReport;
+import se.fk.data.modell.json.DeserializationSnooper;
+import se.fk.data.modell.json.LifecycleOptions;
+import se.fk.data.modell.json.Modifiers;
 import se.fk.data.modell.v1.Beslut;
 import se.fk.data.modell.v1.Ersattning;
 import se.fk.data.modell.v1.FysiskPerson;
 import se.fk.data.modell.v1.Intyg;
+import se.fk.data.modell.v1.Livscykelhanterad;
 import se.fk.data.modell.v1.Period;
 import se.fk.data.modell.v1.RattenTillPeriod;
 import se.fk.hundbidrag.modell.YrkandeOmHundbidrag;
@@ -14,10 +22,15 @@ import se.fk.mimer.klient.MimerProxy;
 import tools.jackson.databind.ObjectMapper;
 import tools.jackson.databind.json.JsonMapper;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static java.time.temporal.ChronoUnit.DAYS;
 import static org.junit.jupiter.api.Assertions.*;
@@ -110,6 +123,325 @@ public class ApplikationLifecycleTest {
         }
     }
 
+    @Test
+    void merkleDigests_stepVersionOfModifiedChildAndItsParentOnly() {
+        log.info("*** Testcase *** Serialize with Merkle digests, modify a nested bean and verify version propagation");
+        MimerProxy proxy = MimerProxy.withLifecycleOptions(
+                LifecycleOptions.defaults().withDigestMode(LifecycleOptions.DigestMode.MERKLE)
+        );
+        YrkandeOmHundbidrag yrkande = buildDemoYrkande();
+
+        proxy.serializePretty(yrkande);
+        assertEquals(1, yrkande.version);
+
+        String json2 = proxy.serializePretty(yrkande);
+        assertEquals(1, yrkande.version);
+        assertFalse(json2.contains("__attention"));
+
+        yrkande.beslut.datum = Date.from(Instant.now().plus(1, DAYS).truncatedTo(DAYS));
+        String json3 = proxy.serializePretty(yrkande);
+
+        assertEquals(2, yrkande.version);
+        assertEquals(2, yrkande.beslut.version);
+        Map<String, Object> root = readJson(json3);
+        assertEquals(Boolean.TRUE, root.get("__attention"));
+        for (Map<String, Object> result : producedResults(root)) {
+            assertFalse(result.containsKey("__attention"));
+            assertEquals(1, asInt(result.get("version")));
+        }
+    }
+
+    @Test
+    void digestOnRead_keepsVersionOfUnmodifiedBeansAfterRoundTrip() {
+        log.info("*** Testcase *** Serialize, read with digests taken from consumed tokens, re-serialize and verify versions");
+        LifecycleOptions options = LifecycleOptions.defaults().withDigestOnRead(true);
+        ObjectMapper mapper = JsonMapper.builder()
+                .addModules(Modifiers.getModules(options))
+                .addHandler(new DeserializationSnooper())
+                .build();
+        MimerProxy proxy = MimerProxy.withMapper(mapper);
+
+        String json1 = proxy.serializePretty(buildDemoYrkande());
+        YrkandeOmHundbidrag roundTripped = mapper.readValue(json1, YrkandeOmHundbidrag.class);
+        assertNotNull(roundTripped.getDigest());
+        assertNotNull(roundTripped.beslut.getDigest());
+
+        String json2 = proxy.serializePretty(roundTripped);
+        assertEquals(1, roundTripped.version);
+        assertFalse(json2.contains("__attention"));
+
+        roundTripped.beslut.datum = Date.from(Instant.now().plus(1, DAYS).truncatedTo(DAYS));
+        proxy.serializePretty(roundTripped);
+        assertEquals(2, roundTripped.version);
+        assertEquals(2, roundTripped.beslut.version);
+    }
+
+    @Test
+    void lazyDigest_defersDigestUntilSerialized() {
+        log.info("*** Testcase *** Read with lazy digests, re-serialize and verify digests are computed only then");
+        MimerProxy proxy = MimerProxy.withLifecycleOptions(LifecycleOptions.defaults().withLazyDigest(true));
+
+        String json1 = proxy.serializePretty(buildDemoYrkande());
+        YrkandeOmHundbidrag roundTripped = proxy.deserialize(json1, YrkandeOmHundbidrag.class);
+        assertNull(roundTripped.getDigest());
+        assertNull(roundTripped.beslut.getDigest());
+
+        String json2 = proxy.serializePretty(roundTripped);
+        assertEquals(1, roundTripped.version);
+        assertFalse(json2.contains("__attention"));
+        assertNotNull(roundTripped.getDigest());
+
+        roundTripped.beslut.datum = Date.from(Instant.now().plus(1, DAYS).truncatedTo(DAYS));
+        proxy.serializePretty(roundTripped);
+        assertEquals(2, roundTripped.version);
+        assertEquals(2, roundTripped.beslut.version);
+    }
+
+    @Test
+    void murmur3ChangeHash_detectsModifications() {
+        log.info("*** Testcase *** Serialize with non-cryptographic change hash, modify and verify version steps");
+        MimerProxy proxy = MimerProxy.withLifecycleOptions(
+                LifecycleOptions.defaults().withChangeHash(ChangeHash.MURMUR3_128)
+        );
+        YrkandeOmHundbidrag yrkande = buildDemoYrkande();
+
+        proxy.serializePretty(yrkande);
+        assertEquals(16, yrkande.getDigest().length);
+
+        String unchanged = proxy.serializePretty(yrkande);
+        assertEquals(1, yrkande.version);
+        assertFalse(unchanged.contains("__attention"));
+
+        yrkande.beslut.datum = Date.from(Instant.now().plus(1, DAYS).truncatedTo(DAYS));
+        proxy.serializePretty(yrkande);
+        assertEquals(2, yrkande.version);
+        assertEquals(2, yrkande.beslut.version);
+    }
+
+    @Test
+    void serializeAll_keepsOrderAndLifecycleStatePerBean() {
+        log.info("*** Testcase *** Serialize a batch in parallel and verify order and per-bean version/attention");
+        MimerProxy proxy = MimerProxy.defaultInstance();
+        List<YrkandeOmHundbidrag> batch = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            YrkandeOmHundbidrag yrkande = buildDemoYrkande();
+            yrkande.beskrivning = "Yrkande " + i;
+            batch.add(yrkande);
+        }
+
+        List<byte[]> first = proxy.serializeAll(batch, MimerProxy.BatchOptions.defaults().withParallelism(4));
+        assertEquals(batch.size(), first.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Map<String, Object> root = readJson(new String(first.get(i), StandardCharsets.UTF_8));
+            assertEquals("Yrkande " + i, root.get("beskrivning"));
+            assertEquals(Boolean.TRUE, root.get("__attention"));
+            assertEquals(1, batch.get(i).version);
+        }
+
+        List<byte[]> second = proxy.serializeAll(batch, MimerProxy.BatchOptions.defaults().withVirtualThreads(true));
+        for (int i = 0; i < batch.size(); i++) {
+            assertFalse(new String(second.get(i), StandardCharsets.UTF_8).contains("__attention"));
+            assertEquals(1, batch.get(i).version);
+        }
+    }
+
+    @Test
+    void serializeAll_closesStreamOfBeans() {
+        log.info("*** Testcase *** Serialize a stream of beans and verify that the stream is closed");
+        MimerProxy proxy = MimerProxy.defaultInstance();
+        AtomicBoolean closed = new AtomicBoolean();
+        AtomicInteger completed = new AtomicInteger();
+
+        proxy.serializeAll(
+                Stream.of(buildDemoYrkande(), buildDemoYrkande()).onClose(() -> closed.set(true)),
+                MimerProxy.BatchOptions.defaults(),
+                (bean, json) -> completed.incrementAndGet()
+        );
+        assertEquals(2, completed.get());
+        assertTrue(closed.get());
+    }
+
+    @Test
+    void serializeAll_stepsVersionOfSharedBeanOnce() {
+        log.info("*** Testcase *** Serialize a batch sharing a bean in parallel and verify its version is stepped once");
+        MimerProxy proxy = MimerProxy.defaultInstance();
+        Beslut shared = new Beslut();
+        shared.datum = Date.from(Instant.now().truncatedTo(DAYS));
+        List<YrkandeOmHundbidrag> batch = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            YrkandeOmHundbidrag yrkande = new YrkandeOmHundbidrag("Yrkande " + i, "Collie");
+            yrkande.setBeslut(shared);
+            batch.add(yrkande);
+        }
+        MimerProxy.BatchOptions options = MimerProxy.BatchOptions.defaults().withParallelism(8);
+
+        proxy.serializeAll(batch, options);
+        assertEquals(1, shared.version);
+
+        shared.datum = Date.from(Instant.now().plus(1, DAYS).truncatedTo(DAYS));
+        proxy.serializeAll(batch, options);
+        assertEquals(2, shared.version);
+        assertFalse(shared.getState().stepping());
+        for (YrkandeOmHundbidrag yrkande : batch) {
+            assertEquals(2, yrkande.version);
+        }
+    }
+
+    @Test
+    void serializeAll_flagsAttentionOfSharedBeanOnce() {
+        log.info("*** Testcase *** Serialize a batch sharing a modified bean in parallel and verify one document flags it");
+        MimerProxy proxy = MimerProxy.defaultInstance();
+        Beslut shared = new Beslut();
+        shared.datum = Date.from(Instant.now().truncatedTo(DAYS));
+        List<YrkandeOmHundbidrag> batch = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            YrkandeOmHundbidrag yrkande = new YrkandeOmHundbidrag("Yrkande " + i, "Collie");
+            yrkande.setBeslut(shared);
+            batch.add(yrkande);
+        }
+        MimerProxy.BatchOptions options = MimerProxy.BatchOptions.defaults().withParallelism(8);
+        proxy.serializeAll(batch, options);
+
+        shared.datum = Date.from(Instant.now().plus(1, DAYS).truncatedTo(DAYS));
+        int flagged = 0;
+        for (byte[] document : proxy.serializeAll(batch, options)) {
+            Map<String, Object> beslut = asMap(readJson(new String(document, StandardCharsets.UTF_8)).get("beslut"));
+            if (Boolean.TRUE.equals(beslut.get("__attention"))) {
+                assertEquals(2, asInt(beslut.get("version")));
+                flagged++;
+            }
+        }
+        assertEquals(1, flagged);
+        assertNull(shared.__attention);
+    }
+
+    @Test
+    void serialize_stepsVersionBackWhenWriteFails() {
+        log.info("*** Testcase *** Fail serializing a new bean and verify its version and state are rolled back");
+        MimerProxy proxy = MimerProxy.defaultInstance();
+        Fallerande bean = new Fallerande();
+
+        bean.fail = true;
+        try {
+            proxy.serialize(bean);
+            fail("Expected serialization to fail");
+        } catch (RuntimeException expected) {
+            // expected
+        }
+        assertEquals(0, bean.version);
+        assertFalse(bean.getState().stepping());
+        assertNull(bean.__attention);
+
+        bean.fail = false;
+        Map<String, Object> root = readJson(new String(proxy.serialize(bean), StandardCharsets.UTF_8));
+        assertEquals(1, bean.version);
+        assertEquals(1, asInt(root.get("version")));
+        assertEquals(Boolean.TRUE, root.get("__attention"));
+    }
+
+    public static class Fallerande extends Livscykelhanterad {
+        @JsonIgnore
+        public boolean fail;
+
+        public String getText() {
+            if (fail) {
+                throw new IllegalStateException("Cannot write text");
+            }
+            return "text";
+        }
+    }
+
+    @Test
+    void detectChanges_reportsWithoutSteppingVersions() {
+        log.info("*** Testcase *** Detect changes before and after serialization and verify nothing is mutated");
+        MimerProxy proxy = MimerProxy.defaultInstance();
+        YrkandeOmHundbidrag yrkande = buildDemoYrkande();
+
+        ChangeReport report = proxy.detectChanges(yrkande);
+        assertEquals(6, report.changes().size());
+        assertEquals(ChangeReport.Status.NEW, report.entryFor(yrkande).status());
+        assertEquals(0, yrkande.version);
+        assertNull(yrkande.getDigest());
+
+        proxy.serializePretty(yrkande);
+        assertFalse(proxy.detectChanges(yrkande).hasChanges());
+
+        yrkande.beslut.datum = Date.from(Instant.now().plus(1, DAYS).truncatedTo(DAYS));
+        report = proxy.detectChanges(yrkande);
+        assertEquals(2, report.changes().size());
+        ChangeReport.Entry beslut = report.entryFor(yrkande.beslut);
+        assertEquals(ChangeReport.Status.MODIFIED, beslut.status());
+        assertEquals(1, beslut.oldVersion());
+        assertEquals(2, beslut.newVersion());
+        assertEquals(1, yrkande.beslut.version);
+
+        proxy.serializePretty(yrkande);
+        assertEquals(2, yrkande.beslut.version);
+    }
+
+    @Test
+    void serializeChanges_writesOnlyChangedObjectsKeyedById() {
+        log.info("*** Testcase *** Serialize changes only and verify the document holds the changed objects by id");
+        MimerProxy proxy = MimerProxy.defaultInstance();
+        YrkandeOmHundbidrag yrkande = buildDemoYrkande();
+        proxy.serializePretty(yrkande);
+
+        assertTrue(readJson(proxy.serializeChangesPretty(yrkande)).isEmpty());
+
+        yrkande.beslut.datum = Date.from(Instant.now().plus(1, DAYS).truncatedTo(DAYS));
+        Map<String, Object> delta = readJson(proxy.serializeChangesPretty(yrkande));
+
+        assertEquals(2, delta.size());
+        assertEquals(2, yrkande.version);
+        assertEquals(2, yrkande.beslut.version);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> beslut = (Map<String, Object>) delta.get(yrkande.beslut.id);
+        assertEquals(Boolean.TRUE, beslut.get("__attention"));
+        assertEquals(2, asInt(beslut.get("version")));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> root = (Map<String, Object>) delta.get(yrkande.id);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> reference = (Map<String, Object>) root.get("beslut");
+        assertEquals(Map.of("id", yrkande.beslut.id, "version", 2), reference);
+    }
+
+    @ChangeDetection(ChangeDetection.Strategy.FIELD_SNAPSHOT)
+    public static class SnapshotYrkande extends YrkandeOmHundbidrag {
+        public SnapshotYrkande() {
+            super("Hundutställning (inkl. bad)", "Collie");
+        }
+    }
+
+    @Test
+    void fieldSnapshots_detectOwnAndNestedModifications() {
+        log.info("*** Testcase *** Serialize with field snapshots, modify own and nested fields and verify version steps");
+        MimerProxy proxy = MimerProxy.defaultInstance();
+        SnapshotYrkande yrkande = new SnapshotYrkande();
+        Beslut beslut = new Beslut();
+        beslut.datum = Date.from(Instant.now().truncatedTo(DAYS));
+        yrkande.setBeslut(beslut);
+
+        proxy.serializePretty(yrkande);
+        assertEquals(1, yrkande.version);
+        assertNotNull(yrkande.getSnapshot());
+
+        String unchanged = proxy.serializePretty(yrkande);
+        assertEquals(1, yrkande.version);
+        assertFalse(unchanged.contains("__attention"));
+
+        yrkande.beskrivning = "Hundutställning (inkl. bad och tork)";
+        proxy.serializePretty(yrkande);
+        assertEquals(2, yrkande.version);
+        assertEquals(1, beslut.version);
+
+        beslut.datum.setTime(beslut.datum.getTime() + DAYS.getDuration().toMillis());
+        proxy.serializePretty(yrkande);
+        assertEquals(3, yrkande.version);
+        assertEquals(2, beslut.version);
+    }
+
     private static YrkandeOmHundbidrag buildDemoYrkande() {
         YrkandeOmHundbidrag yrkande = new YrkandeOmHundbidrag("Hundutställning (inkl. bad)", "Collie");
         yrkande.setPerson(new FysiskPerson("19121212-1212"));
@@ -149,6 +481,12 @@ public class ApplikationLifecycleTest {
         return root;
     }
 
+    private static Map<String, Object> asMap(Object value) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map = (Map<String, Object>) value;
+        return map;
+    }
+
     private static Map<String, Object> findProduceratResultatByBelopp(
             Map<String, Object> root,
             double belopp
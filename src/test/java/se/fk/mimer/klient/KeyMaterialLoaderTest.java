@@ -51,6 +51,26 @@ public class KeyMaterialLoaderTest {
         assertEquals(cert.getPublicKey(), material.signerCertificate().getPublicKey());
     }
 
+    @Test
+    public void loadFromPemStrings_parsesEcAndEd25519Keys() throws Exception {
+        log.info("*** Testcase *** Parse PKCS#8 EC and Ed25519 private keys from strings");
+        KeyPairGenerator ecGen = KeyPairGenerator.getInstance("EC");
+        ecGen.initialize(new java.security.spec.ECGenParameterSpec("secp384r1"));
+        KeyPair ecKeyPair = ecGen.generateKeyPair();
+        KeyPair edKeyPair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+
+        KeyMaterialLoader.KeyMaterial ec = KeyMaterialLoader.loadFromPemStrings(
+                pem("PRIVATE KEY", ecKeyPair.getPrivate().getEncoded()), null, null, null
+        );
+        KeyMaterialLoader.KeyMaterial ed = KeyMaterialLoader.loadFromPemStrings(
+                pem("PRIVATE KEY", edKeyPair.getPrivate().getEncoded()), null, null, null
+        );
+
+        assertEquals("EC", ec.privateKey().getAlgorithm());
+        assertEquals(ecKeyPair.getPrivate(), ec.privateKey());
+        assertEquals(edKeyPair.getPrivate(), ed.privateKey());
+    }
+
     @Test
     public void loadFromFiles_parsesChainAndTrustAnchors() throws Exception {
         log.info("*** Testcase *** Parse key, certificate chain, and trust anchors from PEM files");
@@ -10,6 +10,7 @@ import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import se.fk.data.modell.json.JcsUtils;
 import se.fk.data.modell.json.SignatureUtils;
 import tools.jackson.databind.ObjectMapper;
 import tools.jackson.databind.json.JsonMapper;
@@ -18,6 +19,7 @@ import java.math.BigInteger;
 import java.security.*;
 import java.security.cert.X509Certificate;
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -225,6 +227,40 @@ public class MimerProxySignTest {
         assertFalse(result.signatureValid());
     }
 
+    @Test
+    public void verifySignature_rejectsTrailingContent() throws Exception {
+        log.info("*** Testcase *** Reject signature when anything follows the signed JSON");
+        ensureBcProvider();
+        KeyPair keyPair = rsaKeyPair();
+        X509Certificate cert = selfSigned(keyPair, "CN=Mimer-Test");
+
+        ObjectMapper mapper = JsonMapper.builder().build();
+        Map<String, Object> payload = Map.of(
+                "id", "abc-123",
+                "amount", 2500,
+                "currency", "SEK"
+        );
+
+        MimerProxy.SignedJson signed = MimerProxy.serializeAndSign(
+                payload,
+                mapper,
+                keyPair.getPrivate(),
+                "test-key",
+                cert,
+                null
+        );
+        String json = new String(signed.jsonBytes(), java.nio.charset.StandardCharsets.UTF_8);
+        assertTrue(MimerProxy.verifySignature(signed.jsonBytes(), signed.signatureBytes(), cert).signatureValid());
+        assertTrue(MimerProxy.verifySignature(
+                (json + "\n").getBytes(java.nio.charset.StandardCharsets.UTF_8), signed.signatureBytes(), cert
+        ).signatureValid());
+
+        for (String trailing : List.of("garbage", "{\"amount\":1}", " 42", json)) {
+            byte[] appended = (json + trailing).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            assertFalse(trailing, MimerProxy.verifySignature(appended, signed.signatureBytes(), cert).signatureValid());
+        }
+    }
+
     @Test
     public void verifySignature_acceptsKeyOrderingDifferences() throws Exception {
         log.info("*** Testcase *** Accept signature when JSON key order is different but semantics match");
@@ -501,6 +537,544 @@ public class MimerProxySignTest {
         assertTrue(result.signatureValid());
     }
 
+    @Test
+    public void serializeAndSign_writesCanonicalJson() throws Exception {
+        log.info("*** Testcase *** Serialize and sign, then verify that the written JSON is already canonical");
+        ensureBcProvider();
+        KeyPair keyPair = rsaKeyPair();
+        X509Certificate cert = selfSigned(keyPair, "CN=Mimer-Test");
+
+        ObjectMapper mapper = JsonMapper.builder().build();
+        Map<String, Object> payload = Map.of(
+                "id", "abc-123",
+                "amount", 2500.0,
+                "currency", "SEK"
+        );
+
+        MimerProxy.SignedJson signed = MimerProxy.serializeAndSign(payload, mapper, keyPair.getPrivate(), "test-key");
+
+        assertEquals(
+                "{\"amount\":2500,\"currency\":\"SEK\",\"id\":\"abc-123\"}",
+                new String(signed.jsonBytes(), java.nio.charset.StandardCharsets.UTF_8)
+        );
+        assertArrayEquals(JcsUtils.canonicalize(signed.jsonBytes()), signed.jsonBytes());
+        assertTrue(MimerProxy.verifySignature(signed.jsonBytes(), signed.signatureBytes(), cert).signatureValid());
+    }
+
+    @Test
+    public void preparedSigner_signsLikeUnpreparedCalls() throws Exception {
+        log.info("*** Testcase *** Sign with a prepared signer, then compare with signing from key material directly");
+        ensureBcProvider();
+        KeyPair keyPair = rsaKeyPair();
+        X509Certificate cert = selfSigned(keyPair, "CN=Mimer-Test");
+        KeyMaterialLoader.KeyMaterial keyMaterial = new KeyMaterialLoader.KeyMaterial(
+                keyPair.getPrivate(), cert, null, null
+        );
+        MimerProxy.SignOptions options = MimerProxy.SignOptions.defaults()
+                .withKeyId("test-key")
+                .withSignatureScheme(SignatureUtils.SignatureScheme.RSASSA_PKCS1_V1_5);
+
+        ObjectMapper mapper = JsonMapper.builder().build();
+        Map<String, Object> payload = Map.of(
+                "id", "abc-123",
+                "amount", 2500,
+                "currency", "SEK"
+        );
+
+        PreparedSigner signer = PreparedSigner.prepare(keyMaterial, options);
+        MimerProxy.SignedJson prepared = MimerProxy.serializeAndSign(payload, mapper, signer);
+        MimerProxy.SignedJson again = MimerProxy.serializeAndSign(payload, mapper, signer);
+        MimerProxy.SignedJson direct = MimerProxy.serializeAndSign(payload, mapper, keyMaterial, options);
+
+        // PKCS#1 v1.5 signatures are deterministic, so a reused Signature must give the same bytes
+        assertArrayEquals(direct.signatureBytes(), prepared.signatureBytes());
+        assertArrayEquals(direct.signatureBytes(), again.signatureBytes());
+        assertEquals(direct.signatureAlgorithm(), prepared.signatureAlgorithm());
+        assertEquals("test-key", prepared.keyId());
+        assertArrayEquals(cert.getEncoded(), prepared.signerCertificateDer());
+        assertEquals(1, prepared.certificateChainDer().length);
+        assertTrue(MimerProxy.verifySignature(prepared.jsonBytes(), prepared.signatureBytes(), cert).signatureValid());
+
+        // Results do not share the encoded certificates, so modifying one leaves the others intact
+        prepared.signerCertificateDer()[0] ^= 1;
+        prepared.certificateChainDer()[0][0] ^= 1;
+        assertArrayEquals(cert.getEncoded(), again.signerCertificateDer());
+        assertArrayEquals(cert.getEncoded(), again.certificateChainDer()[0]);
+        assertArrayEquals(cert.getEncoded(), MimerProxy.serializeAndSign(payload, mapper, signer).certificateChainDer()[0]);
+    }
+
+    @Test
+    public void verifySignature_usesSignatureHeader() throws Exception {
+        log.info("*** Testcase *** Verify using the detached signature header, then with a mismatching label");
+        ensureBcProvider();
+        KeyPair keyPair = rsaKeyPair();
+        X509Certificate cert = selfSigned(keyPair, "CN=Mimer-Test");
+
+        ObjectMapper mapper = JsonMapper.builder().build();
+        Map<String, Object> payload = Map.of(
+                "id", "abc-123",
+                "amount", 2500,
+                "currency", "SEK"
+        );
+
+        MimerProxy.SignedJson signed = MimerProxy.serializeAndSign(
+                payload,
+                mapper,
+                keyPair.getPrivate(),
+                "test-key",
+                null,
+                null,
+                SignatureUtils.DigestAlgorithm.SHA_256,
+                SignatureUtils.SignatureScheme.RSASSA_PKCS1_V1_5
+        );
+        assertEquals("RSASSA-PKCS1-v1_5; SHA-256; JCS", signed.signatureHeader());
+
+        MimerProxy.VerifyOptions labeled = MimerProxy.VerifyOptions.defaults()
+                .withSignatureHeader(signed.signatureHeader());
+        assertTrue(MimerProxy.verifySignature(signed.jsonBytes(), signed.signatureBytes(), cert, labeled).signatureValid());
+        assertTrue(MimerProxy.verifySignature(signed, cert, null).signatureValid());
+
+        // Unlabeled signatures are still accepted
+        assertTrue(MimerProxy.verifySignature(signed.jsonBytes(), signed.signatureBytes(), cert).signatureValid());
+
+        // ...but a label is not second-guessed
+        MimerProxy.VerifyOptions mislabeled = MimerProxy.VerifyOptions.defaults()
+                .withSignatureScheme(SignatureUtils.SignatureScheme.RSASSA_PKCS1_V1_5)
+                .withDigestAlgorithm(SignatureUtils.DigestAlgorithm.SHA_512);
+        assertFalse(MimerProxy.verifySignature(signed.jsonBytes(), signed.signatureBytes(), cert, mislabeled).signatureValid());
+    }
+
+    @Test
+    public void serializeAndSignBatch_signsMerkleRootOnce() throws Exception {
+        log.info("*** Testcase *** Sign a batch with a single signature, then verify each document by inclusion proof");
+        ensureBcProvider();
+        KeyPair keyPair = rsaKeyPair();
+        X509Certificate cert = selfSigned(keyPair, "CN=Mimer-Test");
+        KeyMaterialLoader.KeyMaterial keyMaterial = new KeyMaterialLoader.KeyMaterial(
+                keyPair.getPrivate(), cert, null, null
+        );
+
+        ObjectMapper mapper = JsonMapper.builder().build();
+        List<Map<String, Object>> payloads = new java.util.ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            payloads.add(Map.of("id", "abc-" + i, "amount", 100 * i));
+        }
+
+        MimerProxy.SignedBatch batch = MimerProxy.serializeAndSignBatch(
+                payloads,
+                mapper,
+                keyMaterial,
+                MimerProxy.SignOptions.defaults().withKeyId("test-key")
+        );
+        assertEquals(5, batch.size());
+        assertTrue(MimerProxy.verifySignature(batch, cert, null).signatureValid());
+
+        for (int i = 0; i < batch.size(); i++) {
+            assertTrue(MimerProxy.verifySignature(
+                    batch.documents().get(i),
+                    batch.proofs().get(i),
+                    batch.root(),
+                    cert,
+                    null
+            ).signatureValid());
+        }
+
+        // A document does not verify with another document's proof...
+        assertFalse(MimerProxy.verifySignature(
+                batch.documents().get(0),
+                batch.proofs().get(1),
+                batch.root(),
+                cert,
+                null
+        ).signatureValid());
+
+        // ...and a modified document does not verify at all
+        byte[] modified = new String(batch.documents().get(2), java.nio.charset.StandardCharsets.UTF_8)
+                .replace("abc-2", "abc-X")
+                .getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        assertFalse(MimerProxy.verifySignature(
+                modified,
+                batch.proofs().get(2),
+                batch.root(),
+                cert,
+                null
+        ).signatureValid());
+
+        // Nor does a document with anything appended, alone or as part of the batch
+        byte[] appended = new String(batch.documents().get(2), java.nio.charset.StandardCharsets.UTF_8)
+                .concat("{\"id\":\"abc-X\"}")
+                .getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        assertFalse(MimerProxy.verifySignature(
+                appended,
+                batch.proofs().get(2),
+                batch.root(),
+                cert,
+                null
+        ).signatureValid());
+
+        List<byte[]> documents = new java.util.ArrayList<>(batch.documents());
+        documents.set(2, appended);
+        assertFalse(MimerProxy.verifySignature(
+                new MimerProxy.SignedBatch(documents, batch.proofs(), batch.root()),
+                cert,
+                null
+        ).signatureValid());
+
+        // ...and the same goes for the signed root statement
+        MimerProxy.SignedJson root = batch.root();
+        MimerProxy.SignedJson appendedRoot = new MimerProxy.SignedJson(
+                new String(root.jsonBytes(), java.nio.charset.StandardCharsets.UTF_8)
+                        .concat(" 1")
+                        .getBytes(java.nio.charset.StandardCharsets.UTF_8),
+                root.signatureBytes(),
+                root.signatureAlgorithm(),
+                root.digestAlgorithm(),
+                root.canonicalization(),
+                root.signingTime(),
+                root.keyId(),
+                root.signerCertificateDer(),
+                root.certificateChainDer()
+        );
+        assertFalse(MimerProxy.verifySignature(
+                batch.documents().get(0),
+                batch.proofs().get(0),
+                appendedRoot,
+                cert,
+                null
+        ).signatureValid());
+        assertFalse(MimerProxy.verifySignature(
+                new MimerProxy.SignedBatch(batch.documents(), batch.proofs(), appendedRoot),
+                cert,
+                null
+        ).signatureValid());
+    }
+
+    @Test
+    public void serializeAndSign_supportsEcdsaAndEd25519() throws Exception {
+        log.info("*** Testcase *** Sign with ECDSA P-256 and Ed25519 keys, then verify with and without labels");
+        ensureBcProvider();
+        KeyPairGenerator ecGen = KeyPairGenerator.getInstance("EC");
+        ecGen.initialize(new java.security.spec.ECGenParameterSpec("secp256r1"));
+        KeyPair ecKeyPair = ecGen.generateKeyPair();
+        KeyPair edKeyPair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+
+        ObjectMapper mapper = JsonMapper.builder().build();
+        Map<String, Object> payload = Map.of(
+                "id", "abc-123",
+                "amount", 2500,
+                "currency", "SEK"
+        );
+
+        for (KeyPair keyPair : List.of(ecKeyPair, edKeyPair)) {
+            X509Certificate cert = selfSigned(keyPair, "CN=Mimer-Test");
+            SignatureUtils.SignatureScheme scheme = keyPair == ecKeyPair
+                    ? SignatureUtils.SignatureScheme.ECDSA
+                    : SignatureUtils.SignatureScheme.ED25519;
+            MimerProxy.SignOptions options = MimerProxy.SignOptions.defaults()
+                    .withSignatureScheme(scheme)
+                    .withDigestAlgorithm(SignatureUtils.DigestAlgorithm.SHA_256);
+
+            MimerProxy.SignedJson signed = MimerProxy.serializeAndSign(payload, mapper, keyPair.getPrivate(), options);
+            assertEquals(scheme.jsonName(), signed.signatureAlgorithm());
+            assertEquals(64, signed.signatureBytes().length);
+            assertTrue(MimerProxy.verifySignature(signed, cert, null).signatureValid());
+            assertTrue(MimerProxy.verifySignature(signed.jsonBytes(), signed.signatureBytes(), cert).signatureValid());
+
+            byte[] modified = new String(signed.jsonBytes(), java.nio.charset.StandardCharsets.UTF_8)
+                    .replace("SEK", "NOK")
+                    .getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            assertFalse(MimerProxy.verifySignature(modified, signed.signatureBytes(), cert).signatureValid());
+        }
+    }
+
+    @Test
+    public void serializeAndSign_derivesEcdsaDigestFromCurve() throws Exception {
+        log.info("*** Testcase *** Sign with ECDSA on P-256 and P-384 without a digest algorithm, then verify unlabeled");
+        ensureBcProvider();
+        ObjectMapper mapper = JsonMapper.builder().build();
+        Map<String, Object> payload = Map.of("id", "abc-123", "amount", 2500);
+
+        String[][] curves = {{"secp256r1", "SHA-256"}, {"secp384r1", "SHA-384"}};
+        for (String[] curve : curves) {
+            KeyPairGenerator ecGen = KeyPairGenerator.getInstance("EC");
+            ecGen.initialize(new java.security.spec.ECGenParameterSpec(curve[0]));
+            KeyPair keyPair = ecGen.generateKeyPair();
+            X509Certificate cert = selfSigned(keyPair, "CN=Mimer-Test");
+            MimerProxy.SignOptions options = MimerProxy.SignOptions.defaults()
+                    .withSignatureScheme(SignatureUtils.SignatureScheme.ECDSA);
+
+            MimerProxy.SignedJson signed = MimerProxy.serializeAndSign(payload, mapper, keyPair.getPrivate(), options);
+            assertEquals(curve[1], signed.digestAlgorithm());
+            assertTrue(MimerProxy.verifySignature(signed.jsonBytes(), signed.signatureBytes(), cert).signatureValid());
+
+            PreparedSigner signer = PreparedSigner.prepare(keyPair.getPrivate(), options);
+            assertEquals(curve[1], signer.digestAlgorithm().jsonName());
+        }
+
+        // RSA keys keep SHA-512
+        KeyPair rsa = rsaKeyPair();
+        MimerProxy.SignedJson signed = MimerProxy.serializeAndSign(payload, mapper, rsa.getPrivate(), MimerProxy.SignOptions.defaults());
+        assertEquals("SHA-512", signed.digestAlgorithm());
+    }
+
+    @Test
+    public void verifySignature_revalidatesChainWhenTrustAnchorsChange() throws Exception {
+        log.info("*** Testcase *** Verify repeatedly against the same trust anchors, then against others");
+        ensureBcProvider();
+        KeyPair caKeyPair = rsaKeyPair();
+        X509Certificate ca = selfSigned(caKeyPair, "CN=Mimer-CA");
+        X509Certificate otherCa = selfSigned(rsaKeyPair(), "CN=Other-CA");
+        KeyPair keyPair = rsaKeyPair();
+        X509Certificate cert = issued(keyPair, "CN=Mimer-Test", caKeyPair, "CN=Mimer-CA");
+
+        ObjectMapper mapper = JsonMapper.builder().build();
+        MimerProxy.SignedJson signed = MimerProxy.serializeAndSign(
+                Map.of("id", "abc-123"), mapper, keyPair.getPrivate(), "test-key"
+        );
+
+        MimerProxy.VerifyOptions trusted = MimerProxy.VerifyOptions.defaults()
+                .withChain(List.of(cert, ca))
+                .withTrustAnchors(List.of(ca));
+        for (int i = 0; i < 3; i++) {
+            MimerProxy.VerificationResult result = MimerProxy.verifySignature(
+                    signed.jsonBytes(), signed.signatureBytes(), cert, trusted
+            );
+            assertTrue(result.signatureValid());
+            assertTrue(result.chainValid());
+        }
+
+        MimerProxy.VerifyOptions untrusted = trusted.withTrustAnchors(List.of(otherCa));
+        MimerProxy.VerificationResult result = MimerProxy.verifySignature(
+                signed.jsonBytes(), signed.signatureBytes(), cert, untrusted
+        );
+        assertTrue(result.signatureValid());
+        assertFalse(result.chainValid());
+    }
+
+    @Test
+    public void verifySignature_checksRevocationAgainstCrlCache() throws Exception {
+        log.info("*** Testcase *** Verify with revocation checked against CRLs loaded from a local directory");
+        ensureBcProvider();
+        KeyPair caKeyPair = rsaKeyPair();
+        X509Certificate ca = selfSigned(caKeyPair, "CN=Mimer-CA");
+        KeyPair keyPair = rsaKeyPair();
+        X509Certificate cert = issued(keyPair, "CN=Mimer-Test", caKeyPair, "CN=Mimer-CA");
+
+        ObjectMapper mapper = JsonMapper.builder().build();
+        MimerProxy.SignedJson signed = MimerProxy.serializeAndSign(
+                Map.of("id", "abc-123"), mapper, keyPair.getPrivate(), "test-key"
+        );
+
+        java.nio.file.Path crlDir = java.nio.file.Files.createTempDirectory("crls");
+        java.nio.file.Files.write(crlDir.resolve("ca.crl"), crl(caKeyPair, "CN=Mimer-CA"));
+
+        try (CrlCache crls = CrlCache.load(crlDir)) {
+            MimerProxy.VerifyOptions options = MimerProxy.VerifyOptions.defaults()
+                    .withChain(List.of(cert, ca))
+                    .withTrustAnchors(List.of(ca))
+                    .withEnableRevocation(true)
+                    .withCrlCache(crls);
+            assertTrue(MimerProxy.verifySignature(signed.jsonBytes(), signed.signatureBytes(), cert, options).chainValid());
+
+            // Revoke the signer certificate and reload
+            java.nio.file.Files.write(
+                    crlDir.resolve("ca.crl"),
+                    crl(caKeyPair, "CN=Mimer-CA", cert.getSerialNumber())
+            );
+            crls.refresh();
+
+            MimerProxy.VerificationResult result = MimerProxy.verifySignature(
+                    signed.jsonBytes(), signed.signatureBytes(), cert, options
+            );
+            assertTrue(result.signatureValid());
+            assertFalse(result.chainValid());
+        } finally {
+            deleteDirectory(crlDir);
+        }
+    }
+
+    @Test
+    public void certificateValidator_revalidatesWhenCrlIsOutOfDate() throws Exception {
+        log.info("*** Testcase *** Validate against a CRL with a near nextUpdate, then again after it has passed");
+        ensureBcProvider();
+        KeyPair caKeyPair = rsaKeyPair();
+        X509Certificate ca = selfSigned(caKeyPair, "CN=Mimer-CA");
+        X509Certificate cert = issued(rsaKeyPair(), "CN=Mimer-Test", caKeyPair, "CN=Mimer-CA");
+        List<X509Certificate> chain = List.of(cert, ca);
+
+        Instant start = Instant.now();
+        java.util.concurrent.atomic.AtomicReference<Instant> now = new java.util.concurrent.atomic.AtomicReference<>(start);
+        java.time.Clock clock = new java.time.Clock() {
+            @Override
+            public java.time.ZoneId getZone() {
+                return java.time.ZoneOffset.UTC;
+            }
+
+            @Override
+            public java.time.Clock withZone(java.time.ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now.get();
+            }
+        };
+        CertificateValidator validator = new CertificateValidator(16, java.time.Duration.ofMinutes(10), clock);
+
+        java.nio.file.Path crlDir = java.nio.file.Files.createTempDirectory("crls");
+        try (CrlCache crls = CrlCache.load(java.nio.file.Files.write(
+                crlDir.resolve("ca.crl"),
+                crl(caKeyPair, "CN=Mimer-CA", start.plusSeconds(60))
+        ))) {
+            assertTrue(validator.validate(cert, chain, List.of(ca), true, crls));
+
+            // Within the ttl, but past nextUpdate, so the cached result must not be used
+            now.set(start.plusSeconds(120));
+            assertFalse(validator.validate(cert, chain, List.of(ca), true, crls));
+        } finally {
+            deleteDirectory(crlDir);
+        }
+    }
+
+    @Test
+    public void certificateValidator_cachesOnlyWhatCannotChangeUnnoticed() throws Exception {
+        log.info("*** Testcase *** Validate chains with and without online revocation checks, then invalidate");
+        ensureBcProvider();
+        KeyPair caKeyPair = rsaKeyPair();
+        X509Certificate ca = selfSigned(caKeyPair, "CN=Mimer-CA");
+        X509Certificate cert = issued(rsaKeyPair(), "CN=Mimer-Test", caKeyPair, "CN=Mimer-CA");
+        List<X509Certificate> chain = List.of(cert, ca);
+
+        CertificateValidator validator = new CertificateValidator(16, java.time.Duration.ofMinutes(10), null);
+        assertTrue(validator.validate(cert, chain, List.of(ca), false, null));
+        assertEquals(1, validator.size());
+
+        // Online revocation checks may have another answer next time, so they are not cached
+        validator.validate(cert, chain, List.of(ca), true, null);
+        assertEquals(1, validator.size());
+
+        validator.invalidate();
+        assertEquals(0, validator.size());
+
+        CertificateValidator uncached = new CertificateValidator(16, java.time.Duration.ZERO, null);
+        assertTrue(uncached.validate(cert, chain, List.of(ca), false, null));
+        assertEquals(0, uncached.size());
+
+        try {
+            MimerProxy.setCertificateValidationCache(0, java.time.Duration.ofMinutes(1));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        MimerProxy.invalidateCertificateValidationCache();
+    }
+
+    @Test
+    public void signAndVerify_streamsFromInputStreamBufferAndFile() throws Exception {
+        log.info("*** Testcase *** Sign to an output stream, then verify from a stream, a direct buffer and a mapped file");
+        ensureBcProvider();
+        KeyPair keyPair = rsaKeyPair();
+        X509Certificate cert = selfSigned(keyPair, "CN=Mimer-Test");
+        PreparedSigner signer = PreparedSigner.prepare(keyPair.getPrivate(), MimerProxy.SignOptions.defaults());
+
+        ObjectMapper mapper = JsonMapper.builder().build();
+        Map<String, Object> payload = Map.of(
+                "id", "abc-123",
+                "amount", 2500,
+                "currency", "SEK"
+        );
+
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        byte[] signature = MimerProxy.serializeAndSign(payload, mapper, signer, out);
+        assertArrayEquals(MimerProxy.serializeAndSign(payload, mapper, signer).jsonBytes(), out.toByteArray());
+
+        // Verification canonicalizes, so whitespace in what is read does not matter
+        byte[] json = "{ \"currency\": \"SEK\", \"id\": \"abc-123\", \"amount\": 2500 }"
+                .getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        MimerProxy.VerifyOptions options = MimerProxy.VerifyOptions.defaults();
+
+        assertTrue(MimerProxy.verifySignature(
+                new java.io.ByteArrayInputStream(json), signature, cert, options
+        ).signatureValid());
+
+        java.nio.ByteBuffer direct = java.nio.ByteBuffer.allocateDirect(json.length).put(json).flip();
+        assertTrue(MimerProxy.verifySignature(direct, signature, cert, options).signatureValid());
+        assertEquals(0, direct.position());
+
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("signed", ".json");
+        java.nio.file.Files.write(file, json);
+        assertTrue(MimerProxy.verifySignature(file, signature, cert, options).signatureValid());
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> decoded = MimerProxy.verifyAndDeserialize(file, signature, cert, options, mapper, Map.class);
+        assertEquals(payload.get("id"), decoded.get("id"));
+
+        byte[] tampered = new String(json, java.nio.charset.StandardCharsets.UTF_8)
+                .replace("2500", "2501")
+                .getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        assertFalse(MimerProxy.verifySignature(
+                new java.io.ByteArrayInputStream(tampered), signature, cert, options
+        ).signatureValid());
+
+        boolean threw = false;
+        try {
+            MimerProxy.verifyAndDeserialize(
+                    new java.io.ByteArrayInputStream(tampered), signature, cert, options, mapper, Map.class
+            );
+        } catch (IllegalStateException e) {
+            threw = true;
+        }
+        assertTrue(threw);
+
+        // The signature covers the whole input, not just its first document
+        byte[] appended = new String(json, java.nio.charset.StandardCharsets.UTF_8)
+                .concat("\n{\"id\":\"other\"}\n")
+                .getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        assertFalse(MimerProxy.verifySignature(
+                new java.io.ByteArrayInputStream(appended), signature, cert, options
+        ).signatureValid());
+        assertFalse(MimerProxy.verifySignature(java.nio.ByteBuffer.wrap(appended), signature, cert, options).signatureValid());
+        java.nio.ByteBuffer appendedDirect = java.nio.ByteBuffer.allocateDirect(appended.length).put(appended).flip();
+        assertFalse(MimerProxy.verifySignature(appendedDirect, signature, cert, options).signatureValid());
+
+        java.nio.file.Files.write(file, appended);
+        assertFalse(MimerProxy.verifySignature(file, signature, cert, options).signatureValid());
+        threw = false;
+        try {
+            MimerProxy.verifyAndDeserialize(file, signature, cert, options, mapper, Map.class);
+        } catch (IllegalStateException | tools.jackson.core.JacksonException e) {
+            // The tree is read before the signature is looked at, and rejects trailing tokens
+            threw = true;
+        }
+        assertTrue(threw);
+        java.nio.file.Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void verifyAndDeserialize_acceptsNonCanonicalInput() throws Exception {
+        log.info("*** Testcase *** Verify and deserialize JSON that differs from what was signed in layout only");
+        ensureBcProvider();
+        KeyPair keyPair = rsaKeyPair();
+        X509Certificate cert = selfSigned(keyPair, "CN=Mimer-Test");
+
+        ObjectMapper mapper = JsonMapper.builder().build();
+        MimerProxy.SignedJson signed = MimerProxy.serializeAndSign(
+                Map.of("id", "abc-123", "amount", 2500.0, "currency", "SEK"), mapper, keyPair.getPrivate(), "test-key"
+        );
+
+        // Canonical bytes are derived from the parsed tree, not from the input as is
+        byte[] json = "{\n  \"currency\" : \"SEK\",\n  \"amount\" : 2.5E3,\n  \"id\" : \"abc-123\"\n}"
+                .getBytes(java.nio.charset.StandardCharsets.UTF_8);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> decoded = MimerProxy.verifyAndDeserialize(
+                json, signed.signatureBytes(), cert, MimerProxy.VerifyOptions.defaults(), mapper, Map.class
+        );
+        assertEquals("abc-123", decoded.get("id"));
+        assertEquals(2500.0, ((Number) decoded.get("amount")).doubleValue(), 0.0);
+    }
+
     private static KeyPair rsaKeyPair() throws Exception {
         KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
         gen.initialize(2048);
@@ -519,13 +1093,64 @@ public class MimerProxySignTest {
                 subject,
                 keyPair.getPublic()
         );
-        ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA")
+        String signatureAlgorithm = switch (keyPair.getPrivate().getAlgorithm()) {
+            case "EC" -> "SHA256withECDSA";
+            case "Ed25519", "EdDSA" -> "Ed25519";
+            default -> "SHA256withRSA";
+        };
+        ContentSigner signer = new JcaContentSignerBuilder(signatureAlgorithm)
                 .build(keyPair.getPrivate());
         return new JcaX509CertificateConverter()
                 .setProvider(BouncyCastleProvider.PROVIDER_NAME)
                 .getCertificate(builder.build(signer));
     }
 
+    private static X509Certificate issued(KeyPair keyPair, String dn, KeyPair issuerKeyPair, String issuerDn) throws Exception {
+        Instant now = Instant.now();
+        BigInteger serial = new BigInteger(64, java.security.SecureRandom.getInstanceStrong());
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+                new X500Name(issuerDn),
+                serial,
+                java.util.Date.from(now.minusSeconds(60)),
+                java.util.Date.from(now.plusSeconds(86400)),
+                new X500Name(dn),
+                keyPair.getPublic()
+        );
+        ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA")
+                .build(issuerKeyPair.getPrivate());
+        return new JcaX509CertificateConverter()
+                .setProvider(BouncyCastleProvider.PROVIDER_NAME)
+                .getCertificate(builder.build(signer));
+    }
+
+    private static byte[] crl(KeyPair issuerKeyPair, String issuerDn, BigInteger... revoked) throws Exception {
+        return crl(issuerKeyPair, issuerDn, Instant.now().plusSeconds(86400), revoked);
+    }
+
+    private static byte[] crl(KeyPair issuerKeyPair, String issuerDn, Instant nextUpdate, BigInteger... revoked) throws Exception {
+        Instant now = Instant.now();
+        org.bouncycastle.cert.X509v2CRLBuilder builder = new org.bouncycastle.cert.X509v2CRLBuilder(
+                new X500Name(issuerDn),
+                java.util.Date.from(now.minusSeconds(60))
+        );
+        builder.setNextUpdate(java.util.Date.from(nextUpdate));
+        for (BigInteger serial : revoked) {
+            builder.addCRLEntry(serial, java.util.Date.from(now.minusSeconds(30)), org.bouncycastle.asn1.x509.CRLReason.keyCompromise);
+        }
+        ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA")
+                .build(issuerKeyPair.getPrivate());
+        return builder.build(signer).getEncoded();
+    }
+
+    private static void deleteDirectory(java.nio.file.Path dir) throws java.io.IOException {
+        try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(dir)) {
+            for (java.nio.file.Path file : files.toList()) {
+                java.nio.file.Files.delete(file);
+            }
+        }
+        java.nio.file.Files.delete(dir);
+    }
+
     private static void ensureBcProvider() {
         if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
             Security.addProvider(new BouncyCastleProvider());
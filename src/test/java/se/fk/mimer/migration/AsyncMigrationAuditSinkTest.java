@@ -0,0 +1,172 @@
+package se.fk.mimer.migration;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncMigrationAuditSinkTest {
+    private static final Logger log = LoggerFactory.getLogger(AsyncMigrationAuditSinkTest.class);
+
+    @Test
+    void record_deliversEntriesOfConcurrentProducersInOrder() throws Exception {
+        log.info("*** Testcase *** Record from several threads and verify every entry is written, in order per producer");
+        Path file = Files.createTempFile("migration-audit", ".log");
+        try {
+            int producers = 8;
+            int documents = 500;
+            int perDocument = 3;
+            AsyncMigrationAuditSink sink = AsyncMigrationAuditSink.toFile(file, 1 << 16, Duration.ofMillis(5));
+
+            List<Thread> threads = new ArrayList<>();
+            CountDownLatch start = new CountDownLatch(1);
+            for (int p = 0; p < producers; p++) {
+                String rule = "p" + p;
+                Thread thread = new Thread(() -> {
+                    awaitQuietly(start);
+                    for (int d = 0; d < documents; d++) {
+                        sink.record(document(rule, d, perDocument));
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            sink.close();
+
+            assertEquals(0, sink.dropped());
+            List<String> lines = Files.readAllLines(file);
+            assertEquals(producers * documents * perDocument, lines.size());
+
+            // Entries of each producer appear in the order recorded, those of a document next to each other
+            Map<String, Integer> next = new HashMap<>();
+            for (int i = 0; i < lines.size(); i += perDocument) {
+                String rule = lines.get(i).substring(0, lines.get(i).indexOf(' '));
+                int d = next.getOrDefault(rule, 0);
+                for (int e = 0; e < perDocument; e++) {
+                    assertEquals(document(rule, d, perDocument).get(e).toString(), lines.get(i + e));
+                }
+                next.put(rule, d + 1);
+            }
+            for (int p = 0; p < producers; p++) {
+                assertEquals(Integer.valueOf(documents), next.get("p" + p));
+            }
+
+            Map<String, Long> counts = sink.counts();
+            for (int p = 0; p < producers; p++) {
+                assertEquals(Long.valueOf((long) documents * perDocument), counts.get("p" + p));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void record_dropsAllEntriesOfDocumentThatDoesNotFit() throws Exception {
+        log.info("*** Testcase *** Record a document larger than the buffer and verify it is dropped as a whole, but counted");
+        Path file = Files.createTempFile("migration-audit", ".log");
+        try {
+            AsyncMigrationAuditSink sink = AsyncMigrationAuditSink.toFile(file, 4, Duration.ofHours(1));
+            sink.record(document("large", 0, 5));
+            sink.record(document("small", 0, 4));
+            sink.record(List.of());
+            sink.close();
+
+            assertEquals(5, sink.dropped());
+            assertEquals(Map.of("large", 5L, "small", 4L), sink.counts());
+            List<String> lines = Files.readAllLines(file);
+            assertEquals(4, lines.size());
+            for (String line : lines) {
+                assertTrue(line.startsWith("small "), line);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void close_flushesPendingEntriesAndDropsLaterOnes() throws Exception {
+        log.info("*** Testcase *** Close before the flush interval has passed and verify pending entries are written");
+        Path file = Files.createTempFile("migration-audit", ".log");
+        try {
+            AsyncMigrationAuditSink sink = AsyncMigrationAuditSink.toFile(file, 64, Duration.ofHours(1));
+            sink.record(document("pending", 0, 3));
+            sink.close();
+            assertEquals(3, Files.readAllLines(file).size());
+
+            sink.record(document("late", 0, 2));
+            sink.close(); // again, harmless
+            assertEquals(2, sink.dropped());
+            assertEquals(3, Files.readAllLines(file).size());
+            assertEquals(Map.of("pending", 3L, "late", 2L), sink.counts());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void close_whileRecordingLosesNoEntryUncounted() throws Exception {
+        log.info("*** Testcase *** Close while producers are recording and verify every entry is written or counted as dropped");
+        for (int round = 0; round < 20; round++) {
+            Path file = Files.createTempFile("migration-audit", ".log");
+            try {
+                AsyncMigrationAuditSink sink = AsyncMigrationAuditSink.toFile(file, 1 << 12, Duration.ofMillis(1));
+                AtomicLong recorded = new AtomicLong();
+                CountDownLatch started = new CountDownLatch(4);
+                List<Thread> threads = new ArrayList<>();
+                for (int p = 0; p < 4; p++) {
+                    String rule = "p" + p;
+                    Thread thread = new Thread(() -> {
+                        started.countDown();
+                        for (int d = 0; d < 2000; d++) {
+                            sink.record(document(rule, d, 2));
+                            recorded.addAndGet(2);
+                        }
+                    });
+                    thread.start();
+                    threads.add(thread);
+                }
+                started.await();
+                sink.close();
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+
+                long written = Files.readAllLines(file).size();
+                assertEquals(recorded.get(), written + sink.dropped(), "round " + round);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static List<MigrationEngine.AuditEntry> document(String rule, int d, int entries) {
+        List<MigrationEngine.AuditEntry> audit = new ArrayList<>();
+        for (int e = 0; e < entries; e++) {
+            audit.add(new MigrationEngine.AuditEntry(rule, "$", "$", "/" + e, "set", "document " + d));
+        }
+        return audit;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package se.fk.mimer.migration;
+
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.Option;
+import com.jayway.jsonpath.spi.json.JacksonJsonNodeJsonProvider;
+import com.jayway.jsonpath.spi.mapper.JacksonMappingProvider;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompiledPathTest {
+    private static final Logger log = LoggerFactory.getLogger(CompiledPathTest.class);
+    private static final ObjectMapper JSON = JsonMapper.builder().build();
+
+    // As the engine configures Jayway
+    private static final Configuration JSONPATH_CONF =
+            Configuration.builder()
+                    .jsonProvider(new JacksonJsonNodeJsonProvider())
+                    .mappingProvider(new JacksonMappingProvider())
+                    .options(Option.AS_PATH_LIST, Option.SUPPRESS_EXCEPTIONS)
+                    .build();
+
+    private static final String[] TREES = {
+            """
+            {
+              "x": 0,
+              "a": {"b": null, "c": 1, "x": {"x": 2}},
+              "arr": [{"x": 3}, [{"x": 4}, {"y": 5}], 6],
+              "k/e~y": {"x": "s"},
+              "e": {},
+              "n": null
+            }
+            """,
+            """
+            {
+              "person": {"typ": "a", "roll": null},
+              "producerade_resultat": [
+                {"id": 1, "period": {"from": "2024-01-01T00:00:00Z", "tom": null}},
+                {"id": 2, "period": {}},
+                {"id": 3}
+              ],
+              "beslut": {"datum": "2024-03-01", "producerade_resultat": [{"period": {"from": "x"}}]}
+            }
+            """,
+            "[{\"x\": 1}, {\"x\": [{\"x\": 2}]}, 3]",
+            "{}",
+    };
+
+    private static final String[] SELECTORS = {
+            "$",
+            "$.a", "$.a.b", "$.a.b.c", "$.a.missing", "$.missing", "$.n", "$.n.x",
+            "$['a']['c']", "$[\"a\"].x", "$['k/e~y'].x",
+            "$.arr[0]", "$.arr[2]", "$.arr[3]", "$.arr[-1]", "$.arr[-3].x", "$.arr[-4]", "$.arr[1][0].x", "$.x[0]",
+            "$[0]", "$[-1].x",
+            "$.*", "$.a.*", "$.e.*", "$.n.*", "$.arr.*", "$.arr[*]", "$.a[*]", "$.*.x", "$[*].x",
+            "$..x", "$..x.x", "$..x[0]", "$.arr..x", "$.a..x", "$..y", "$..missing",
+            "$.person.typ", "$.person.roll", "$.producerade_resultat[*].period.from",
+            "$.producerade_resultat[*].period.tom", "$..period.from", "$..producerade_resultat[*].id",
+    };
+
+    @Test
+    void select_matchesJaywayPathList() {
+        log.info("*** Testcase *** Select with compiled paths and with Jayway (AS_PATH_LIST), and compare the paths");
+        for (String tree : TREES) {
+            for (String selector : SELECTORS) {
+                CompiledPath path = CompiledPath.compile(selector);
+                assertNotNull(path, selector);
+
+                JsonNode root = JSON.readTree(tree);
+                @SuppressWarnings("unchecked")
+                List<String> expected = JsonPath.using(JSONPATH_CONF).parse(root).read(JsonPath.compile(selector), List.class);
+                assertEquals(expected, matchedPaths(path.select(root)), selector + " on " + tree);
+            }
+        }
+    }
+
+    @Test
+    void select_followsJaywayOrderAndMatchRules() {
+        log.info("*** Testcase *** Select with compiled paths and verify matches, order and paths");
+        JsonNode root = JSON.readTree(TREES[0]);
+
+        // Deep scan: a node before its descendants, members and elements in document order
+        assertEquals(List.of(
+                "$['x']", "$['a']['x']", "$['a']['x']['x']",
+                "$['arr'][0]['x']", "$['arr'][1][0]['x']", "$['k/e~y']['x']"
+        ), select("$..x", root));
+        assertEquals(List.of("$['a']['x']['x']"), select("$..x.x", root));
+        assertEquals(List.of("$['arr'][0]['x']", "$['arr'][1][0]['x']"), select("$.arr..x", root));
+
+        // Negative indexes count from the end; out of range gives nothing
+        assertEquals(List.of("$['arr'][2]"), select("$.arr[-1]", root));
+        assertEquals(List.of("$['arr'][0]['x']"), select("$.arr[-3].x", root));
+        assertEquals(List.of(), select("$.arr[-4]", root));
+        assertEquals(List.of(), select("$.arr[3]", root));
+        assertEquals(List.of(), select("$.x[0]", root));
+
+        // Wildcards over object members and array elements alike, nothing for scalars
+        assertEquals(List.of("$['a']['b']", "$['a']['c']", "$['a']['x']"), select("$.a.*", root));
+        assertEquals(List.of("$['a']['b']", "$['a']['c']", "$['a']['x']"), select("$.a[*]", root));
+        assertEquals(List.of("$['arr'][0]", "$['arr'][1]", "$['arr'][2]"), select("$.arr.*", root));
+        assertEquals(select("$.arr.*", root), select("$.arr[*]", root));
+        assertEquals(List.of(), select("$.e.*", root));
+        assertEquals(List.of(), select("$.n.*", root));
+        assertEquals(List.of("$['a']['x']", "$['k/e~y']['x']"), select("$.*.x", root));
+
+        // Null-valued fields match, missing ones do not, and nothing below null does
+        assertEquals(List.of("$['a']['b']"), select("$.a.b", root));
+        assertEquals(List.of("$['n']"), select("$.n", root));
+        assertEquals(List.of(), select("$.a.missing", root));
+        assertEquals(List.of(), select("$.a.b.c", root));
+
+        assertEquals(List.of("$"), select("$", root));
+        assertEquals(List.of("$['a']['c']"), select("$['a']['c']", root));
+        assertEquals(List.of("$['a']['x']"), select("$[\"a\"].x", root));
+    }
+
+    @Test
+    void location_escapesKeysInPointer() {
+        log.info("*** Testcase *** Build matched paths and pointers for keys with '/' and '~'");
+        JsonNode root = JSON.readTree(TREES[0]);
+
+        List<CompiledPath.Location> matches = CompiledPath.compile("$['k/e~y'].x").select(root);
+        assertEquals(1, matches.size());
+        CompiledPath.Location at = matches.get(0);
+        assertEquals("$['k/e~y']['x']", at.matchedPath());
+        assertEquals("/k~1e~0y/x", at.pointer());
+        assertEquals("s", at.value(root).asString());
+        assertEquals(at.pointer(), MigrationEngine.jaywayPathToPointer(at.matchedPath()));
+
+        at = CompiledPath.compile("$.arr[-2][0].x").select(root).get(0);
+        assertEquals("$['arr'][1][0]['x']", at.matchedPath());
+        assertEquals("/arr/1/0/x", at.pointer());
+        assertSame(root.at(at.pointer()), at.value(root));
+
+        at = CompiledPath.compile("$").select(root).get(0);
+        assertEquals("$", at.matchedPath());
+        assertEquals("", at.pointer());
+        assertSame(root, at.value(root));
+    }
+
+    @Test
+    void compile_leavesOtherSelectorsToJayway() {
+        log.info("*** Testcase *** Compile filters, slices, unions and other selectors outside the subset");
+        String[] unsupported = {
+                "$.a[?(@.b == 1)]", "$..a[?(@.b)]",
+                "$.a[0:2]", "$.a[:1]", "$.a[-2:]",
+                "$.a[0,1]", "$['a','b']", "$[\"a\",\"b\"]",
+                "$.a[(@.length-1)]", "$.a.length()",
+                "$..*", "$..['a']", "$..[0]", "$.a..", "$.", "$.a.",
+                "$['it''s']", "$['a\\'b']", "$['a", "$[]", "$[ ]",
+                "a.b", "", "   ", null,
+        };
+        for (String selector : unsupported) {
+            assertNull(CompiledPath.compile(selector), String.valueOf(selector));
+        }
+    }
+
+    private static List<String> select(String selector, JsonNode root) {
+        CompiledPath path = CompiledPath.compile(selector);
+        assertNotNull(path, selector);
+        return matchedPaths(path.select(root));
+    }
+
+    private static List<String> matchedPaths(List<CompiledPath.Location> matches) {
+        List<String> paths = new ArrayList<>();
+        for (CompiledPath.Location at : matches) {
+            paths.add(at.matchedPath());
+        }
+        return paths;
+    }
+}
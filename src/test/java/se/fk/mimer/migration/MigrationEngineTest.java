@@ -0,0 +1,85 @@
+package se.fk.mimer.migration;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.fk.mimer.klient.MimerProxy;
+import tools.jackson.core.JsonParser;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MigrationEngineTest {
+    private static final Logger log = LoggerFactory.getLogger(MigrationEngineTest.class);
+    private static final ObjectMapper JSON = JsonMapper.builder().build();
+
+    @Test
+    void readSchemaVersion_fromStreamAgreesWithTree() {
+        log.info("*** Testcase *** Read schema versions from token streams and trees, and compare");
+        Object[][] cases = {
+                {"{\"mimer:schemaVersion\":2,\"person\":{}}", 2},                 // current
+                {"{\"person\":{},\"mimer:schemaVersion\":1}", 1},                 // old, after other members
+                {"{\"person\":{\"mimer:schemaVersion\":2}}", 0},                  // missing (nested ones do not count)
+                {"{\"mimer:schemaVersion\":\" 1 \"}", 1},                         // string
+                {"{\"mimer:schemaVersion\":\"one\"}", 0},
+                {"{\"mimer:schemaVersion\":null}", 0},
+                {"{\"mimer:schemaVersion\":1.0}", 0},
+                {"{\"mimer:schemaVersion\":{\"v\":2},\"x\":[1]}", 0},
+                {"{\"mimer:schemaVersion\":99999999999999999999}", 0},
+                {"{\"mimer:schemaVersion\":2,\"x\":{},\"mimer:schemaVersion\":0}", 0}, // last duplicate wins
+                {"{\"mimer:schemaVersion\":0,\"mimer:schemaVersion\":2}", 2},
+                {"{\"mimer:schemaVersion\":2,\"mimer:schemaVersion\":\"x\"}", 0},
+                {"{}", 0},
+                {"[{\"mimer:schemaVersion\":2}]", 0},
+                {"2", 0},
+        };
+        for (Object[] c : cases) {
+            String json = (String) c[0];
+            int expected = (Integer) c[1];
+            int fromTree = MigrationEngine.readSchemaVersion(JSON.readTree(json));
+            int fromStream;
+            try (JsonParser parser = JSON.createParser(json)) {
+                fromStream = MigrationEngine.readSchemaVersion(parser);
+            }
+            assertEquals(expected, fromTree, json);
+            assertEquals(fromTree, fromStream, json);
+        }
+    }
+
+    @Test
+    void readSchemaVersion_fromStreamPositionedAtRoot() {
+        log.info("*** Testcase *** Read the schema version from a parser already positioned at the root object");
+        try (JsonParser parser = JSON.createParser("{\"a\":[1,{\"b\":2}],\"mimer:schemaVersion\":1}")) {
+            parser.nextToken();
+            assertEquals(1, MigrationEngine.readSchemaVersion(parser));
+        }
+    }
+
+    @Test
+    void deserialize_migratesUnlessCurrent() {
+        log.info("*** Testcase *** Deserialize current, old, unversioned and duplicate-versioned documents");
+        MimerProxy proxy = MimerProxy.defaultInstance();
+
+        // Current documents are bound as they are
+        Map<?, ?> current = proxy.deserialize("{\"mimer:schemaVersion\":2,\"person\":{}}", Map.class);
+        assertEquals(Map.of(), current.get("person"));
+
+        // Older ones are migrated, here getting a default country from step 1 -> 2
+        Map<?, ?> old = proxy.deserialize("{\"mimer:schemaVersion\":\"1\",\"person\":{}}", Map.class);
+        assertEquals("SE", ((Map<?, ?>) old.get("person")).get("land"));
+        assertEquals(2, old.get("mimer:schemaVersion"));
+
+        Map<?, ?> unversioned = proxy.deserialize("{\"person\":{\"typ\":\"x\"}}", Map.class);
+        assertEquals("x", ((Map<?, ?>) unversioned.get("person")).get("roll"));
+        assertEquals(2, unversioned.get("mimer:schemaVersion"));
+
+        // The last of duplicate versions counts, so this one is not taken for current
+        Map<?, ?> duplicate = proxy.deserialize(
+                "{\"mimer:schemaVersion\":2,\"person\":{},\"mimer:schemaVersion\":1}", Map.class
+        );
+        assertEquals("SE", ((Map<?, ?>) duplicate.get("person")).get("land"));
+    }
+}
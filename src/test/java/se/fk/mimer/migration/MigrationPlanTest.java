@@ -0,0 +1,424 @@
+package se.fk.mimer.migration;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.node.ArrayNode;
+import tools.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static se.fk.mimer.migration.MigrationEngine.*;
+
+public class MigrationPlanTest {
+    private static final Logger log = LoggerFactory.getLogger(MigrationPlanTest.class);
+    private static final ObjectMapper JSON = JsonMapper.builder().build();
+
+    private static final String V0 = """
+            {
+              "person": {"typ": "ffa:yrkande", "namn": "Ada"},
+              "beslut": {"datum": "2024-03-01T10:00:00Z", "id": "17"},
+              "producerade_resultat": [
+                {"id": 1, "period": {"from": "2024-01-01T00:00:00Z", "tom": "2024-02-01T00:00:00Z"}},
+                {"id": 1, "period": {"from": "2024-01-01T00:00:00Z"}},
+                {"id": 2, "period": {"from": "2024-05-01"}}
+              ]
+            }
+            """;
+
+    private static final String V1 = """
+            {
+              "mimer:schemaVersion": 1,
+              "person": {"roll": "ffa:yrkande", "land": null},
+              "beslut": {"datum": "2024-03-01", "id": "x17"},
+              "producerade_resultat": {"id": 3}
+            }
+            """;
+
+    @Test
+    void compile_followsStepsUntilTargetOrMissingStep() {
+        log.info("*** Testcase *** Compile plans to, short of and at the target version");
+        List<Migration> migrations = List.of(
+                new Migration("b", 1, 2, List.of()),
+                new Migration("a", 0, 1, List.of())
+        );
+
+        MigrationPlan full = MigrationPlan.compile(migrations, 0, 2);
+        assertEquals(0, full.fromVersion());
+        assertEquals(2, full.toVersion());
+        assertFalse(full.halted());
+        assertFalse(full.isEmpty());
+
+        MigrationPlan partial = MigrationPlan.compile(migrations, 1, 4);
+        assertEquals(2, partial.toVersion());
+        assertTrue(partial.halted());
+
+        MigrationPlan current = MigrationPlan.compile(migrations, 2, 2);
+        assertEquals(2, current.toVersion());
+        assertFalse(current.halted());
+        assertTrue(current.isEmpty());
+
+        try {
+            MigrationPlan.compile(null, 0, 2);
+            fail("Expected missing migrations to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    void compile_rejectsStepThatDoesNotAdvance() {
+        log.info("*** Testcase *** Compile a plan through a step that does not raise the version");
+        List<Migration> migrations = List.of(
+                new Migration("a", 0, 1, List.of()),
+                new Migration("stuck", 1, 1, List.of())
+        );
+        try {
+            MigrationPlan.compile(migrations, 0, 2);
+            fail("Expected a non-advancing migration to be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("'stuck'"), expected.getMessage());
+        }
+    }
+
+    @Test
+    void apply_rejectsPlanForOtherVersion() {
+        log.info("*** Testcase *** Apply a plan to a document at another schema version than the plan starts at");
+        JsonNode root = JSON.readTree(V1);
+        try {
+            new MigrationEngine().apply(root, MimerMigrations.planFrom(0));
+            fail("Expected a plan for version 0 to be rejected for a version 1 document");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        assertEquals(JSON.readTree(V1), root);
+    }
+
+    @Test
+    void apply_recordsHaltWhereStepIsMissing() {
+        log.info("*** Testcase *** Apply a plan that lacks a step to the target, and verify it halts with an audit entry");
+        List<Migration> migrations = List.of(MimerMigrations.all().get(0)); // only 0 -> 1
+        MigrationPlan plan = MigrationPlan.compile(migrations, 0, MimerMigrations.CURRENT);
+
+        JsonNode root = JSON.readTree(V0);
+        Result result = new MigrationEngine().apply(root, plan);
+        assertEquals(1, readSchemaVersion(root));
+        assertEquals("ffa:yrkande", root.get("person").get("roll").asString());
+
+        AuditEntry last = result.audit.get(result.audit.size() - 1);
+        assertEquals("engine", last.ruleName);
+        assertEquals("halt", last.action);
+        assertEquals("/mimer:schemaVersion", last.pointer);
+        assertEquals("No migration defined from version 1", last.details);
+
+        // Same as going one step at a time
+        JsonNode stepwise = JSON.readTree(V0);
+        Result expected = stepwise(stepwise, migrations, MimerMigrations.CURRENT);
+        assertEquals(stepwise, root);
+        assertEquals(byRule(expected.audit), byRule(result.audit));
+    }
+
+    @Test
+    void planFrom_compilesEachHistoricVersionOnce() {
+        log.info("*** Testcase *** Fetch plans for historic and current versions, and verify historic ones are reused");
+        for (int v = 0; v < MimerMigrations.CURRENT; v++) {
+            MigrationPlan plan = MimerMigrations.planFrom(v);
+            assertSame(plan, MimerMigrations.planFrom(v));
+            assertEquals(v, plan.fromVersion());
+            assertEquals(MimerMigrations.CURRENT, plan.toVersion());
+            assertFalse(plan.halted());
+        }
+        MigrationPlan current = MimerMigrations.planFrom(MimerMigrations.CURRENT);
+        assertTrue(current.isEmpty());
+        assertEquals(MimerMigrations.CURRENT, current.toVersion());
+    }
+
+    @Test
+    void apply_agreesWithStepwiseMigration() {
+        log.info("*** Testcase *** Migrate version 0 and 1 documents with cached plans and one step at a time, and compare");
+        MigrationEngine engine = new MigrationEngine();
+        for (String json : List.of(V0, V1)) {
+            JsonNode planned = JSON.readTree(json);
+            Result result = engine.apply(planned, MimerMigrations.planFrom(readSchemaVersion(planned)));
+
+            JsonNode stepwise = JSON.readTree(json);
+            Result expected = stepwise(stepwise, MimerMigrations.all(), MimerMigrations.CURRENT);
+
+            assertEquals(stepwise, planned, json);
+            assertEquals(MimerMigrations.CURRENT, readSchemaVersion(planned));
+            // Rules for different root members may be interleaved (see MigrationPlan),
+            // but each rule, and each version step, audits the same things in the same order
+            assertEquals(byRule(expected.audit), byRule(result.audit), json);
+            assertEquals(expected.audit.size(), result.audit.size(), json);
+            assertFalse(result.audit.isEmpty());
+        }
+    }
+
+    @Test
+    void apply_agreesWithUnfusedRules() {
+        log.info("*** Testcase *** Migrate random documents with fused plans and rule by rule, and compare");
+        Random random = new Random(4711);
+        MigrationEngine engine = new MigrationEngine();
+        for (List<Migration> migrations : List.of(MimerMigrations.all(), synthetic())) {
+            MigrationPlan[] plans = {
+                    MigrationPlan.compile(migrations, 0, 2),
+                    MigrationPlan.compile(migrations, 1, 2),
+            };
+            for (int i = 0; i < 2000; i++) {
+                ObjectNode document = randomDocument(random);
+                int version = random.nextInt(2);
+                if (version > 0) {
+                    writeSchemaVersion(document, version);
+                }
+
+                JsonNode fused = document.deepCopy();
+                Result result = engine.apply(fused, plans[version]);
+                JsonNode unfused = document.deepCopy();
+                Result expected = stepwise(unfused, migrations, 2);
+
+                String label = migrations.get(0).name + ": " + document;
+                assertEquals(unfused, fused, label);
+                assertEquals(byRule(expected.audit), byRule(result.audit), label);
+                assertEquals(expected.audit.size(), result.audit.size(), label);
+            }
+        }
+    }
+
+    @Test
+    void compile_groupsRulesByRootMember() {
+        log.info("*** Testcase *** Compile the bundled migrations and verify how rules are grouped and fused");
+        assertEquals(List.of(
+                "Single set @context",
+                "Single set @type",
+                "Group person",
+                "  Single rename person.typ->roll",
+                "  Single default person.land",
+                "  Single map person.roll vocab",
+                "Group beslut",
+                "  Fused [normalize beslut.datum, coerce beslut.id -> int]",
+                "Group producerade_resultat",
+                "  Fused [normalize period.from, normalize period.tom]",
+                "  Single ensure producerade_resultat is array",
+                "  Single dedupe producerade_resultat by id",
+                "Upgrade kundbehov->yrkande",
+                "Upgrade example future changes"
+        ), describe(MimerMigrations.planFrom(0).ops(), ""));
+    }
+
+    @Test
+    void apply_skipsGroupsOnlyForMembersAbsentWhenReached() {
+        log.info("*** Testcase *** Apply groups for absent members, and for members created by an earlier barrier");
+        List<Migration> migrations = List.of(
+                new Migration("s0", 0, 1, List.of(
+                        renameField("rename a.x", "$.a.x", "y")
+                )),
+                new Migration("s1", 1, 2, List.of(
+                        new Rule("create b", "$", (root, match, audit) -> {
+                            ((ObjectNode) root).putObject("b").put("x", "2024-01-01T00:00:00Z");
+                            audit.add(new AuditEntry("create b", "$", match.matchedPath, "/b", "set", "created b"));
+                        }),
+                        normalizeInstantZToDate("normalize b.x", "$.b.x"),
+                        setDefaultStringIfMissing("default c.land", "$.c", "land", "SE")
+                ))
+        );
+        MigrationPlan plan = MigrationPlan.compile(migrations, 0, 2);
+        assertEquals(List.of(
+                "Group a", "  Single rename a.x", "Upgrade s0",
+                "Single create b",
+                "Group b", "  Single normalize b.x",
+                "Group c", "  Single default c.land",
+                "Upgrade s1"
+        ), describe(plan.ops(), ""));
+
+        JsonNode root = JSON.readTree("{\"x\":{}}");
+        Result result = new MigrationEngine().apply(root, plan);
+        assertEquals(JSON.readTree("{\"x\":{},\"mimer:schemaVersion\":2,\"b\":{\"x\":\"2024-01-01\"}}"), root);
+        assertEquals(List.of("s0", "create b", "normalize b.x", "s1"), ruleNames(result.audit));
+    }
+
+    @Test
+    void apply_auditsByRootMemberThenVersionSteps() {
+        log.info("*** Testcase *** Apply fused plans and verify the order of audit entries");
+        JsonNode root = JSON.readTree(V0);
+        Result result = new MigrationEngine().apply(root, MimerMigrations.planFrom(0));
+        // Rules for each root member together, across steps, and the version steps after them
+        assertEquals(List.of(
+                "set @context", "set @type",
+                "rename person.typ->roll", "default person.land", "map person.roll vocab",
+                "normalize beslut.datum", "coerce beslut.id -> int",
+                "normalize period.from", "normalize period.tom", "normalize period.from",
+                "dedupe producerade_resultat by id",
+                "kundbehov->yrkande", "example future changes"
+        ), ruleNames(result.audit));
+
+        // Rules up to a DOCUMENT rule are run, and earlier steps completed, before it; here
+        // the rule for a from step 1 moves ahead of the upgrade to 1, but not past the barrier
+        List<Migration> migrations = List.of(
+                new Migration("s0", 0, 1, List.of(renameField("rename b.x", "$.b.x", "y"))),
+                new Migration("s1", 1, 2, List.of(
+                        renameField("rename a.x", "$.a.x", "y"),
+                        new Rule("barrier", "$", (r, match, audit) -> audit.add(new AuditEntry("barrier", "$",
+                                match.matchedPath, "/", "read", "version " + readSchemaVersion(r)))),
+                        renameField("rename b.y", "$.b.y", "z")
+                ))
+        );
+        root = JSON.readTree("{\"a\":{\"x\":1},\"b\":{\"x\":2}}");
+        result = new MigrationEngine().apply(root, MigrationPlan.compile(migrations, 0, 2));
+        assertEquals(List.of("rename b.x", "rename a.x", "s0", "barrier", "rename b.y", "s1"), ruleNames(result.audit));
+        assertEquals("version 1", result.audit.get(3).details);
+    }
+
+    /**
+     * Renames, deletes, deep scans (confined to a member and over the whole document),
+     * DOCUMENT barriers and rules over members that random documents often lack.
+     */
+    private static List<Migration> synthetic() {
+        return List.of(
+                new Migration("s0", 0, 1, List.of(
+                        moveFieldToSibling("move x.typ", "$.x[*].typ", "roll"),
+                        normalizeInstantZToDate("normalize x.from", "$.x[*].from"),
+                        delete("delete other.x", "$.other.x"),
+                        coerceStringToInt("coerce x.id", "$.x[*].id"),
+                        ensureArray("ensure x", "$.x"),
+                        renameField("rename beslut.datum", "$.beslut.datum", "dag")
+                )),
+                new Migration("s1", 1, 2, List.of(
+                        mapStringValues("map x.roll", "$.x[*].roll", Map.of("ffa:yrkande", "mimer:yrkande")),
+                        new Rule("barrier", "$", (root, match, audit) -> {
+                            JsonNode other = root.get("other");
+                            if (other != null) {
+                                ((ObjectNode) root).put("seen", other + " at " + readSchemaVersion(root));
+                                audit.add(new AuditEntry("barrier", "$", match.matchedPath, "/seen", "set", "copied other"));
+                            }
+                        }),
+                        copyFieldToSibling("copy beslut.dag", "$.beslut.dag", "dag2"),
+                        coerceStringToBoolean("coerce x.id", "$.x[*].id"),
+                        dedupeArrayByKey("dedupe x", "$.x", "id"),
+                        normalizeInstantZToDate("normalize deep from", "$.producerade_resultat..from"),
+                        delete("delete deep tom", "$..tom"),
+                        setDefaultStringIfMissing("default person.land", "$.person", "land", "SE")
+                ))
+        );
+    }
+
+    private static ObjectNode randomDocument(Random random) {
+        ObjectNode document = JSON.createObjectNode();
+        for (String field : List.of("person", "beslut", "producerade_resultat", "x", "other")) {
+            if (random.nextInt(4) != 0) {
+                document.set(field, randomValue(random, 0));
+            }
+        }
+        return document;
+    }
+
+    private static JsonNode randomValue(Random random, int depth) {
+        switch (random.nextInt(depth > 2 ? 4 : 7)) {
+            case 0:
+                return random.nextBoolean()
+                        ? JSON.getNodeFactory().stringNode("2024-03-0" + random.nextInt(9) + "T01:00:00Z")
+                        : JSON.getNodeFactory().stringNode(String.valueOf(random.nextInt(3)));
+            case 1:
+                return JSON.getNodeFactory().numberNode(random.nextInt(3));
+            case 2:
+                return JSON.getNodeFactory().nullNode();
+            case 3:
+                return JSON.getNodeFactory().stringNode(random.nextBoolean() ? "ffa:yrkande" : "true");
+            case 4:
+            case 5: {
+                ObjectNode object = JSON.createObjectNode();
+                for (String field : List.of("typ", "roll", "from", "tom", "id", "datum", "dag", "period", "x", "land")) {
+                    if (random.nextInt(3) == 0) {
+                        object.set(field, randomValue(random, depth + 1));
+                    }
+                }
+                return object;
+            }
+            default: {
+                ArrayNode array = JSON.createArrayNode();
+                for (int n = random.nextInt(4); n > 0; n--) {
+                    array.add(randomValue(random, depth + 1));
+                }
+                return array;
+            }
+        }
+    }
+
+    private static List<String> describe(List<MigrationPlan.Op> ops, String indent) {
+        List<String> lines = new ArrayList<>();
+        for (MigrationPlan.Op op : ops) {
+            switch (op) {
+                case MigrationPlan.Single single -> lines.add(indent + "Single " + single.rule().name);
+                case MigrationPlan.Group group -> {
+                    lines.add(indent + "Group " + group.rootField());
+                    lines.addAll(describe(group.ops(), indent + "  "));
+                }
+                case MigrationPlan.Fused fused -> {
+                    List<String> names = new ArrayList<>();
+                    fused.rules().forEach(rule -> names.add(rule.name));
+                    lines.add(indent + "Fused " + names);
+                }
+                case MigrationPlan.Upgrade upgrade -> lines.add(indent + "Upgrade " + upgrade.migration().name);
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> ruleNames(List<AuditEntry> audit) {
+        List<String> names = new ArrayList<>();
+        for (AuditEntry entry : audit) {
+            names.add(entry.ruleName);
+        }
+        return names;
+    }
+
+    /**
+     * Migrates as applyUpToCurrent did before plans: each step in turn, each rule
+     * on its own, and the schema version written after every step.
+     */
+    static Result stepwise(JsonNode root, List<Migration> migrations, int currentVersion) {
+        List<Migration> ordered = new ArrayList<>(migrations);
+        ordered.sort(Comparator.comparingInt(m -> m.fromVersion));
+
+        MigrationEngine engine = new MigrationEngine();
+        List<AuditEntry> audit = new ArrayList<>();
+        int version = readSchemaVersion(root);
+        while (version < currentVersion) {
+            Migration next = null;
+            for (Migration m : ordered) {
+                if (m.fromVersion == version) {
+                    next = m;
+                    break;
+                }
+            }
+            if (next == null) {
+                audit.add(new AuditEntry("engine", "$", "$", "/" + SCHEMA_VERSION_FIELD,
+                        "halt", "No migration defined from version " + version));
+                break;
+            }
+            audit.addAll(engine.applyAll(root, List.of(next)).audit);
+            version = next.toVersion;
+            writeSchemaVersion(root, version);
+            audit.add(new AuditEntry(next.name, "$", "$", "/" + SCHEMA_VERSION_FIELD,
+                    "set", "Upgraded to version " + version));
+        }
+        return new Result(root, audit);
+    }
+
+    /** Audit entries per rule (or step), each list in the order recorded */
+    static Map<String, List<String>> byRule(List<AuditEntry> audit) {
+        Map<String, List<String>> byRule = new HashMap<>();
+        for (AuditEntry entry : audit) {
+            byRule.computeIfAbsent(entry.ruleName, r -> new ArrayList<>()).add(entry.toString());
+        }
+        return byRule;
+    }
+}